@@ -0,0 +1,169 @@
+package org.revenj;
+
+import org.revenj.patterns.AggregateRoot;
+import org.revenj.patterns.DataChangeNotification;
+import org.revenj.patterns.Repository;
+import rx.Subscription;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded LRU cache of aggregates shared by all repositories of a single aggregate type.
+ * Entries are invalidated by data change notifications.
+ * Aggregates are mutable, so cache keeps its own copy and returns clones.
+ */
+final class AggregateCache<T extends AggregateRoot> implements CacheStatistics, Closeable {
+
+	private final String name;
+	private final Method clone;
+	private final LinkedHashMap<String, T> entries;
+	private final Subscription subscription;
+	private long version;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	AggregateCache(String name, Class<T> manifest, int maxSize, DataChangeNotification notifications) {
+		this.name = name;
+		if (!Cloneable.class.isAssignableFrom(manifest)) {
+			throw new IllegalArgumentException("Unable to cache " + name + ". " + manifest + " is not Cloneable");
+		}
+		try {
+			this.clone = manifest.getMethod("clone");
+		} catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException("Unable to cache " + name + ". " + manifest + " doesn't have public clone method", e);
+		}
+		this.entries = new LinkedHashMap<String, T>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+				if (size() > maxSize) {
+					evictions.increment();
+					return true;
+				}
+				return false;
+			}
+		};
+		this.subscription = notifications.getNotifications()
+				.filter(it -> name.equals(it.name))
+				.subscribe(it -> invalidate(it.uris));
+	}
+
+	@SuppressWarnings("unchecked")
+	private T copy(T instance) {
+		try {
+			return (T) clone.invoke(instance);
+		} catch (ReflectiveOperationException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void invalidate(String[] uris) {
+		synchronized (entries) {
+			version++;
+			for (String uri : uris) {
+				if (entries.remove(uri) != null) {
+					invalidations.increment();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drop all entries. Used when notifications might have been missed,
+	 * eg. while notification connection was being reestablished.
+	 */
+	void clear() {
+		synchronized (entries) {
+			version++;
+			invalidations.add(entries.size());
+			entries.clear();
+		}
+	}
+
+	List<T> find(String[] uris, Supplier<? extends Repository<T>> repository) {
+		List<T> result = new ArrayList<>(uris.length);
+		List<String> missing = null;
+		long startVersion;
+		synchronized (entries) {
+			startVersion = version;
+			for (String uri : uris) {
+				T found = entries.get(uri);
+				if (found != null) {
+					result.add(found);
+				} else {
+					if (missing == null) missing = new ArrayList<>();
+					missing.add(uri);
+				}
+			}
+		}
+		hits.add(result.size());
+		for (int i = 0; i < result.size(); i++) {
+			result.set(i, copy(result.get(i)));
+		}
+		if (missing == null) {
+			return result;
+		}
+		misses.add(missing.size());
+		List<T> loaded = repository.get().find(missing.toArray(new String[missing.size()]));
+		List<T> copies = new ArrayList<>(loaded.size());
+		for (T it : loaded) {
+			copies.add(copy(it));
+		}
+		synchronized (entries) {
+			//when something was invalidated during loading, loaded values might be stale
+			if (version == startVersion) {
+				for (T it : copies) {
+					entries.put(it.getURI(), it);
+				}
+			}
+		}
+		result.addAll(loaded);
+		return result;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public int getSize() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	@Override
+	public long getHits() {
+		return hits.sum();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	@Override
+	public long getInvalidations() {
+		return invalidations.sum();
+	}
+
+	@Override
+	public void close() {
+		subscription.unsubscribe();
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+}
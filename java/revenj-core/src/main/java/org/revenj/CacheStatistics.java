@@ -0,0 +1,20 @@
+package org.revenj;
+
+/**
+ * Runtime information about an aggregate cache.
+ * Caches are enabled per aggregate through revenj.cache.aggregates setting
+ * and can be resolved from the container as CacheStatistics[].
+ */
+public interface CacheStatistics {
+	String getName();
+
+	int getSize();
+
+	long getHits();
+
+	long getMisses();
+
+	long getEvictions();
+
+	long getInvalidations();
+}
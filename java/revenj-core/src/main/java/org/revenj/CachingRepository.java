@@ -0,0 +1,67 @@
+package org.revenj;
+
+import org.revenj.patterns.*;
+
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Underlying repository is resolved only when it's used,
+ * so cache hits don't acquire a connection from the scope.
+ */
+final class CachingRepository<T extends AggregateRoot> implements Repository<T> {
+
+	private final AggregateCache<T> cache;
+	private final Supplier<? extends Repository<T>> factory;
+	private volatile Repository<T> resolved;
+
+	CachingRepository(AggregateCache<T> cache, Supplier<? extends Repository<T>> factory) {
+		this.cache = cache;
+		this.factory = factory;
+	}
+
+	private Repository<T> repository() {
+		Repository<T> repository = resolved;
+		if (repository == null) {
+			synchronized (this) {
+				repository = resolved;
+				if (repository == null) {
+					repository = factory.get();
+					resolved = repository;
+				}
+			}
+		}
+		return repository;
+	}
+
+	@Override
+	public List<T> find(String[] uris) {
+		return cache.find(uris, this::repository);
+	}
+
+	@Override
+	public Query<T> query(Specification<T> specification) {
+		return repository().query(specification);
+	}
+
+	@Override
+	public List<T> search(Specification<T> specification, Integer limit, Integer offset) {
+		return repository().search(specification, limit, offset);
+	}
+
+	@Override
+	public Stream<T> stream(Specification<T> specification, Integer limit, Integer offset) {
+		return repository().stream(specification, limit, offset);
+	}
+
+	@Override
+	public long count(Specification<T> specification) {
+		return repository().count(specification);
+	}
+
+	@Override
+	public boolean exists(Specification<T> specification) {
+		return repository().exists(specification);
+	}
+}
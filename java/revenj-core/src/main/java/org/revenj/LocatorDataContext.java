@@ -17,6 +17,7 @@ import java.util.concurrent.ConcurrentHashMap;
 final class LocatorDataContext implements UnitOfWork {
 	private final Container locator;
 	private ConcurrentHashMap<Class<?>, SearchableRepository> repositories;
+	private ConcurrentHashMap<Class<?>, Repository> lookups;
 	private ConcurrentHashMap<Class<?>, DomainEventStore> eventStores;
 	private DataChangeNotification changes;
 	private final Connection connection;
@@ -68,6 +69,19 @@ final class LocatorDataContext implements UnitOfWork {
 		});
 	}
 
+	private Repository getLookup(Class<?> manifest) {
+		if (closed) throw new RuntimeException("Unit of work has been closed");
+		if (lookups == null) lookups = new ConcurrentHashMap<>();
+		return lookups.computeIfAbsent(manifest, clazz ->
+		{
+			try {
+				return (Repository) locator.resolve(Utils.makeGenericType(Repository.class, manifest));
+			} catch (ReflectiveOperationException ex) {
+				return (Repository) getRepository(manifest);
+			}
+		});
+	}
+
 	private DomainEventStore getEventStore(Class<?> manifest) {
 		if (closed) throw new RuntimeException("Unit of work has been closed");
 		if (eventStores == null) eventStores = new ConcurrentHashMap<>();
@@ -83,12 +97,12 @@ final class LocatorDataContext implements UnitOfWork {
 
 	@Override
 	public <T extends Identifiable> Optional<T> find(Class<T> manifest, String uri) {
-		return ((Repository) getRepository(manifest)).find(uri);
+		return getLookup(manifest).find(uri);
 	}
 
 	@Override
 	public <T extends Identifiable> List<T> find(Class<T> manifest, Collection<String> uris) {
-		return ((Repository) getRepository(manifest)).find(uris);
+		return getLookup(manifest).find(uris);
 	}
 
 	@Override
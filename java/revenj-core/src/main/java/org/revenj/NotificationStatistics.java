@@ -0,0 +1,36 @@
+package org.revenj;
+
+/**
+ * Runtime information about database notification processing.
+ * When coalescing is enabled (revenj.notifications.coalesceWindow),
+ * notifications are merged per aggregate name and operation before they are published.
+ */
+public interface NotificationStatistics {
+	/**
+	 * Notifications received, but not yet published since coalescing window is still open.
+	 *
+	 * @return current queue depth
+	 */
+	int getQueueDepth();
+
+	/**
+	 * @return total number of notifications which entered coalescing
+	 */
+	long getReceivedCount();
+
+	/**
+	 * @return total number of notifications published after coalescing
+	 */
+	long getPublishedCount();
+
+	/**
+	 * Ratio between received and published notifications.
+	 * Value of 1 means nothing was merged.
+	 *
+	 * @return coalescing ratio
+	 */
+	default double getCoalescingRatio() {
+		long published = getPublishedCount();
+		return published == 0 ? 1 : (double) getReceivedCount() / published;
+	}
+}
@@ -2,6 +2,8 @@ package org.revenj;
 
 import org.postgresql.PGNotification;
 import org.postgresql.core.BaseConnection;
+import org.postgresql.core.PGStream;
+import org.postgresql.core.QueryExecutor;
 import org.revenj.postgres.PostgresReader;
 import org.revenj.postgres.converters.StringConverter;
 import org.revenj.patterns.DomainModel;
@@ -14,14 +16,21 @@ import rx.subjects.PublishSubject;
 import javax.sql.DataSource;
 import java.io.Closeable;
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
-final class PostgresDatabaseNotification implements EagerNotification, Closeable {
+final class PostgresDatabaseNotification implements EagerNotification, NotificationStatistics, Closeable {
 
 	private final DataSource dataSource;
 	private final Optional<DomainModel> domainModel;
@@ -33,10 +42,30 @@ final class PostgresDatabaseNotification implements EagerNotification, Closeable
 	private final ConcurrentMap<Class<?>, Repository> repositories = new ConcurrentHashMap<>();
 	private final ConcurrentMap<String, HashSet<Class<?>>> targets = new ConcurrentHashMap<>();
 
-	private int retryCount;
+	private final List<Runnable> connectListeners = new CopyOnWriteArrayList<>();
+
 	private final int timeout;
 
-	private boolean isClosed;
+	private volatile boolean isClosed;
+
+	private final boolean coalescing;
+	private final AtomicInteger queueDepth = new AtomicInteger();
+	private final LongAdder received = new LongAdder();
+	private final LongAdder published = new LongAdder();
+
+	private static final long KEEP_ALIVE_NANOS = 30L * 1000 * 1000 * 1000;
+	private static final long MAX_BACKOFF = 30000;
+	private static final Field PG_STREAM;
+
+	static {
+		Field field = null;
+		try {
+			field = Class.forName("org.postgresql.core.v3.QueryExecutorImpl").getDeclaredField("pgStream");
+			field.setAccessible(true);
+		} catch (Exception ignore) {
+		}
+		PG_STREAM = field;
+	}
 
 	public PostgresDatabaseNotification(
 			DataSource dataSource,
@@ -46,7 +75,19 @@ final class PostgresDatabaseNotification implements EagerNotification, Closeable
 		this.dataSource = dataSource;
 		this.domainModel = domainModel;
 		this.locator = locator;
-		notifications = subject.asObservable();
+		int coalesceWindow = parseSetting(properties, "revenj.notifications.coalesceWindow", 0);
+		int coalesceSize = parseSetting(properties, "revenj.notifications.coalesceSize", 1000);
+		if (coalesceWindow > 0 && coalesceSize > 1) {
+			notifications = subject
+					.doOnNext(it -> queueDepth.incrementAndGet())
+					.buffer(coalesceWindow, TimeUnit.MILLISECONDS, coalesceSize)
+					.filter(it -> !it.isEmpty())
+					.concatMap(it -> Observable.from(coalesce(it)))
+					.share();
+		} else {
+			notifications = subject.asObservable();
+		}
+		coalescing = coalesceWindow > 0 && coalesceSize > 1;
 		String timeoutValue = properties.getProperty("revenj.notifications.timeout");
 		if (timeoutValue != null) {
 			try {
@@ -65,57 +106,196 @@ final class PostgresDatabaseNotification implements EagerNotification, Closeable
 		}
 	}
 
-	private void setupPooling() {
-		retryCount++;
-		if (retryCount > 60) {
-			retryCount = 30;
+	private static int parseSetting(Properties properties, String name, int defaultValue) {
+		String value = properties.getProperty(name);
+		if (value == null) {
+			return defaultValue;
 		}
 		try {
-			Connection connection = dataSource.getConnection();
-			BaseConnection bc = null;
-			if (connection instanceof BaseConnection) {
-				bc = (BaseConnection) connection;
-			} else if (connection.isWrapperFor(BaseConnection.class)) {
-				bc = connection.unwrap(BaseConnection.class);
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("Error parsing " + name + " setting");
+		}
+	}
+
+	/**
+	 * Merge consecutive notifications with the same name and operation into a single one.
+	 * Notifications for the same name are never reordered, so a different operation
+	 * in between starts a new notification. Duplicate URIs are removed.
+	 */
+	List<NotifyInfo> coalesce(List<NotifyInfo> batch) {
+		queueDepth.addAndGet(-batch.size());
+		received.add(batch.size());
+		if (batch.size() == 1) {
+			published.increment();
+			return batch;
+		}
+		List<NotifyInfo> groups = new ArrayList<>();
+		List<LinkedHashSet<String>> groupUris = new ArrayList<>();
+		Map<String, Integer> lastGroup = new HashMap<>();
+		for (NotifyInfo info : batch) {
+			Integer index = lastGroup.get(info.name);
+			if (index == null || groups.get(index).operation != info.operation) {
+				index = groups.size();
+				groups.add(info);
+				groupUris.add(new LinkedHashSet<>());
+				lastGroup.put(info.name, index);
 			}
-			if (bc != null) {
+			Collections.addAll(groupUris.get(index), info.uris);
+		}
+		List<NotifyInfo> result = new ArrayList<>(groups.size());
+		for (int i = 0; i < groups.size(); i++) {
+			NotifyInfo first = groups.get(i);
+			LinkedHashSet<String> uris = groupUris.get(i);
+			result.add(new NotifyInfo(first.name, first.operation, uris.toArray(new String[uris.size()])));
+		}
+		published.add(result.size());
+		return result;
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	@Override
+	public long getReceivedCount() {
+		return received.sum();
+	}
+
+	@Override
+	public long getPublishedCount() {
+		return published.sum();
+	}
+
+	/**
+	 * Notifications sent while listening connection was down are lost.
+	 * Listener is invoked every time listening connection is (re)established,
+	 * so state which depends on notifications can be discarded.
+	 */
+	void onConnect(Runnable listener) {
+		connectListeners.add(listener);
+	}
+
+	private void setupPooling() {
+		Pooling pooling = new Pooling();
+		pooling.connect();
+		Thread thread = new Thread(pooling, "revenj-notifications");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Listens for notifications on a dedicated connection.
+	 * When driver internals are accessible, waits on the socket until notification arrives
+	 * (or timeout elapses), otherwise falls back to polling with timeout as sleep interval.
+	 * Broken connection is replaced in the same thread with an exponential backoff.
+	 */
+	class Pooling implements Runnable {
+		private BaseConnection connection;
+		private Statement ping;
+		private PGStream stream;
+		private long lastActivity;
+		private boolean unsupported;
+
+		boolean connect() {
+			Connection connection = null;
+			try {
+				connection = dataSource.getConnection();
+				BaseConnection bc = null;
+				if (connection instanceof BaseConnection) {
+					bc = (BaseConnection) connection;
+				} else if (connection.isWrapperFor(BaseConnection.class)) {
+					bc = connection.unwrap(BaseConnection.class);
+				}
+				if (bc == null) {
+					unsupported = true;
+					cleanupConnection(connection);
+					return false;
+				}
 				Statement stmt = bc.createStatement();
 				stmt.execute("LISTEN events; LISTEN aggregate_roots");
-				retryCount = 0;
-				Pooling pooling = new Pooling(bc, stmt);
-				new Thread(pooling).start();
-			} else cleanupConnection(connection);
-		} catch (Exception ex) {
+				this.connection = bc;
+				this.ping = stmt;
+				this.stream = findStream(bc);
+				this.lastActivity = System.nanoTime();
+				for (Runnable listener : connectListeners) {
+					listener.run();
+				}
+				return true;
+			} catch (Exception ex) {
+				cleanupConnection(connection);
+				return false;
+			}
+		}
+
+		private PGStream findStream(BaseConnection connection) {
+			if (PG_STREAM == null) return null;
 			try {
-				Thread.sleep(1000 * retryCount);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+				QueryExecutor executor = connection.getQueryExecutor();
+				if (!PG_STREAM.getDeclaringClass().isInstance(executor)) return null;
+				return (PGStream) PG_STREAM.get(executor);
+			} catch (Exception ignore) {
+				return null;
 			}
 		}
-	}
 
-	class Pooling implements Runnable {
-		private final BaseConnection connection;
-		private final Statement ping;
+		private void disconnect() {
+			cleanupConnection(connection);
+			connection = null;
+			ping = null;
+			stream = null;
+		}
 
-		public Pooling(BaseConnection connection, Statement ping) {
-			this.connection = connection;
-			this.ping = ping;
+		private PGNotification[] waitForNotifications() throws SQLException, IOException {
+			PGNotification[] notifications = connection.getNotifications();
+			if (notifications != null && notifications.length > 0) {
+				return notifications;
+			}
+			if (stream == null) {
+				ping.execute("");
+				notifications = connection.getNotifications();
+				if (notifications == null || notifications.length == 0) {
+					sleep(timeout);
+				}
+				return notifications;
+			}
+			Socket socket = stream.getSocket();
+			int soTimeout = socket.getSoTimeout();
+			socket.setSoTimeout(timeout);
+			try {
+				if (stream.PeekChar() < 0) {
+					throw new IOException("Notification connection was closed");
+				}
+			} catch (SocketTimeoutException ignore) {
+				long now = System.nanoTime();
+				if (now - lastActivity > KEEP_ALIVE_NANOS) {
+					ping.execute("");
+					lastActivity = now;
+				}
+				return null;
+			} finally {
+				socket.setSoTimeout(soTimeout);
+			}
+			lastActivity = System.nanoTime();
+			return connection.getNotifications();
 		}
 
 		@Override
 		public void run() {
 			PostgresReader reader = new PostgresReader();
-			while (!isClosed) {
+			int attempt = 0;
+			while (!isClosed && !unsupported && !Thread.currentThread().isInterrupted()) {
+				if (connection == null && !connect()) {
+					if (unsupported) break;
+					attempt++;
+					sleep(Math.min(MAX_BACKOFF, 1000L << Math.min(attempt - 1, 5)));
+					continue;
+				}
+				attempt = 0;
 				try {
-					ping.execute("");
-					PGNotification[] notifications = connection.getNotifications();
+					PGNotification[] notifications = waitForNotifications();
 					if (notifications == null || notifications.length == 0) {
-						try {
-							Thread.sleep(timeout);
-						} catch (InterruptedException e) {
-							e.printStackTrace();
-						}
 						continue;
 					}
 					for (PGNotification n : notifications) {
@@ -130,32 +310,33 @@ final class PostgresDatabaseNotification implements EagerNotification, Closeable
 							String[] uris = ids.toArray(new String[ids.size()]);
 							switch (op) {
 								case "Update":
-									subject.onNext(new NotifyInfo(ident, Operation.Update, uris));
+									publish(new NotifyInfo(ident, Operation.Update, uris));
 									break;
 								case "Change":
-									subject.onNext(new NotifyInfo(ident, Operation.Change, uris));
+									publish(new NotifyInfo(ident, Operation.Change, uris));
 									break;
 								case "Delete":
-									subject.onNext(new NotifyInfo(ident, Operation.Delete, uris));
+									publish(new NotifyInfo(ident, Operation.Delete, uris));
 									break;
 								default:
-									subject.onNext(new NotifyInfo(ident, Operation.Insert, uris));
+									publish(new NotifyInfo(ident, Operation.Insert, uris));
 									break;
 							}
 						}
 					}
 				} catch (SQLException | IOException ex) {
-					try {
-						Thread.sleep(1000);
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-					cleanupConnection(connection);
-					setupPooling();
-					return;
+					disconnect();
 				}
 			}
-			cleanupConnection(connection);
+			disconnect();
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 	}
 
@@ -171,6 +352,14 @@ final class PostgresDatabaseNotification implements EagerNotification, Closeable
 
 	@Override
 	public void notify(NotifyInfo info) {
+		publish(info);
+	}
+
+	private void publish(NotifyInfo info) {
+		if (!coalescing) {
+			received.increment();
+			published.increment();
+		}
 		subject.onNext(info);
 	}
 
@@ -0,0 +1,13 @@
+package org.revenj;
+
+/**
+ * Marker registered in scopes which only read data.
+ * Repositories resolved in such scopes can serve aggregates from a cache,
+ * even when a connection is registered in the scope.
+ */
+public final class ReadOnlyContext {
+	public static final ReadOnlyContext INSTANCE = new ReadOnlyContext();
+
+	private ReadOnlyContext() {
+	}
+}
@@ -6,17 +6,21 @@ import org.revenj.patterns.*;
 import org.revenj.security.PermissionManager;
 import org.revenj.extensibility.PluginLoader;
 import org.revenj.extensibility.SystemAspect;
+import org.revenj.postgres.PostgresBufferPool;
+import org.revenj.postgres.SequenceAllocators;
 
 import javax.sql.DataSource;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.lang.reflect.Type;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
 
 public abstract class Revenj {
 	public static Container setup() throws IOException {
@@ -137,8 +141,10 @@ public abstract class Revenj {
 		ClassLoader loader = classLoader.orElse(Thread.currentThread().getContextClassLoader());
 		SimpleContainer container = new SimpleContainer("true".equals(properties.getProperty("revenj.resolveUnknown")));
 		container.register(properties);
+		PostgresBufferPool.configure(properties);
 		container.registerInstance(ServiceLocator.class, container, false);
 		container.registerInstance(DataSource.class, dataSource, false);
+		container.registerInstance(SequenceAllocators.class, new SequenceAllocators(properties), false);
 		String ns = properties.getProperty("revenj.namespace");
 		SimpleDomainModel domainModel = new SimpleDomainModel(ns, loader);
 		container.registerInstance(DomainModel.class, domainModel, false);
@@ -154,6 +160,7 @@ public abstract class Revenj {
 						container);
 		container.registerInstance(EagerNotification.class, databaseNotification, false);
 		container.registerInstance(DataChangeNotification.class, databaseNotification, true);
+		container.registerInstance(NotificationStatistics.class, databaseNotification, false);
 		ChangeNotification.registerContainer(container, databaseNotification);
 		container.registerInstance(PermissionManager.class, new RevenjPermissionManager(container), false);
 		container.registerInstance(ClassLoader.class, loader, false);
@@ -169,6 +176,86 @@ public abstract class Revenj {
 			domainModel.updateNamespace(nsAfter);
 		}
 		properties.setProperty("revenj.aspectsCount", Integer.toString(total));
+		setupAggregateCaches(container, properties, domainModel, databaseNotification);
 		return container;
 	}
+
+	@SuppressWarnings("unchecked")
+	private static void setupAggregateCaches(
+			SimpleContainer container,
+			Properties properties,
+			DomainModel domainModel,
+			PostgresDatabaseNotification notifications) throws IOException {
+		String aggregates = properties.getProperty("revenj.cache.aggregates");
+		if (aggregates == null || aggregates.trim().isEmpty()) {
+			return;
+		}
+		if ("disabled".equals(properties.getProperty("revenj.notifications.status"))) {
+			throw new IOException("revenj.cache.aggregates can't be used when notifications are disabled. Caches are invalidated via database notifications");
+		}
+		List<CacheStatistics> caches = new ArrayList<>();
+		int defaultSize = 10000;
+		String sizeValue = properties.getProperty("revenj.cache.size");
+		if (sizeValue != null) {
+			try {
+				defaultSize = Integer.parseInt(sizeValue);
+			} catch (NumberFormatException e) {
+				throw new IOException("Error parsing revenj.cache.size setting");
+			}
+		}
+		for (String it : aggregates.split(",")) {
+			String name = it.trim();
+			if (name.isEmpty()) continue;
+			Optional<Class<?>> manifest = domainModel.find(name);
+			if (!manifest.isPresent() || !AggregateRoot.class.isAssignableFrom(manifest.get())) {
+				throw new IOException("Unable to find aggregate root " + name + " specified in revenj.cache.aggregates");
+			}
+			int size = defaultSize;
+			String customSize = properties.getProperty("revenj.cache." + name + ".size");
+			if (customSize != null) {
+				try {
+					size = Integer.parseInt(customSize);
+				} catch (NumberFormatException e) {
+					throw new IOException("Error parsing revenj.cache." + name + ".size setting");
+				}
+			}
+			AggregateCache cache;
+			try {
+				cache = new AggregateCache(name, manifest.get(), size, notifications);
+			} catch (IllegalArgumentException e) {
+				throw new IOException(e.getMessage(), e);
+			}
+			notifications.onConnect(cache::clear);
+			Type repositoryType = Utils.makeGenericType(Repository.class, manifest.get());
+			boolean decorated = container.decorate(repositoryType, (locator, repository) ->
+					decorateRepository(cache, (SimpleContainer) locator, repository));
+			if (!decorated) {
+				cache.close();
+				throw new IOException("Repository for " + name + " is not registered. Unable to setup cache");
+			}
+			container.registerInstance(Utils.makeGenericType(AggregateCache.class, manifest.get()), cache, true);
+			caches.add(cache);
+		}
+		container.registerInstance(CacheStatistics[].class, caches.toArray(new CacheStatistics[caches.size()]), false);
+	}
+
+	/**
+	 * Inside a transaction which can modify data, it must be read from the database.
+	 * Cache is used outside of transactions and in scopes marked as read only.
+	 * Registrations are only checked, so lazy connection is not created because of this check.
+	 */
+	static boolean canUseCache(SimpleContainer scope) {
+		return scope.isRegistered(ReadOnlyContext.class) || !scope.isRegistered(java.sql.Connection.class);
+	}
+
+	/**
+	 * Repository is resolved lazily by the cache, so it's not created for cache hits.
+	 * This way a scoped connection is not acquired when everything is found in the cache.
+	 */
+	@SuppressWarnings("unchecked")
+	static Object decorateRepository(AggregateCache cache, SimpleContainer scope, Supplier<Object> repository) {
+		return canUseCache(scope)
+				? new CachingRepository(cache, (Supplier) repository)
+				: repository.get();
+	}
 }
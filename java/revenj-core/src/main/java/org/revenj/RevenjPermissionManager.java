@@ -9,9 +9,12 @@ import rx.Observable;
 import rx.Subscription;
 
 import java.io.Closeable;
+import java.lang.ref.WeakReference;
 import java.security.Principal;
 import java.util.*;
-import java.util.concurrent.Callable;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -24,22 +27,137 @@ final class RevenjPermissionManager implements PermissionManager, Closeable {
 	private final Subscription globalSubscription;
 	private final Subscription roleSubscription;
 
-	private Map<String, Boolean> globalPermissions;
-	private Map<String, List<Pair>> rolePermissions;
+	private final int cacheSize;
+	private volatile Permissions permissions;
+	private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+	private final AtomicLong version = new AtomicLong();
+	private final ExecutorService rebuilder = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "revenj-permissions");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final ThreadLocal<PrincipalRoles> lastPrincipal = new ThreadLocal<>();
 
-	private Map<String, Boolean> cache = new HashMap<>();
 	private final Map<Class<?>, List<Filter>> registeredFilters = new HashMap<>();
 
-	private final class Pair {
-		public final String name;
+	private static final class Pair {
+		public final int role;
 		public final boolean isAllowed;
 
-		public Pair(String name, boolean isAllowed) {
-			this.name = name;
+		public Pair(int role, boolean isAllowed) {
+			this.role = role;
 			this.isAllowed = isAllowed;
 		}
 	}
 
+	/**
+	 * Node for a single identifier segment.
+	 * Permission for module.Type is found by walking module and then Type.
+	 */
+	private static final class Node {
+		final Map<String, Node> children = new HashMap<>();
+		Boolean isAllowed;
+		Pair[] roles;
+
+		Node getOrCreate(String segment) {
+			Node child = children.get(segment);
+			if (child == null) {
+				child = new Node();
+				children.put(segment, child);
+			}
+			return child;
+		}
+	}
+
+	/**
+	 * Roles a principal has in a permissions snapshot with decisions for that combination of roles.
+	 * Principals with the same roles share the same instance.
+	 */
+	private static final class RoleSet {
+		final long[] roles;
+		final int hash;
+		final ConcurrentMap<String, Boolean> decisions = new ConcurrentHashMap<>();
+
+		RoleSet(long[] roles) {
+			this.roles = roles;
+			this.hash = Arrays.hashCode(roles);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (obj == null || obj.getClass() != RoleSet.class) return false;
+			RoleSet other = (RoleSet) obj;
+			return hash == other.hash && Arrays.equals(roles, other.roles);
+		}
+	}
+
+	private static final class PrincipalRoles {
+		final WeakReference<Principal> principal;
+		final Permissions permissions;
+		final RoleSet roles;
+
+		PrincipalRoles(Principal principal, Permissions permissions, RoleSet roles) {
+			this.principal = new WeakReference<>(principal);
+			this.permissions = permissions;
+			this.roles = roles;
+		}
+	}
+
+	/**
+	 * Immutable snapshot of permissions with its own decision cache.
+	 * It's replaced as a whole when permissions change.
+	 */
+	private static final class Permissions {
+		final Node root = new Node();
+		final String[] roles;
+		final long version;
+		final ConcurrentMap<RoleSet, RoleSet> roleSets = new ConcurrentHashMap<>();
+
+		Permissions(List<GlobalPermission> global, List<RolePermission> roles, long version) {
+			this.version = version;
+			for (GlobalPermission gp : global) {
+				find(gp.getName()).isAllowed = gp.getIsAllowed();
+			}
+			Map<String, Integer> roleIndex = new HashMap<>();
+			Map<Node, List<Pair>> rolePairs = new LinkedHashMap<>();
+			for (RolePermission rp : roles) {
+				Integer index = roleIndex.get(rp.getRoleID());
+				if (index == null) {
+					index = roleIndex.size();
+					roleIndex.put(rp.getRoleID(), index);
+				}
+				Node node = find(rp.getName());
+				List<Pair> pairs = rolePairs.get(node);
+				if (pairs == null) {
+					pairs = new ArrayList<>();
+					rolePairs.put(node, pairs);
+				}
+				pairs.add(new Pair(index, rp.getIsAllowed()));
+			}
+			for (Map.Entry<Node, List<Pair>> kv : rolePairs.entrySet()) {
+				kv.getKey().roles = kv.getValue().toArray(new Pair[kv.getValue().size()]);
+			}
+			this.roles = new String[roleIndex.size()];
+			for (Map.Entry<String, Integer> kv : roleIndex.entrySet()) {
+				this.roles[kv.getValue()] = kv.getKey();
+			}
+		}
+
+		private Node find(String name) {
+			Node node = root;
+			for (String segment : name.split("\\.")) {
+				node = node.getOrCreate(segment);
+			}
+			return node;
+		}
+	}
+
 	private final class Filter<T> {
 		public final Specification<T> specification;
 		public final String role;
@@ -52,8 +170,6 @@ final class RevenjPermissionManager implements PermissionManager, Closeable {
 		}
 	}
 
-	private boolean permissionsChanged = true;
-
 	public RevenjPermissionManager(ServiceLocator locator) {
 		this(locator.resolve(Properties.class),
 				new Generic<Observable<Callable<GlobalPermission>>>() {
@@ -74,44 +190,76 @@ final class RevenjPermissionManager implements PermissionManager, Closeable {
 			Optional<SearchableRepository<RolePermission>> rolesRepository) {
 		String permissions = properties.getProperty("revenj.permissions");
 		if (permissions != null && permissions.length() > 0) {
-			if (!permissions.equalsIgnoreCase("open") || !permissions.equalsIgnoreCase("closed")) {
+			if (!permissions.equalsIgnoreCase("open") && !permissions.equalsIgnoreCase("closed")) {
 				throw new RuntimeException("Invalid revenj.permission settings found: " + permissions + ".\n"
 						+ "Allowed values are open and closed");
 			}
 		}
-		defaultPermissions = permissions == null || "open".equals(permissions);
-		globalSubscription = globalChanges.subscribe(c -> permissionsChanged = true);
-		roleSubscription = roleChanges.subscribe(c -> permissionsChanged = true);
+		defaultPermissions = permissions == null || "open".equalsIgnoreCase(permissions);
+		String size = properties.getProperty("revenj.permissions.cacheSize");
+		try {
+			cacheSize = size != null ? Integer.parseInt(size) : 10000;
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("Invalid revenj.permissions.cacheSize settings found: " + size, e);
+		}
 		this.globalRepository = globalRepository;
 		this.rolesRepository = rolesRepository;
+		globalSubscription = globalChanges.subscribe(c -> scheduleRebuild());
+		roleSubscription = roleChanges.subscribe(c -> scheduleRebuild());
 	}
 
-	private void checkPermissions() {
-		if (!permissionsChanged)
-			return;
-		if (globalRepository.isPresent()) {
-			globalPermissions =
-					globalRepository.get().search().stream().collect(
-							Collectors.toMap(GlobalPermission::getName, GlobalPermission::getIsAllowed));
+	private Permissions loadPermissions() {
+		//version is read before loading, so a snapshot never claims changes it might have missed
+		long current = version.get();
+		return new Permissions(
+				globalRepository.isPresent() ? globalRepository.get().search() : Collections.<GlobalPermission>emptyList(),
+				rolesRepository.isPresent() ? rolesRepository.get().search() : Collections.<RolePermission>emptyList(),
+				current);
+	}
+
+	private Permissions getPermissions() {
+		Permissions current = permissions;
+		if (current == null) {
+			synchronized (rebuildScheduled) {
+				current = permissions;
+				if (current == null) {
+					current = loadPermissions();
+					permissions = current;
+				}
+			}
 		}
-		if (rolesRepository.isPresent()) {
-			rolePermissions =
-					rolesRepository.get().search().stream().collect(
-							Collectors.groupingBy(
-									RolePermission::getName,
-									Collectors.mapping(it -> new Pair(it.getRoleID(), it.getIsAllowed()), Collectors.toList())));
+		return current;
+	}
+
+	private void rebuild() {
+		//changes which arrive during the rebuild will schedule another one
+		rebuildScheduled.set(false);
+		Permissions loaded;
+		try {
+			loaded = loadPermissions();
+		} catch (RuntimeException ex) {
+			//load them again on the next request and report the error there
+			loaded = null;
+		}
+		synchronized (rebuildScheduled) {
+			Permissions current = permissions;
+			if (current == null || loaded == null || current.version <= loaded.version) {
+				permissions = loaded;
+			}
 		}
-		cache = new HashMap<>();
-		permissionsChanged = false;
 	}
 
-	private boolean checkOpen(String[] parts, int len) {
-		if (len < 1) {
-			return defaultPermissions;
+	private void scheduleRebuild() {
+		version.incrementAndGet();
+		if (permissions == null || !rebuildScheduled.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			rebuilder.execute(this::rebuild);
+		} catch (RejectedExecutionException ignore) {
+			//manager was closed
+			rebuildScheduled.set(false);
 		}
-		String name = String.join(".", Arrays.copyOf(parts, len));
-		Boolean found = globalPermissions.get(name);
-		return found != null ? found : checkOpen(parts, len - 1);
 	}
 
 	private boolean implies(Principal principal, String role) {
@@ -120,34 +268,97 @@ final class RevenjPermissionManager implements PermissionManager, Closeable {
 				: role.equals(principal.getName());
 	}
 
+	private static boolean hasRole(long[] roles, int index) {
+		return (roles[index >> 6] & (1L << index)) != 0;
+	}
+
+	private boolean decide(Permissions current, long[] roles, String identifier) {
+		boolean isAllowed = defaultPermissions;
+		Pair[][] path = null;
+		int depth = 0;
+		Node node = current.root;
+		int start = 0;
+		while (start <= identifier.length()) {
+			int end = identifier.indexOf('.', start);
+			if (end == -1) end = identifier.length();
+			node = node.children.get(identifier.substring(start, end));
+			if (node == null) break;
+			if (node.isAllowed != null) {
+				isAllowed = node.isAllowed;
+			}
+			if (node.roles != null) {
+				if (path == null) path = new Pair[4][];
+				else if (depth == path.length) path = Arrays.copyOf(path, depth * 2);
+				path[depth++] = node.roles;
+			}
+			start = end + 1;
+		}
+		for (int i = depth - 1; i >= 0; i--) {
+			for (Pair pair : path[i]) {
+				if (hasRole(roles, pair.role)) {
+					return pair.isAllowed;
+				}
+			}
+		}
+		return isAllowed;
+	}
+
+	private RoleSet findRoles(Permissions current, Principal user) {
+		PrincipalRoles last = lastPrincipal.get();
+		if (last != null && last.permissions == current && last.principal.get() == user) {
+			return last.roles;
+		}
+		long[] roles = new long[(current.roles.length + 63) >> 6];
+		for (int i = 0; i < current.roles.length; i++) {
+			if (implies(user, current.roles[i])) {
+				roles[i >> 6] |= 1L << i;
+			}
+		}
+		RoleSet candidate = new RoleSet(roles);
+		RoleSet found = current.roleSets.get(candidate);
+		if (found == null) {
+			if (current.roleSets.size() >= cacheSize) {
+				current.roleSets.clear();
+			}
+			found = current.roleSets.putIfAbsent(candidate, candidate);
+			if (found == null) {
+				found = candidate;
+			}
+		}
+		lastPrincipal.set(new PrincipalRoles(user, current, found));
+		return found;
+	}
+
 	@Override
 	public boolean canAccess(String identifier, Principal user) {
 		if (user == null) return defaultPermissions;
-		checkPermissions();
+		Permissions current = getPermissions();
 		String target = identifier != null ? identifier : "";
-		String id = user.getName() + ":" + target;
-		Boolean exists = cache.get(id);
+		RoleSet roles = findRoles(current, user);
+		Boolean exists = roles.decisions.get(target);
 		if (exists != null) {
 			return exists;
 		}
-		String[] parts = target.split(".");
-		boolean isAllowed = checkOpen(parts, parts.length);
-		List<Pair> permissions;
-		for (int i = parts.length; i > 0; i--) {
-			String subName = String.join(".", Arrays.copyOf(parts, i));
-			permissions = rolePermissions.get(subName);
-			if (permissions != null) {
-				Optional<Pair> found = permissions.stream().filter(it -> implies(user, it.name)).findFirst();
-				if (found.isPresent()) {
-					isAllowed = found.get().isAllowed;
-					break;
+		boolean isAllowed = decide(current, roles.roles, target);
+		if (roles.decisions.size() >= cacheSize) {
+			roles.decisions.clear();
+		}
+		roles.decisions.put(target, isAllowed);
+		return isAllowed;
+	}
+
+	@Override
+	public boolean hasFilters(Class<?> manifest, Principal user) {
+		if (user == null) return !defaultPermissions;
+		List<Filter> registered = registeredFilters.get(manifest);
+		if (registered != null) {
+			for (Filter r : registered) {
+				if (implies(user, r.role) != r.inverse) {
+					return true;
 				}
 			}
 		}
-		Map<String, Boolean> newCache = new HashMap<>(cache);
-		newCache.put(id, isAllowed);
-		cache = newCache;
-		return isAllowed;
+		return false;
 	}
 
 	@Override
@@ -200,5 +411,6 @@ final class RevenjPermissionManager implements PermissionManager, Closeable {
 	public void close() {
 		globalSubscription.unsubscribe();
 		roleSubscription.unsubscribe();
+		rebuilder.shutdown();
 	}
 }
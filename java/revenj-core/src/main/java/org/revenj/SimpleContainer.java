@@ -2,6 +2,9 @@ package org.revenj;
 
 import org.revenj.extensibility.Container;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -9,13 +12,14 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 final class SimpleContainer implements Container {
 
 	private static class Registration<T> {
 		public final SimpleContainer owner;
 		public final Class<T> manifest;
-		public T instance;
+		public volatile T instance;
 		public final Function<Container, T> singleFactory;
 		public final BiFunction<Container, Type[], T> biFactory;
 		public final boolean singleton;
@@ -51,15 +55,18 @@ final class SimpleContainer implements Container {
 			return new Registration<>(owner, null, null, null, factory, singleton);
 		}
 
-		boolean promoted;
+		//written after the instance, so readers which see it promoted also see the instance
+		volatile boolean promoted;
+		//reused result for instances and singletons, so their resolution doesn't allocate
+		volatile Either<Object> resolved;
 
 		void promoteToSingleton(Object instance) {
-			promoted = true;
 			this.instance = (T) instance;
+			promoted = true;
 		}
 	}
 
-	private static final ConcurrentMap<Class<?>, CtorInfo[]> classCache = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<Class<?>, ResolutionPlan> classCache = new ConcurrentHashMap<>();
 	private static final ConcurrentMap<Type, TypeInfo> typeCache = new ConcurrentHashMap<>();
 	private static final ConcurrentMap<String, Type> typeNameMappings = new ConcurrentHashMap<>();
 
@@ -93,6 +100,17 @@ final class SimpleContainer implements Container {
 			name = type.toString();
 			mappedType = typeNameMappings.get(name);
 		}
+
+		private volatile ResolutionPlan plan;
+
+		ResolutionPlan getPlan() {
+			ResolutionPlan result = plan;
+			if (result == null) {
+				result = new ResolutionPlan(this, mappings);
+				plan = result;
+			}
+			return result;
+		}
 	}
 
 	static class CtorInfo {
@@ -100,11 +118,153 @@ final class SimpleContainer implements Container {
 		final Constructor<?> ctor;
 		final Type[] rawTypes;
 		final Type[] genTypes;
+		private final MethodHandle handle;
 
 		public CtorInfo(Constructor<?> ctor) {
 			this.ctor = ctor;
 			rawTypes = ctor.getParameterTypes();
 			genTypes = ctor.getGenericParameterTypes();
+			handle = compile(ctor, genTypes.length);
+		}
+
+		private static MethodHandle compile(Constructor<?> ctor, int arguments) {
+			try {
+				ctor.setAccessible(true);
+				return MethodHandles.lookup().unreflectConstructor(ctor)
+						.asType(MethodType.genericMethodType(arguments))
+						.asSpreader(Object[].class, arguments);
+			} catch (RuntimeException | IllegalAccessException ignore) {
+				return null;
+			}
+		}
+
+		Object newInstance(Object[] args) throws ReflectiveOperationException {
+			if (handle == null) {
+				return ctor.newInstance(args);
+			}
+			try {
+				return (Object) handle.invokeExact(args);
+			} catch (Throwable ex) {
+				throw new InvocationTargetException(ex);
+			}
+		}
+	}
+
+	/**
+	 * Constructor argument of a generic type with type variables already mapped.
+	 * Nested generic types are constructed directly through their own plan.
+	 */
+	private static final class ArgumentPlan {
+		final Type type;
+		final boolean optional;
+		final TypeInfo nested;
+		final Map<Type, Type> nestedMappings;
+		final String error;
+		private volatile ResolutionPlan nestedPlan;
+
+		private ArgumentPlan(Type type, boolean optional, TypeInfo nested, Map<Type, Type> nestedMappings, String error) {
+			this.type = type;
+			this.optional = optional;
+			this.nested = nested;
+			this.nestedMappings = nestedMappings;
+			this.error = error;
+		}
+
+		ResolutionPlan getNestedPlan() {
+			ResolutionPlan result = nestedPlan;
+			if (result == null) {
+				result = new ResolutionPlan(nested, nestedMappings);
+				nestedPlan = result;
+			}
+			return result;
+		}
+
+		/**
+		 * Argument of a class constructor is resolved through the container, since it can be registered.
+		 * Only optional arguments are unwrapped, so missing dependency doesn't have to be signaled through an exception.
+		 */
+		static ArgumentPlan create(Type p) {
+			if (p instanceof ParameterizedType) {
+				ParameterizedType pt = (ParameterizedType) p;
+				if (pt.getRawType() == Optional.class && !(pt.getActualTypeArguments()[0] instanceof TypeVariable)) {
+					return new ArgumentPlan(pt.getActualTypeArguments()[0], true, null, null, null);
+				}
+			}
+			return new ArgumentPlan(p, false, null, null, null);
+		}
+
+		static ArgumentPlan create(Type p, Map<Type, Type> mappings, CtorInfo info) {
+			if (p instanceof ParameterizedType) {
+				ParameterizedType nestedType = (ParameterizedType) p;
+				TypeInfo nestedInfo = typeCache.get(nestedType);
+				if (nestedInfo == null) {
+					nestedInfo = new TypeInfo(nestedType);
+					typeCache.putIfAbsent(nestedType, nestedInfo);
+				}
+				if (nestedInfo.rawClass == null) {
+					return new ArgumentPlan(null, false, null, null, "Nested parametrized type: " + nestedType + " is not an instance of Class<?>. Error while resolving constructor: " + info.ctor);
+				} else if (nestedInfo.rawClass == Optional.class) {
+					Type optional = nestedInfo.genericArguments[0];
+					while (optional instanceof TypeVariable && mappings.containsKey(optional)) {
+						optional = mappings.get(optional);
+					}
+					return new ArgumentPlan(optional, true, null, null, null);
+				}
+				Map<Type, Type> nestedMappings = new HashMap<>(mappings);
+				for (Map.Entry<Type, Type> entry : nestedInfo.mappings.entrySet()) {
+					Type parentValue = nestedMappings.get(entry.getValue());
+					nestedMappings.put(entry.getKey(), parentValue != null ? parentValue : entry.getValue());
+				}
+				return new ArgumentPlan(null, false, nestedInfo, nestedMappings, null);
+			}
+			while (p instanceof TypeVariable) {
+				Type mapped = mappings.get(p);
+				if (mapped == null) {
+					return new ArgumentPlan(null, false, null, null, "Unable to map type variable: " + p + ". Error while resolving constructor: " + info.ctor);
+				}
+				p = mapped;
+			}
+			return new ArgumentPlan(p, false, null, null, null);
+		}
+	}
+
+	/**
+	 * Compiled resolution of a class or a generic type: constructor handles with arguments
+	 * already analyzed, so repeated resolutions only resolve dependencies.
+	 */
+	private static final class ResolutionPlan {
+		final Class<?> rawClass;
+		final CtorInfo[] constructors;
+		final ArgumentPlan[][] arguments;
+
+		ResolutionPlan(Class<?> manifest) {
+			this.rawClass = manifest;
+			Constructor<?>[] ctors = manifest.getConstructors();
+			this.constructors = new CtorInfo[ctors.length];
+			this.arguments = new ArgumentPlan[ctors.length][];
+			for (int i = 0; i < ctors.length; i++) {
+				CtorInfo info = new CtorInfo(ctors[i]);
+				constructors[i] = info;
+				ArgumentPlan[] args = new ArgumentPlan[info.genTypes.length];
+				for (int j = 0; j < args.length; j++) {
+					args[j] = ArgumentPlan.create(info.genTypes[j]);
+				}
+				arguments[i] = args;
+			}
+		}
+
+		ResolutionPlan(TypeInfo typeInfo, Map<Type, Type> mappings) {
+			this.rawClass = typeInfo.rawClass;
+			this.constructors = typeInfo.constructors;
+			this.arguments = new ArgumentPlan[constructors.length][];
+			for (int i = 0; i < constructors.length; i++) {
+				CtorInfo info = constructors[i];
+				ArgumentPlan[] args = new ArgumentPlan[info.genTypes.length];
+				for (int j = 0; j < args.length; j++) {
+					args[j] = ArgumentPlan.create(info.genTypes[j], mappings, info);
+				}
+				arguments[i] = args;
+			}
 		}
 	}
 
@@ -138,14 +298,22 @@ final class SimpleContainer implements Container {
 		}
 	}
 
-	private final Map<Type, List<Registration<?>>> container = new HashMap<>();
+	private static final Set<Type> knownTypes = ConcurrentHashMap.newKeySet();
+
+	//root container keeps registrations in a map, while scopes use a small overlay array
+	private final Map<Type, List<Registration<?>>> container;
 	private final SimpleContainer parent;
 	private final boolean resolveUnknown;
 
-	private final CopyOnWriteArrayList<AutoCloseable> closeables = new CopyOnWriteArrayList<>();
+	private Type[] scopedTypes;
+	private Registration<?>[] scopedRegistrations;
+	private volatile int scopedCount;
+
+	private volatile CopyOnWriteArrayList<AutoCloseable> closeables;
 
 	SimpleContainer(boolean resolveUnknown) {
 		parent = null;
+		container = new HashMap<>();
 		this.resolveUnknown = resolveUnknown;
 		registerGenerics(
 				Optional.class,
@@ -161,54 +329,64 @@ final class SimpleContainer implements Container {
 
 	private SimpleContainer(SimpleContainer parent) {
 		this.parent = parent;
+		this.container = null;
 		this.resolveUnknown = parent.resolveUnknown;
 	}
 
-	private Either<Object> tryResolveClass(Class<?> manifest, SimpleContainer caller) {
-		Throwable error = null;
-		CtorInfo[] constructors = classCache.get(manifest);
-		if (constructors == null) {
-			Constructor<?>[] ctors = manifest.getConstructors();
-			constructors = new CtorInfo[ctors.length];
-			for (int i = 0; i < ctors.length; i++) {
-				constructors[i] = new CtorInfo(ctors[i]);
+	private void trackCloseable(AutoCloseable closeable) {
+		CopyOnWriteArrayList<AutoCloseable> tracked = closeables;
+		if (tracked == null) {
+			synchronized (this) {
+				tracked = closeables;
+				if (tracked == null) {
+					tracked = new CopyOnWriteArrayList<>();
+					closeables = tracked;
+				}
 			}
-			classCache.putIfAbsent(manifest, constructors);
 		}
-		for (CtorInfo info : constructors) {
-			Type[] genTypes = info.genTypes;
-			Object[] args = new Object[genTypes.length];
-			boolean success = true;
-			for (int i = 0; i < genTypes.length; i++) {
-				Type p = genTypes[i];
-				Either<Object> arg = tryResolve(p, caller);
-				if (arg.hasError()) {
-					success = false;
-					if (error == null) {
-						error = arg.error;
-					} else {
-						error.addSuppressed(arg.error);
-					}
-					break;
-				}
-				args[i] = arg.value;
+		tracked.add(closeable);
+	}
+
+	private Registration<?> getLocalRegistration(Type type) {
+		if (container != null) {
+			List<Registration<?>> registrations = container.get(type);
+			return registrations != null ? registrations.get(registrations.size() - 1) : null;
+		}
+		for (int i = scopedCount - 1; i >= 0; i--) {
+			if (scopedTypes[i].equals(type)) {
+				return scopedRegistrations[i];
 			}
-			if (success) {
-				try {
-					Object instance = info.ctor.newInstance(args);
-					return Either.success(instance);
-				} catch (Exception e) {
-					if (error == null) {
-						error = e;
-					} else {
-						error.addSuppressed(e);
-					}
-				}
+		}
+		return null;
+	}
+
+	private void collectLocalRegistrations(Type type, List<Registration<?>> result) {
+		if (container != null) {
+			List<Registration<?>> found = container.get(type);
+			if (found != null) {
+				result.addAll(0, found);
 			}
+			return;
 		}
-		return error == null
-				? Either.fail("Unable to find constructors for: " + manifest)
-				: Either.fail(error);
+		int count = scopedCount;
+		int position = 0;
+		for (int i = 0; i < count; i++) {
+			if (scopedTypes[i].equals(type)) {
+				result.add(position++, scopedRegistrations[i]);
+			}
+		}
+	}
+
+	private Either<Object> tryResolveClass(Class<?> manifest, SimpleContainer caller) {
+		ResolutionPlan plan = classCache.get(manifest);
+		if (plan == null) {
+			plan = new ResolutionPlan(manifest);
+			ResolutionPlan existing = classCache.putIfAbsent(manifest, plan);
+			if (existing != null) {
+				plan = existing;
+			}
+		}
+		return tryResolvePlan(plan, caller);
 	}
 
 	private Either<Object> tryResolveType(ParameterizedType type, SimpleContainer caller) {
@@ -231,80 +409,44 @@ final class SimpleContainer implements Container {
 		} else if (typeInfo.constructors.length == 0 && typeInfo.mappedType != null) {
 			return tryResolve(typeInfo.mappedType, caller);
 		}
-		Map<Type, Type> mappings = typeInfo.mappings;
-		return tryResolveTypeFrom(typeInfo, mappings, caller);
+		return tryResolvePlan(typeInfo.getPlan(), caller);
 	}
 
-	private Either<Object> tryResolveTypeFrom(TypeInfo typeInfo, Map<Type, Type> mappings, SimpleContainer caller) {
+	private Either<Object> tryResolvePlan(ResolutionPlan plan, SimpleContainer caller) {
 		Throwable error = null;
-		for (CtorInfo info : typeInfo.constructors) {
-			Type[] genTypes = info.genTypes;
-			Object[] args = new Object[genTypes.length];
+		for (int c = 0; c < plan.constructors.length; c++) {
+			CtorInfo info = plan.constructors[c];
+			ArgumentPlan[] arguments = plan.arguments[c];
+			Object[] args = new Object[arguments.length];
 			boolean success = true;
-			for (int i = 0; i < genTypes.length; i++) {
-				Type p = genTypes[i];
-				if (p instanceof ParameterizedType) {
-					ParameterizedType nestedType = (ParameterizedType) p;
-					TypeInfo nestedInfo = typeCache.get(nestedType);
-					if (nestedInfo == null) {
-						nestedInfo = new TypeInfo(nestedType);
-						typeCache.putIfAbsent(nestedType, nestedInfo);
-					}
-					if (nestedInfo.rawClass == null) {
-						success = false;
-						ReflectiveOperationException roe = new ReflectiveOperationException("Nested parametrized type: " + nestedType + " is not an instance of Class<?>. Error while resolving constructor: " + info.ctor);
-						if (error == null) {
-							error = roe;
-						} else {
-							error.addSuppressed(roe);
-						}
-						break;
-					} else if (nestedInfo.rawClass == Optional.class) {
-						args[i] = tryResolve(nestedInfo.genericArguments[0], caller);
-					} else {
-						Map<Type, Type> nestedMappings = new HashMap<>(typeInfo.mappings);
-						for (Map.Entry<Type, Type> entry : nestedInfo.mappings.entrySet()) {
-							Type parentValue = nestedMappings.get(entry.getValue());
-							nestedMappings.put(entry.getKey(), parentValue != null ? parentValue : entry.getValue());
-						}
-						Either<Object> arg = tryResolveTypeFrom(nestedInfo, nestedMappings, caller);
-						if (arg.hasError()) {
-							success = false;
-							if (error == null) {
-								error = arg.error;
-							} else {
-								error.addSuppressed(arg.error);
-							}
-							break;
-						}
-						args[i] = arg.value;
-					}
-
+			for (int i = 0; i < arguments.length; i++) {
+				ArgumentPlan argument = arguments[i];
+				Either<Object> arg;
+				if (argument.error != null) {
+					arg = Either.fail(argument.error);
+				} else if (argument.nested != null) {
+					arg = tryResolvePlan(argument.getNestedPlan(), caller);
+				} else if (argument.optional) {
+					Either<Object> found = tryResolve(argument.type, caller);
+					arg = Either.success(Optional.ofNullable(found.value));
 				} else {
-					while (p instanceof TypeVariable) {
-						p = mappings.get(p);
-						if (p == null) {
-							success = false;
-							break;
-						}
-					}
-					Either<Object> arg = tryResolve(p, caller);
-					if (arg.hasError()) {
-						success = false;
-						if (error == null) {
-							error = arg.error;
-						} else {
-							error.addSuppressed(arg.error);
-						}
-						break;
+					arg = tryResolve(argument.type, caller);
+				}
+				if (arg.hasError()) {
+					success = false;
+					if (error == null) {
+						error = arg.error;
+					} else {
+						error.addSuppressed(arg.error);
 					}
-					args[i] = arg.value;
+					break;
 				}
+				args[i] = arg.value;
 			}
 
 			if (success) {
 				try {
-					Object instance = info.ctor.newInstance(args);
+					Object instance = info.newInstance(args);
 					return Either.success(instance);
 				} catch (final Exception e) {
 					if (error == null) {
@@ -316,16 +458,27 @@ final class SimpleContainer implements Container {
 			}
 		}
 		return error == null
-				? Either.fail("Unable to find constructors for: " + typeInfo.rawClass)
+				? Either.fail("Unable to find constructors for: " + plan.rawClass)
 				: Either.fail(error);
 	}
 
 	private Registration<?> getRegistration(Type type) {
-		List<Registration<?>> registrations = container.get(type);
-		if (registrations == null) {
-			return parent != null ? parent.getRegistration(type) : null;
-		}
-		return registrations.get(registrations.size() - 1);
+		SimpleContainer current = this;
+		do {
+			Registration<?> registration = current.getLocalRegistration(type);
+			if (registration != null) {
+				return registration;
+			}
+			current = current.parent;
+		} while (current != null);
+		return null;
+	}
+
+	/**
+	 * Check if type is registered in this container or its parents, without resolving it.
+	 */
+	boolean isRegistered(Type type) {
+		return getRegistration(type) != null;
 	}
 
 	@Override
@@ -401,10 +554,7 @@ final class SimpleContainer implements Container {
 		List<Registration<?>> registrations = new ArrayList<>();
 		SimpleContainer current = caller;
 		do {
-			List<Registration<?>> found = current.container.get(element);
-			if (found != null) {
-				registrations.addAll(0, found);
-			}
+			current.collectLocalRegistrations(element, registrations);
 			current = current.parent;
 		} while (current != null);
 		if (registrations.isEmpty()) {
@@ -425,20 +575,27 @@ final class SimpleContainer implements Container {
 	}
 
 	private Either<Object> resolveRegistration(Registration<?> registration, SimpleContainer caller) {
-		if (registration.instance != null) {
-			return Either.success(registration.instance);
+		Either<Object> resolved = registration.resolved;
+		if (resolved != null) {
+			return resolved;
+		}
+		Object found = registration.instance;
+		if (found != null || registration.promoted) {
+			resolved = Either.success(registration.instance);
+			registration.resolved = resolved;
+			return resolved;
 		} else if (registration.singleFactory != null) {
 			try {
 				//TODO match registration owner and caller
 				Object instance;
 				if (registration.singleton) {
-					synchronized (this) {
+					synchronized (registration) {
 						if (registration.promoted) {
 							return Either.success(registration.instance);
 						}
 						instance = registration.singleFactory.apply(this);
 						if (instance instanceof AutoCloseable) {
-							closeables.add((AutoCloseable) instance);
+							trackCloseable((AutoCloseable) instance);
 						}
 						registration.promoteToSingleton(instance);
 					}
@@ -451,14 +608,14 @@ final class SimpleContainer implements Container {
 			}
 		}
 		if (registration.singleton) {
-			synchronized (this) {
+			synchronized (registration) {
 				if (registration.promoted) {
 					return Either.success(registration.instance);
 				}
 				Either<Object> tryInstance = tryResolveClass(registration.manifest, caller);
 				if (tryInstance.isPresent()) {
 					if (tryInstance.value instanceof AutoCloseable) {
-						closeables.add((AutoCloseable) tryInstance.value);
+						trackCloseable((AutoCloseable) tryInstance.value);
 					}
 					registration.promoteToSingleton(tryInstance.value);
 				}
@@ -469,8 +626,24 @@ final class SimpleContainer implements Container {
 	}
 
 	private synchronized void addToRegistry(Type type, Registration registration) {
+		if (knownTypes.add(type)) {
+			typeNameMappings.put(type.toString(), type);
+		}
+		if (container == null) {
+			int count = scopedCount;
+			if (scopedTypes == null) {
+				scopedTypes = new Type[4];
+				scopedRegistrations = new Registration<?>[4];
+			} else if (count == scopedTypes.length) {
+				scopedTypes = Arrays.copyOf(scopedTypes, count * 2);
+				scopedRegistrations = Arrays.copyOf(scopedRegistrations, count * 2);
+			}
+			scopedTypes[count] = type;
+			scopedRegistrations[count] = registration;
+			scopedCount = count + 1;
+			return;
+		}
 		List<Registration<?>> registrations = container.get(type);
-		typeNameMappings.put(type.toString(), type);
 		if (registrations == null) {
 			registrations = new CopyOnWriteArrayList<>();
 			registrations.add(registration);
@@ -488,7 +661,7 @@ final class SimpleContainer implements Container {
 	@Override
 	public void registerInstance(Type type, Object service, boolean handleClose) {
 		if (handleClose && service instanceof AutoCloseable) {
-			closeables.add((AutoCloseable) service);
+			trackCloseable((AutoCloseable) service);
 		}
 		addToRegistry(type, Registration.register(this, service));
 	}
@@ -503,6 +676,33 @@ final class SimpleContainer implements Container {
 		addToRegistry(container, Registration.register(this, factory, false));
 	}
 
+	/**
+	 * Wrap last registration for the type with the provided decorator.
+	 * Decorator is applied on each resolution.
+	 *
+	 * @param type      registered type
+	 * @param decorator function which receives container used for resolution
+	 *                  and supplier which resolves the decorated service when it's actually needed
+	 * @return false if type was not registered with a suitable registration
+	 */
+	boolean decorate(Type type, BiFunction<Container, Supplier<Object>, Object> decorator) {
+		Registration<?> previous = getRegistration(type);
+		if (previous == null || previous.biFactory != null) {
+			return false;
+		}
+		registerFactory(type, locator -> {
+			SimpleContainer caller = (SimpleContainer) locator;
+			return decorator.apply(locator, () -> {
+				Either<Object> found = caller.resolveRegistration(previous, caller);
+				if (found.hasError()) {
+					throw new RuntimeException(found.error);
+				}
+				return found.value;
+			});
+		}, false);
+		return true;
+	}
+
 	@Override
 	public Container createScope() {
 		return new SimpleContainer(this);
@@ -510,10 +710,18 @@ final class SimpleContainer implements Container {
 
 	@Override
 	public void close() throws Exception {
-		container.clear();
-		for (AutoCloseable closable : closeables) {
+		if (container != null) {
+			container.clear();
+		} else {
+			scopedCount = 0;
+		}
+		CopyOnWriteArrayList<AutoCloseable> tracked = closeables;
+		if (tracked == null) {
+			return;
+		}
+		for (AutoCloseable closable : tracked) {
 			closable.close();
 		}
-		closeables.clear();
+		tracked.clear();
 	}
 }
@@ -2,6 +2,7 @@ package org.revenj.patterns;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.stream.Stream;
 
 public interface PersistableRepository<T extends AggregateRoot> extends Repository<T> {
 
@@ -19,6 +20,44 @@ public interface PersistableRepository<T extends AggregateRoot> extends Reposito
 		return persist(Collections.singletonList(item), null, null)[0];
 	}
 
+	/**
+	 * Insert large number of items without building a single large request.
+	 * Items are inserted in chunks so only a part of them is required to be in memory at once.
+	 * Default implementation delegates to insert for each chunk.
+	 *
+	 * @param items items to insert
+	 * @return URIs of inserted items
+	 * @throws IOException when insert failed
+	 */
+	default String[] bulkInsert(Iterable<T> items) throws IOException {
+		List<String> uris = new ArrayList<>();
+		List<T> chunk = new ArrayList<>(1000);
+		for (T item : items) {
+			chunk.add(item);
+			if (chunk.size() == 1000) {
+				uris.addAll(Arrays.asList(insert(chunk)));
+				chunk.clear();
+			}
+		}
+		if (!chunk.isEmpty()) {
+			uris.addAll(Arrays.asList(insert(chunk)));
+		}
+		return uris.toArray(new String[uris.size()]);
+	}
+
+	/**
+	 * Insert items from the stream in chunks. Stream is closed after the insert.
+	 *
+	 * @param items items to insert
+	 * @return URIs of inserted items
+	 * @throws IOException when insert failed
+	 */
+	default String[] bulkInsert(Stream<T> items) throws IOException {
+		try (Stream<T> stream = items) {
+			return bulkInsert((Iterable<T>) stream::iterator);
+		}
+	}
+
 	default void update(Collection<T> items) throws IOException {
 		List<Map.Entry<T, T>> pairs = new ArrayList<>(items.size());
 		for (T item : items) {
@@ -1,6 +1,8 @@
 package org.revenj.patterns;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface SearchableRepository<T extends DataSource> {
 
@@ -31,6 +33,32 @@ public interface SearchableRepository<T extends DataSource> {
 		return search(specification, limit, null);
 	}
 
+	default Stream<T> stream(
+			Specification<T> specification,
+			Integer limit,
+			Integer offset) {
+		Query<T> query = query(specification);
+		if (offset != null) {
+			query = query.skip(offset);
+		}
+		if (limit != null) {
+			query = query.limit(limit);
+		}
+		try {
+			return query.stream();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	default Stream<T> stream() {
+		return stream(null, null, null);
+	}
+
+	default Stream<T> stream(Specification<T> specification) {
+		return stream(specification, null, null);
+	}
+
 	long count(Specification<T> specification);
 
 	default long count() {
@@ -0,0 +1,159 @@
+package org.revenj.postgres;
+
+import org.revenj.patterns.ServiceLocator;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per thread pool of readers and writers used by {@link PostgresReader#create(ServiceLocator)}
+ * and {@link PostgresWriter#create()}.
+ * Instances are returned to the pool on close, keeping their warmed up buffers.
+ * Buffers which grew above the configured limit are released instead of retained.
+ * Several instances are kept per thread since readers and writers are often nested.
+ * Pool is shared by the whole process, so its settings are not per container.
+ */
+public final class PostgresBufferPool {
+
+	private static final int DEFAULT_MAX_BUFFER_SIZE = 256 * 1024;
+	private static final int DEFAULT_POOL_SIZE = 4;
+
+	private static volatile int maxBufferSize = DEFAULT_MAX_BUFFER_SIZE;
+	private static volatile int poolSize = DEFAULT_POOL_SIZE;
+	private static final AtomicBoolean configured = new AtomicBoolean();
+
+	private static final LongAdder hits = new LongAdder();
+	private static final LongAdder misses = new LongAdder();
+	private static final LongAdder growths = new LongAdder();
+	private static final LongAdder trims = new LongAdder();
+
+	private static final class Slots<T> {
+		final Object[] items;
+		int count;
+
+		Slots(int size) {
+			items = new Object[size];
+		}
+
+		@SuppressWarnings("unchecked")
+		T take() {
+			if (count == 0) return null;
+			T item = (T) items[--count];
+			items[count] = null;
+			return item;
+		}
+
+		boolean offer(T item) {
+			if (count == items.length) return false;
+			items[count++] = item;
+			return true;
+		}
+	}
+
+	private static final ThreadLocal<Slots<PostgresReader>> readers = ThreadLocal.withInitial(() -> new Slots<>(poolSize));
+	private static final ThreadLocal<Slots<PostgresWriter>> writers = ThreadLocal.withInitial(() -> new Slots<>(poolSize));
+
+	private PostgresBufferPool() {
+	}
+
+	/**
+	 * Configure pool from revenj.buffers.maxSize (max retained buffer length in chars)
+	 * and revenj.buffers.poolSize (max retained instances per thread) settings.
+	 * Settings are process wide and only the first configuration is applied.
+	 * Containers which are set up later share the same pool and their settings are ignored.
+	 *
+	 * @param properties system configuration
+	 * @return true if settings were applied
+	 */
+	public static boolean configure(Properties properties) {
+		int maxSize = parse(properties, "revenj.buffers.maxSize", DEFAULT_MAX_BUFFER_SIZE);
+		int size = parse(properties, "revenj.buffers.poolSize", DEFAULT_POOL_SIZE);
+		if (!configured.compareAndSet(false, true)) {
+			return false;
+		}
+		maxBufferSize = maxSize;
+		poolSize = size;
+		return true;
+	}
+
+	private static int parse(Properties properties, String name, int defaultValue) {
+		String value = properties.getProperty(name);
+		if (value == null || value.isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			int result = Integer.parseInt(value);
+			if (result < 0) {
+				throw new IllegalArgumentException("Negative value provided for " + name + ": " + value);
+			}
+			return result;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Unable to parse " + name + ". Expecting number. Found: " + value, e);
+		}
+	}
+
+	static PostgresReader takeReader(ServiceLocator locator) {
+		PostgresReader reader = readers.get().take();
+		if (reader == null) {
+			misses.increment();
+			reader = new PostgresReader(locator);
+		} else {
+			hits.increment();
+			if (reader.locator != locator) {
+				reader = new PostgresReader(locator, reader);
+			}
+		}
+		reader.pooled = true;
+		return reader;
+	}
+
+	static void releaseReader(PostgresReader reader) {
+		reader.pooled = false;
+		if (reader.trim(maxBufferSize)) {
+			trims.increment();
+		}
+		//don't keep the locator (usually a request scope) alive while reader is in the pool
+		readers.get().offer(reader.locator == null ? reader : new PostgresReader(null, reader));
+	}
+
+	static PostgresWriter takeWriter() {
+		PostgresWriter writer = writers.get().take();
+		if (writer == null) {
+			misses.increment();
+			writer = new PostgresWriter();
+		} else {
+			hits.increment();
+		}
+		writer.pooled = true;
+		return writer;
+	}
+
+	static void releaseWriter(PostgresWriter writer) {
+		writer.pooled = false;
+		if (writer.trim(maxBufferSize)) {
+			trims.increment();
+		}
+		writers.get().offer(writer);
+	}
+
+	static void bufferGrown() {
+		growths.increment();
+	}
+
+	public static long getHits() {
+		return hits.sum();
+	}
+
+	public static long getMisses() {
+		return misses.sum();
+	}
+
+	public static long getBufferGrowths() {
+		return growths.sum();
+	}
+
+	public static long getBufferTrims() {
+		return trims.sum();
+	}
+}
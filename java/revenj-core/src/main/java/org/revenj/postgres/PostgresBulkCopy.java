@@ -0,0 +1,170 @@
+package org.revenj.postgres;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.revenj.patterns.AggregateRoot;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Bulk insert through COPY FROM STDIN.
+ * Items are processed in chunks. Identities are assigned to each chunk before it's
+ * copied into a temporary table and then passed to the persist function,
+ * so server side logic is still applied.
+ * Only a single chunk of items and a small text buffer are kept in memory.
+ * Temporary table is dropped after each insert, even a failed one,
+ * so multiple bulk inserts can be executed in the same transaction.
+ */
+public abstract class PostgresBulkCopy {
+
+	private static final int CHUNK_SIZE = 10000;
+	private static final int FLUSH_SIZE = 64 * 1024;
+	private static final String TEMP_TABLE = "\"revenj_bulk_insert\"";
+
+	/**
+	 * Insert items through COPY.
+	 * When connection is in autocommit mode, whole operation is executed in a single transaction.
+	 *
+	 * @param connection       connection to use
+	 * @param items            items to insert
+	 * @param converter        aggregate converter
+	 * @param persistFunction  persist function name, eg. "schema"."persist_Name"
+	 * @param assignIdentities identity assignment for each chunk, eg. from sequence allocator. Can be null
+	 * @param prepare          insert loop applied to each chunk after identities are assigned. Can be null
+	 * @param track            change tracking applied to inserted items
+	 * @param <T>              aggregate root type
+	 * @return URIs of inserted items
+	 * @throws IOException when insert failed
+	 */
+	public static <T extends AggregateRoot> String[] insert(
+			Connection connection,
+			Iterable<T> items,
+			ObjectConverter<T> converter,
+			String persistFunction,
+			BiConsumer<List<T>, Connection> assignIdentities,
+			BiConsumer<List<T>, PostgresWriter> prepare,
+			Consumer<T> track) throws IOException {
+		try {
+			PGConnection pg = connection instanceof PGConnection
+					? (PGConnection) connection
+					: connection.unwrap(PGConnection.class);
+			CopyManager copy = pg.getCopyAPI();
+			boolean restoreAutoCommit = connection.getAutoCommit();
+			if (restoreAutoCommit) {
+				connection.setAutoCommit(false);
+			}
+			boolean success = false;
+			try (Statement statement = connection.createStatement();
+				 PostgresWriter sw = PostgresWriter.create()) {
+				String dbName = converter.getDbName();
+				statement.execute("/*NO LOAD BALANCE*/CREATE TEMP TABLE " + TEMP_TABLE + " (item " + dbName + ") ON COMMIT DROP");
+				String persist = "/*NO LOAD BALANCE*/SELECT " + persistFunction
+						+ "((SELECT array_agg(item) FROM " + TEMP_TABLE + "), NULL::" + dbName + "[], NULL::" + dbName + "[], NULL::" + dbName + "[])";
+				List<String> uris = new ArrayList<>();
+				List<T> chunk = new ArrayList<>(CHUNK_SIZE);
+				try {
+					for (T item : items) {
+						chunk.add(item);
+						if (chunk.size() == CHUNK_SIZE) {
+							persistChunk(connection, copy, statement, persist, chunk, converter, assignIdentities, prepare, track, sw, uris);
+							chunk.clear();
+						}
+					}
+					if (!chunk.isEmpty()) {
+						persistChunk(connection, copy, statement, persist, chunk, converter, assignIdentities, prepare, track, sw, uris);
+					}
+				} catch (SQLException | IOException | RuntimeException e) {
+					//when transaction is owned by the caller, it can still be used after a failed bulk insert
+					try {
+						statement.execute("/*NO LOAD BALANCE*/DROP TABLE IF EXISTS " + TEMP_TABLE);
+					} catch (SQLException suppressed) {
+						//transaction is aborted, so table will be removed on rollback
+						e.addSuppressed(suppressed);
+					}
+					throw e;
+				}
+				statement.execute("/*NO LOAD BALANCE*/DROP TABLE " + TEMP_TABLE);
+				if (restoreAutoCommit) {
+					connection.commit();
+				}
+				success = true;
+				return uris.toArray(new String[uris.size()]);
+			} finally {
+				if (restoreAutoCommit) {
+					if (!success) {
+						connection.rollback();
+					}
+					connection.setAutoCommit(true);
+				}
+			}
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static <T extends AggregateRoot> void persistChunk(
+			Connection connection,
+			CopyManager copy,
+			Statement statement,
+			String persist,
+			List<T> chunk,
+			ObjectConverter<T> converter,
+			BiConsumer<List<T>, Connection> assignIdentities,
+			BiConsumer<List<T>, PostgresWriter> prepare,
+			Consumer<T> track,
+			PostgresWriter sw,
+			List<String> uris) throws SQLException, IOException {
+		if (assignIdentities != null) {
+			assignIdentities.accept(chunk, connection);
+		}
+		if (prepare != null) {
+			prepare.accept(chunk, sw);
+		}
+		sw.reset();
+		CopyIn copyIn = copy.copyIn("COPY " + TEMP_TABLE + " FROM STDIN");
+		try {
+			for (T item : chunk) {
+				converter.to(item).buildBulkCopy(sw);
+				sw.write('\n');
+				if (sw.size() > FLUSH_SIZE) {
+					flush(copyIn, sw);
+				}
+			}
+			flush(copyIn, sw);
+			copyIn.endCopy();
+		} finally {
+			if (copyIn.isActive()) {
+				copyIn.cancelCopy();
+			}
+		}
+		try (ResultSet rs = statement.executeQuery(persist)) {
+			rs.next();
+			String message = rs.getString(1);
+			if (message != null) throw new IOException(message);
+		}
+		statement.execute("/*NO LOAD BALANCE*/TRUNCATE " + TEMP_TABLE);
+		for (T item : chunk) {
+			uris.add(item.getURI());
+			if (track != null) {
+				track.accept(item);
+			}
+		}
+	}
+
+	private static void flush(CopyIn copyIn, PostgresWriter sw) throws SQLException {
+		if (sw.size() == 0) return;
+		byte[] bytes = sw.toString().getBytes(StandardCharsets.UTF_8);
+		copyIn.writeToCopy(bytes, 0, bytes.length);
+		sw.reset();
+	}
+}
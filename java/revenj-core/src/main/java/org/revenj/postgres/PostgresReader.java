@@ -6,7 +6,9 @@ import java.io.IOException;
 import java.util.Arrays;
 
 public final class PostgresReader implements PostgresBuffer, AutoCloseable {
-	private String input = "";
+	//when processing a String its reference is kept, otherwise decoded chars are used
+	private String text = "";
+	private char[] input;
 	private int length;
 	private int positionInInput;
 	private int last;
@@ -14,29 +16,127 @@ public final class PostgresReader implements PostgresBuffer, AutoCloseable {
 	private int positionInBuffer;
 	public final ServiceLocator locator;
 	public final char[] tmp;
+	boolean pooled;
 
 	public PostgresReader() {
 		this(null);
 	}
 
 	public PostgresReader(ServiceLocator locator) {
+		this.input = new char[64];
 		this.buffer = new char[64];
 		this.tmp = new char[48];
 		this.locator = locator;
 	}
 
+	/**
+	 * Bind warmed up buffers from a pooled reader to a different locator.
+	 */
+	PostgresReader(ServiceLocator locator, PostgresReader previous) {
+		this.input = previous.input;
+		this.buffer = previous.buffer;
+		this.tmp = previous.tmp;
+		this.locator = locator;
+	}
+
+	/**
+	 * Take a reader from the thread local pool.
+	 * Reader is returned to the pool on close.
+	 *
+	 * @param locator service locator used during parsing
+	 * @return reader ready for processing
+	 */
 	public static PostgresReader create(ServiceLocator locator) {
-		return new PostgresReader(locator);
+		return PostgresBufferPool.takeReader(locator);
 	}
 
 	public void close() {
 		length = positionInBuffer = positionInInput = 0;
 		last = -1;
+		text = "";
+		if (pooled) {
+			PostgresBufferPool.releaseReader(this);
+		}
+	}
+
+	boolean trim(int maxSize) {
+		boolean trimmed = false;
+		if (input.length > maxSize) {
+			input = new char[64];
+			trimmed = true;
+		}
+		if (buffer.length > maxSize) {
+			buffer = new char[64];
+			trimmed = true;
+		}
+		return trimmed;
+	}
+
+	private void growBuffer(int size) {
+		buffer = Arrays.copyOf(buffer, size);
+		PostgresBufferPool.bufferGrown();
 	}
 
 	public void process(String input) {
-		this.input = input;
-		this.length = input.length();
+		this.text = input;
+		start(input.length());
+	}
+
+	public void process(byte[] input) {
+		process(input, 0, input.length);
+	}
+
+	/**
+	 * Process UTF-8 encoded text record without creating an intermediate String.
+	 * Bytes are decoded into a reused char buffer, so only the raw byte[] is allocated per record.
+	 * Raw record bytes can be obtained through ResultSet.getBytes on text columns.
+	 *
+	 * @param source UTF-8 encoded input
+	 * @param offset start of the input in source
+	 * @param len    number of bytes to process
+	 */
+	public void process(byte[] source, int offset, int len) {
+		//UTF-8 never produces more chars than bytes
+		if (this.input.length < len) {
+			this.input = new char[len];
+			PostgresBufferPool.bufferGrown();
+		}
+		this.text = null;
+		final char[] target = this.input;
+		final int end = offset + len;
+		int pos = 0;
+		int i = offset;
+		while (i < end) {
+			int b = source[i++];
+			if (b >= 0) {
+				target[pos++] = (char) b;
+			} else if ((b & 0xE0) == 0xC0 && i < end
+					&& (source[i] & 0xC0) == 0x80) {
+				target[pos++] = (char) (((b & 0x1F) << 6) | (source[i++] & 0x3F));
+			} else if ((b & 0xF0) == 0xE0 && i + 1 < end
+					&& (source[i] & 0xC0) == 0x80 && (source[i + 1] & 0xC0) == 0x80) {
+				target[pos++] = (char) (((b & 0x0F) << 12) | ((source[i] & 0x3F) << 6) | (source[i + 1] & 0x3F));
+				i += 2;
+			} else if ((b & 0xF8) == 0xF0 && i + 2 < end
+					&& (source[i] & 0xC0) == 0x80 && (source[i + 1] & 0xC0) == 0x80 && (source[i + 2] & 0xC0) == 0x80) {
+				int cp = ((b & 0x07) << 18) | ((source[i] & 0x3F) << 12) | ((source[i + 1] & 0x3F) << 6) | (source[i + 2] & 0x3F);
+				i += 3;
+				target[pos++] = Character.highSurrogate(cp);
+				target[pos++] = Character.lowSurrogate(cp);
+			} else {
+				//truncated sequence is replaced with a single char, the same way as in String decoding
+				int expected = (b & 0xE0) == 0xC0 ? 1 : (b & 0xF0) == 0xE0 ? 2 : (b & 0xF8) == 0xF0 ? 3 : 0;
+				while (expected-- > 0 && i < end && (source[i] & 0xC0) == 0x80) {
+					i++;
+				}
+				target[pos++] = '\uFFFD';
+			}
+		}
+		start(pos);
+	}
+
+	private void start(int len) {
+		this.length = len;
 		positionInInput = 0;
 		positionInBuffer = 0;
 		last = 0;
@@ -46,7 +146,8 @@ public final class PostgresReader implements PostgresBuffer, AutoCloseable {
 		if (positionInInput >= length) {
 			return last = -1;
 		}
-		return last = input.charAt(positionInInput++);
+		final int i = positionInInput++;
+		return last = text != null ? text.charAt(i) : input[i];
 	}
 
 	public int read(int total) {
@@ -63,7 +164,7 @@ public final class PostgresReader implements PostgresBuffer, AutoCloseable {
 		if (positionInInput >= length) {
 			return -1;
 		}
-		return input.charAt(positionInInput);
+		return text != null ? text.charAt(positionInInput) : input[positionInInput];
 	}
 
 	public int last() {
@@ -89,7 +190,7 @@ public final class PostgresReader implements PostgresBuffer, AutoCloseable {
 	@Override
 	public void addToBuffer(char c) {
 		if (positionInBuffer == buffer.length) {
-			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			growBuffer(buffer.length * 2);
 		}
 		buffer[positionInBuffer++] = c;
 	}
@@ -97,7 +198,7 @@ public final class PostgresReader implements PostgresBuffer, AutoCloseable {
 	@Override
 	public void addToBuffer(char[] buf) {
 		if (positionInBuffer + buf.length >= buffer.length) {
-			buffer = Arrays.copyOf(buffer, buffer.length * 2 + buf.length);
+			growBuffer(buffer.length * 2 + buf.length);
 		}
 		for (int i = 0; i < buf.length; i++) {
 			buffer[positionInBuffer + i] = buf[i];
@@ -108,7 +209,7 @@ public final class PostgresReader implements PostgresBuffer, AutoCloseable {
 	@Override
 	public void addToBuffer(char[] buf, int len) {
 		if (positionInBuffer + len >= buffer.length) {
-			buffer = Arrays.copyOf(buffer, buffer.length * 2 + len);
+			growBuffer(buffer.length * 2 + len);
 		}
 		for (int i = 0; i < len; i++) {
 			buffer[positionInBuffer + i] = buf[i];
@@ -119,7 +220,7 @@ public final class PostgresReader implements PostgresBuffer, AutoCloseable {
 	@Override
 	public void addToBuffer(char[] buf, int offset, int end) {
 		if (positionInBuffer + end >= buffer.length) {
-			buffer = Arrays.copyOf(buffer, buffer.length * 2 + end);
+			growBuffer(buffer.length * 2 + end);
 		}
 		for (int i = offset; i < end; i++) {
 			buffer[positionInBuffer + i - offset] = buf[i];
@@ -131,7 +232,7 @@ public final class PostgresReader implements PostgresBuffer, AutoCloseable {
 	public void addToBuffer(String input) {
 		int len = input.length();
 		if (positionInBuffer + len >= buffer.length) {
-			buffer = Arrays.copyOf(buffer, buffer.length * 2 + len);
+			growBuffer(buffer.length * 2 + len);
 		}
 		input.getChars(0, len, buffer, positionInBuffer);
 		positionInBuffer += len;
@@ -139,15 +240,15 @@ public final class PostgresReader implements PostgresBuffer, AutoCloseable {
 
 	public void fillUntil(char c1, char c2) throws IOException {
 		int i;
-		for (i = positionInInput; i < input.length(); i++) {
-			char c = input.charAt(i);
+		for (i = positionInInput; i < length; i++) {
+			char c = text != null ? text.charAt(i) : input[i];
 			if (c == c1 || c == c2) {
 				break;
 			}
 			addToBuffer(c);
 		}
 		positionInInput = i;
-		if (positionInInput == input.length()) {
+		if (positionInInput == length) {
 			throw new IOException("End of input detected");
 		}
 	}
@@ -155,15 +256,15 @@ public final class PostgresReader implements PostgresBuffer, AutoCloseable {
 	public int fillUntil(char[] target, int offset, char c1, char c2) throws IOException {
 		int i;
 		int start = offset;
-		for (i = positionInInput; i < input.length(); i++) {
-			char c = input.charAt(i);
+		for (i = positionInInput; i < length; i++) {
+			char c = text != null ? text.charAt(i) : input[i];
 			if (c == c1 || c == c2) {
 				break;
 			}
 			target[offset++] = c;
 		}
 		positionInInput = i;
-		if (positionInInput == input.length()) {
+		if (positionInInput == length) {
 			throw new IOException("End of input detected");
 		}
 		return offset - start;
@@ -172,7 +273,8 @@ public final class PostgresReader implements PostgresBuffer, AutoCloseable {
 	public void fillTotal(char[] target, int offset, int count) throws IOException {
 		//TODO: better exceptions
 		for (int i = 0; i < count; i++) {
-			target[i + offset] = input.charAt(positionInInput + i);
+			final int at = positionInInput + i;
+			target[i + offset] = text != null ? text.charAt(at) : input[at];
 		}
 		positionInInput += count;
 	}
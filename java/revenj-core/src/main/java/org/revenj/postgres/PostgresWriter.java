@@ -6,6 +6,7 @@ public final class PostgresWriter implements PostgresBuffer, AutoCloseable {
 	private char[] buffer;
 	public final char[] tmp;
 	private int position;
+	boolean pooled;
 
 	public PostgresWriter() {
 		buffer = new char[64];
@@ -13,12 +14,34 @@ public final class PostgresWriter implements PostgresBuffer, AutoCloseable {
 		position = 0;
 	}
 
+	/**
+	 * Take a writer from the thread local pool.
+	 * Writer is returned to the pool on close.
+	 *
+	 * @return empty writer
+	 */
 	public static PostgresWriter create() {
-		return new PostgresWriter();
+		return PostgresBufferPool.takeWriter();
 	}
 
 	public void close() {
 		position = 0;
+		if (pooled) {
+			PostgresBufferPool.releaseWriter(this);
+		}
+	}
+
+	boolean trim(int maxSize) {
+		if (buffer.length > maxSize) {
+			buffer = new char[64];
+			return true;
+		}
+		return false;
+	}
+
+	private void grow(int size) {
+		buffer = Arrays.copyOf(buffer, size);
+		PostgresBufferPool.bufferGrown();
 	}
 
 	public void reset() {
@@ -28,7 +51,7 @@ public final class PostgresWriter implements PostgresBuffer, AutoCloseable {
 	public void write(String input) {
 		int len = input.length();
 		if (position + len >= buffer.length) {
-			buffer = Arrays.copyOf(buffer, buffer.length * 2 + len);
+			grow(buffer.length * 2 + len);
 		}
 		input.getChars(0, len, buffer, position);
 		position += len;
@@ -36,21 +59,21 @@ public final class PostgresWriter implements PostgresBuffer, AutoCloseable {
 
 	public void write(byte c) {
 		if (position == buffer.length) {
-			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			grow(buffer.length * 2);
 		}
 		buffer[position++] = (char)c;
 	}
 
 	public void write(char c) {
 		if (position == buffer.length) {
-			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			grow(buffer.length * 2);
 		}
 		buffer[position++] = c;
 	}
 
 	public void write(char[] buf) {
 		if (position + buf.length >= buffer.length) {
-			buffer = Arrays.copyOf(buffer, buffer.length * 2 + buf.length);
+			grow(buffer.length * 2 + buf.length);
 		}
 		for (int i = 0; i < buf.length; i++) {
 			buffer[position + i] = buf[i];
@@ -60,7 +83,7 @@ public final class PostgresWriter implements PostgresBuffer, AutoCloseable {
 
 	public void write(char[] buf, int len) {
 		if (position + len >= buffer.length) {
-			buffer = Arrays.copyOf(buffer, buffer.length * 2 + len);
+			grow(buffer.length * 2 + len);
 		}
 		for (int i = 0; i < len; i++) {
 			buffer[position + i] = buf[i];
@@ -70,7 +93,7 @@ public final class PostgresWriter implements PostgresBuffer, AutoCloseable {
 
 	public void write(char[] buf, int off, int end) {
 		if (position + end >= buffer.length) {
-			buffer = Arrays.copyOf(buffer, buffer.length * 2 + end);
+			grow(buffer.length * 2 + end);
 		}
 		for (int i = off; i < end; i++) {
 			buffer[position + i - off] = buf[i];
@@ -80,7 +103,7 @@ public final class PostgresWriter implements PostgresBuffer, AutoCloseable {
 
 	public void writeBuffer(int len) {
 		if (position + len >= buffer.length) {
-			buffer = Arrays.copyOf(buffer, buffer.length * 2 + len);
+			grow(buffer.length * 2 + len);
 		}
 		for (int i = 0; i < len; i++) {
 			buffer[position + i] = tmp[i];
@@ -88,6 +111,10 @@ public final class PostgresWriter implements PostgresBuffer, AutoCloseable {
 		position += len;
 	}
 
+	public int size() {
+		return position;
+	}
+
 	public String toString() {
 		return new String(buffer, 0, position);
 	}
@@ -186,6 +213,50 @@ public final class PostgresWriter implements PostgresBuffer, AutoCloseable {
 		sb.append("')");
 	}
 
+	/**
+	 * Splits composite URIs into key columns, so they can be bound as array parameters.
+	 * Parts are separated with / while backslash escapes the next character.
+	 *
+	 * @param uris    composite URIs
+	 * @param columns number of key columns
+	 * @return array of values for each key column
+	 */
+	public static String[][] splitCompositeUriList(String[] uris, int columns) {
+		String[][] result = new String[columns][uris.length];
+		StringBuilder sb = new StringBuilder();
+		for (int x = 0; x < uris.length; x++) {
+			String uri = uris[x];
+			int column = 0;
+			if (findEscapedChar(uri) == -1) {
+				if (columns != 1) {
+					throw new IllegalArgumentException("Invalid URI: " + uri + ". Expecting " + columns + " parts");
+				}
+				result[0][x] = uri;
+				continue;
+			}
+			sb.setLength(0);
+			for (int i = 0; i < uri.length(); i++) {
+				char c = uri.charAt(i);
+				if (c == '\\' && i + 1 < uri.length()) {
+					sb.append(uri.charAt(++i));
+				} else if (c == '/') {
+					if (column == columns - 1) {
+						throw new IllegalArgumentException("Invalid URI: " + uri + ". Expecting " + columns + " parts");
+					}
+					result[column++][x] = sb.toString();
+					sb.setLength(0);
+				} else {
+					sb.append(c);
+				}
+			}
+			if (column != columns - 1) {
+				throw new IllegalArgumentException("Invalid URI: " + uri + ". Expecting " + columns + " parts");
+			}
+			result[column][x] = sb.toString();
+		}
+		return result;
+	}
+
 	@Override
 	public char[] getTempBuffer() {
 		return tmp;
@@ -0,0 +1,176 @@
+package org.revenj.postgres;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Reserves blocks of sequence values, so most inserts don't need a round trip for their identifiers.
+ * Block is reserved by calling nextval multiple times in a single query, so it works with
+ * existing sequences, even when other sessions are using them at the same time.
+ * Block size adapts to the insert rate: it grows when block is used up quickly
+ * and shrinks when values are left unused for a long time.
+ * Reserved values which are not used are lost, same as with rolled back transactions.
+ * Shared allocators are obtained from {@link SequenceAllocators} registered in the container.
+ */
+public final class SequenceAllocator {
+
+	private static final long GROW_INTERVAL = 1000L * 1000 * 1000;
+	private static final long SHRINK_INTERVAL = 60L * 1000 * 1000 * 1000;
+
+	/**
+	 * Reserves requested number of unique values.
+	 */
+	@FunctionalInterface
+	public interface Reservation {
+		long[] reserve(Connection connection, int count) throws SQLException;
+	}
+
+	private final Reservation reservation;
+	private final LongSupplier clock;
+	private final int minBlock;
+	private final int maxBlock;
+	private int blockSize;
+	private long[] block = new long[0];
+	private int position;
+	private long reservedAt;
+
+	private final LongAdder allocated = new LongAdder();
+	private final LongAdder roundTrips = new LongAdder();
+
+	public SequenceAllocator(Reservation reservation, int minBlock, int maxBlock) {
+		this(reservation, minBlock, maxBlock, System::nanoTime);
+	}
+
+	/**
+	 * @param reservation how values are reserved
+	 * @param minBlock    minimal number of values reserved at once
+	 * @param maxBlock    maximal number of values reserved at once
+	 * @param clock       nanosecond time source used for adapting block size
+	 */
+	public SequenceAllocator(Reservation reservation, int minBlock, int maxBlock, LongSupplier clock) {
+		if (minBlock < 1) throw new IllegalArgumentException("minBlock must be positive");
+		if (maxBlock < minBlock) throw new IllegalArgumentException("maxBlock must not be smaller than minBlock");
+		this.reservation = reservation;
+		this.clock = clock;
+		this.minBlock = minBlock;
+		this.maxBlock = maxBlock;
+		this.blockSize = minBlock;
+	}
+
+	/**
+	 * @param sequence sequence name as used in SQL, eg. "schema"."table_ID_seq"
+	 * @param minBlock minimal number of values reserved at once
+	 * @param maxBlock maximal number of values reserved at once
+	 */
+	public SequenceAllocator(String sequence, int minBlock, int maxBlock) {
+		this(nextval(sequence), minBlock, maxBlock);
+	}
+
+	private static Reservation nextval(String sequence) {
+		String sql = "/*NO LOAD BALANCE*/SELECT nextval('" + sequence.replace("'", "''") + "'::regclass) FROM generate_series(1, ?)";
+		return (connection, count) -> {
+			long[] result = new long[count];
+			try (PreparedStatement st = connection.prepareStatement(sql)) {
+				st.setInt(1, count);
+				try (ResultSet rs = st.executeQuery()) {
+					int i = 0;
+					while (rs.next()) {
+						result[i++] = rs.getLong(1);
+					}
+					if (i != count) {
+						throw new SQLException("Expecting " + count + " sequence values. Found: " + i);
+					}
+				}
+			}
+			return result;
+		};
+	}
+
+	/**
+	 * Returns next sequence values. Database is accessed only when reserved values are used up.
+	 *
+	 * @param connection connection used for reserving a new block
+	 * @param count      number of requested values
+	 * @return sequence values
+	 * @throws SQLException when new block could not be reserved
+	 */
+	public synchronized long[] next(Connection connection, int count) throws SQLException {
+		long[] result = new long[count];
+		int remaining = block.length - position;
+		if (remaining >= count) {
+			System.arraycopy(block, position, result, 0, count);
+			position += count;
+		} else {
+			System.arraycopy(block, position, result, 0, remaining);
+			int missing = count - remaining;
+			long now = clock.getAsLong();
+			adjustBlockSize(now);
+			long[] reserved = reservation.reserve(connection, Math.max(missing, blockSize));
+			roundTrips.increment();
+			if (reserved.length < missing) {
+				throw new SQLException("Expecting at least " + missing + " sequence values. Found: " + reserved.length);
+			}
+			reservedAt = now;
+			System.arraycopy(reserved, 0, result, remaining, missing);
+			block = reserved;
+			position = missing;
+		}
+		allocated.add(count);
+		return result;
+	}
+
+	private void adjustBlockSize(long now) {
+		if (block.length == 0) {
+			return;
+		}
+		long elapsed = now - reservedAt;
+		if (elapsed < GROW_INTERVAL) {
+			blockSize = Math.min(maxBlock, blockSize * 2);
+		} else if (elapsed > SHRINK_INTERVAL) {
+			blockSize = Math.max(minBlock, blockSize / 2);
+		}
+	}
+
+	public <T> void assign(Collection<T> items, Connection connection, ObjIntConsumer<T> setter) {
+		try {
+			long[] values = next(connection, items.size());
+			int i = 0;
+			for (T it : items) {
+				setter.accept(it, Math.toIntExact(values[i++]));
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public <T> void assignLong(Collection<T> items, Connection connection, ObjLongConsumer<T> setter) {
+		try {
+			long[] values = next(connection, items.size());
+			int i = 0;
+			for (T it : items) {
+				setter.accept(it, values[i++]);
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public synchronized int getBlockSize() {
+		return blockSize;
+	}
+
+	public long getAllocated() {
+		return allocated.sum();
+	}
+
+	public long getRoundTrips() {
+		return roundTrips.sum();
+	}
+}
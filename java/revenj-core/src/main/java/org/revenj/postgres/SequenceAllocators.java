@@ -0,0 +1,96 @@
+package org.revenj.postgres;
+
+import org.revenj.patterns.ServiceLocator;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Sequence allocators for a single data source.
+ * Instance is registered in the container, so each container reserves its own blocks
+ * with its own block size limits.
+ */
+public final class SequenceAllocators {
+
+	private static final int DEFAULT_MIN_BLOCK = 10;
+	private static final int DEFAULT_MAX_BLOCK = 1000;
+	//allocators for containers without registered ones, so reserved blocks are not lost on each repository construction
+	private static final Map<ServiceLocator, SequenceAllocators> FALLBACK = new WeakHashMap<>();
+
+	private final int minBlock;
+	private final int maxBlock;
+	private final ConcurrentMap<String, SequenceAllocator> allocators = new ConcurrentHashMap<>();
+
+	public SequenceAllocators(int minBlock, int maxBlock) {
+		if (minBlock < 1 || maxBlock < minBlock) {
+			throw new IllegalArgumentException("Invalid sequence block settings. minBlock: " + minBlock + ", maxBlock: " + maxBlock);
+		}
+		this.minBlock = minBlock;
+		this.maxBlock = maxBlock;
+	}
+
+	/**
+	 * Block size limits are read from revenj.sequence.minBlock and revenj.sequence.maxBlock settings.
+	 *
+	 * @param properties configuration
+	 */
+	public SequenceAllocators(Properties properties) {
+		this(parse(properties, "revenj.sequence.minBlock", DEFAULT_MIN_BLOCK),
+				parse(properties, "revenj.sequence.maxBlock", DEFAULT_MAX_BLOCK));
+	}
+
+	/**
+	 * Allocators registered in the container.
+	 * When container doesn't have them registered (eg. it was not created through Revenj.setup),
+	 * instance is created from registered Properties or with default settings
+	 * and reused for all later calls with the same container.
+	 *
+	 * @param locator container
+	 * @return registered or shared fallback allocators
+	 */
+	public static SequenceAllocators from(ServiceLocator locator) {
+		Optional<SequenceAllocators> registered = locator.tryResolve(SequenceAllocators.class);
+		if (registered.isPresent()) {
+			return registered.get();
+		}
+		synchronized (FALLBACK) {
+			SequenceAllocators existing = FALLBACK.get(locator);
+			if (existing != null) {
+				return existing;
+			}
+		}
+		SequenceAllocators created = locator.tryResolve(Properties.class)
+				.map(SequenceAllocators::new)
+				.orElseGet(() -> new SequenceAllocators(DEFAULT_MIN_BLOCK, DEFAULT_MAX_BLOCK));
+		synchronized (FALLBACK) {
+			SequenceAllocators existing = FALLBACK.putIfAbsent(locator, created);
+			return existing != null ? existing : created;
+		}
+	}
+
+	private static int parse(Properties properties, String name, int defaultValue) {
+		String value = properties.getProperty(name);
+		if (value == null || value.isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Unable to parse " + name + ". Expecting number. Found: " + value, e);
+		}
+	}
+
+	/**
+	 * Shared allocator for the provided sequence.
+	 *
+	 * @param sequence sequence name as used in SQL, eg. "schema"."table_ID_seq"
+	 * @return allocator for the sequence
+	 */
+	public SequenceAllocator forSequence(String sequence) {
+		return allocators.computeIfAbsent(sequence, s -> new SequenceAllocator(s, minBlock, maxBlock));
+	}
+}
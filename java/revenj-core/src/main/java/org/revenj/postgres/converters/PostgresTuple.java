@@ -45,6 +45,15 @@ public abstract class PostgresTuple {
 		}
 	}
 
+	/**
+	 * Write tuple as a single column in COPY text format.
+	 *
+	 * @param sw target writer
+	 */
+	public void buildBulkCopy(PostgresWriter sw) {
+		insertRecord(sw, "", PostgresTuple::escapeBulkCopy);
+	}
+
 	static void escapeQuote(PostgresWriter sw, char c) {
 		if (c == '\'') {
 			sw.write('\'');
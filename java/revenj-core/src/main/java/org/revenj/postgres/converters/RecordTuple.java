@@ -75,7 +75,7 @@ public class RecordTuple extends PostgresTuple {
 	}
 
 	public String buildTuple(boolean quote) {
-		PostgresWriter sw = new PostgresWriter();
+		PostgresWriter sw = PostgresWriter.create();
 		Mapping mappings = null;
 		if (quote) {
 			mappings = PostgresTuple::escapeQuote;
@@ -105,7 +105,9 @@ public class RecordTuple extends PostgresTuple {
 		if (quote) {
 			sw.write('\'');
 		}
-		return sw.toString();
+		String result = sw.toString();
+		sw.close();
+		return result;
 	}
 
 	public void insertRecord(PostgresWriter sw, String escaping, Mapping mappings) {
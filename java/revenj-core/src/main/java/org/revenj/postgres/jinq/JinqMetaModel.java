@@ -8,6 +8,7 @@ import org.revenj.postgres.jinq.transform.MetamodelUtil;
 import javax.sql.DataSource;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Properties;
 
 public class JinqMetaModel extends MetamodelUtil {
 
@@ -22,7 +23,9 @@ public class JinqMetaModel extends MetamodelUtil {
 		org.revenj.postgres.jinq.JinqMetaModel metamodel = new org.revenj.postgres.jinq.JinqMetaModel();
 		container.registerInstance(MetamodelUtil.class, metamodel, false);
 		DataSource dataSource = container.resolve(DataSource.class);
-		container.registerInstance(QueryProvider.class, new RevenjQueryProvider(metamodel, dataSource), false);
+		RevenjQueryComposerCache cachedQueries = new RevenjQueryComposerCache(container.tryResolve(Properties.class).orElseGet(Properties::new));
+		container.registerInstance(RevenjQueryComposerCache.class, cachedQueries, false);
+		container.registerInstance(QueryProvider.class, new RevenjQueryProvider(metamodel, dataSource, cachedQueries), false);
 		return metamodel;
 	}
 
@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 final class RevenjQuery<T extends DataSource> implements Query<T> {
 	private final RevenjQueryComposer<T> queryComposer;
@@ -113,4 +114,13 @@ final class RevenjQuery<T extends DataSource> implements Query<T> {
 			throw new IOException(e);
 		}
 	}
+
+	@Override
+	public Stream<T> stream() throws IOException {
+		try {
+			return queryComposer.stream();
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
 }
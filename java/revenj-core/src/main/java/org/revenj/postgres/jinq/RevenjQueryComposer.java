@@ -12,6 +12,8 @@ import java.time.OffsetDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.postgresql.util.PGobject;
 import org.revenj.patterns.DataSource;
@@ -66,6 +68,8 @@ public final class RevenjQueryComposer<T> {
 		void release(Connection connection) throws SQLException;
 	}
 
+	private static final int STREAM_FETCH_SIZE = 1000;
+
 	private final MetamodelUtil metamodel;
 	private final RevenjQueryComposerCache cachedQueries;
 	private final Connection connection;
@@ -303,12 +307,23 @@ public final class RevenjQueryComposer<T> {
 		return false;
 	}
 
-	//TODO: optimize
-
 	public boolean all(Object lambda) throws SQLException {
-		long filter = this.where(lambda).count();
-		long all = this.count();
-		return filter == all && all > 0;
+		final RevenjQueryComposer<T> unmatched = applyTransformWithLambda(manifest, new WhereTransform(getConfig(), false, true), lambda);
+		final String queryString = "SELECT EXISTS(" + query.getQueryString() + ") AND NOT EXISTS(" + unmatched.query.getQueryString() + ")";
+		final List<GeneratedQueryParameter> parameters = new ArrayList<>(query.getQueryParameters());
+		parameters.addAll(unmatched.query.getQueryParameters());
+		Connection connection = getConnection();
+		try (PreparedStatement ps = connection.prepareStatement(queryString)) {
+			unmatched.fillQueryParameters(connection, ps, parameters);
+			try (final ResultSet rs = ps.executeQuery()) {
+				if (rs.next()) {
+					return rs.getBoolean(1);
+				}
+			}
+		} finally {
+			releaseConnection(connection);
+		}
+		return false;
 	}
 
 	public boolean none() throws SQLException {
@@ -332,12 +347,11 @@ public final class RevenjQueryComposer<T> {
 		Connection connection = getConnection();
 		try (PreparedStatement ps = connection.prepareStatement(queryString)) {
 			fillQueryParameters(connection, ps, query.getQueryParameters());
-			final PostgresReader pr = new PostgresReader(locator);
-			try {
+			try (final PostgresReader pr = PostgresReader.create(locator)) {
 				final ObjectConverter<T> converter = getConverterFor(manifest).get();
 				try (final ResultSet rs = ps.executeQuery()) {
 					if (rs.next()) {
-						pr.process(rs.getString(1));
+						pr.process(rs.getBytes(1));
 						return Optional.of(converter.from(pr));
 					}
 				}
@@ -355,13 +369,12 @@ public final class RevenjQueryComposer<T> {
 		Connection connection = getConnection();
 		try (PreparedStatement ps = connection.prepareStatement(queryString)) {
 			fillQueryParameters(connection, ps, query.getQueryParameters());
-			final PostgresReader pr = new PostgresReader(locator);
 			final ArrayList<T> result = new ArrayList<>();
-			try {
+			try (final PostgresReader pr = PostgresReader.create(locator)) {
 				final ObjectConverter<T> converter = getConverterFor(manifest).get();
 				try (final ResultSet rs = ps.executeQuery()) {
 					while (rs.next()) {
-						pr.process(rs.getString(1));
+						pr.process(rs.getBytes(1));
 						result.add(converter.from(pr));
 					}
 				}
@@ -374,22 +387,125 @@ public final class RevenjQueryComposer<T> {
 		}
 	}
 
-	private <U> RevenjQueryComposer<U> applyTransformWithLambda
-			(Class<U> newManifest, RevenjNoLambdaQueryTransform transform) {
-		Optional<JinqPostgresQuery<?>> cachedQuery = cachedQueries.findInCache(query, transform.getTransformationTypeCachingTag(), null);
-		if (cachedQuery == null) {
-			cachedQuery = Optional.empty();
-			JinqPostgresQuery<U> newQuery = null;
+	private final class CursorIterator implements Iterator<T>, AutoCloseable {
+		private final Connection connection;
+		private final boolean restoreAutoCommit;
+		private final PreparedStatement ps;
+		private final ResultSet rs;
+		private final PostgresReader reader;
+		private final ObjectConverter<T> converter;
+		private boolean hasNext;
+		private boolean closed;
+
+		CursorIterator(Connection connection, boolean restoreAutoCommit, PreparedStatement ps, ResultSet rs) throws SQLException {
+			this.connection = connection;
+			this.restoreAutoCommit = restoreAutoCommit;
+			this.ps = ps;
+			this.rs = rs;
+			this.reader = new PostgresReader(locator);
+			this.converter = getConverterFor(manifest).get();
+			advance();
+		}
+
+		private void advance() throws SQLException {
+			hasNext = rs.next();
+			if (!hasNext) {
+				close();
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return hasNext;
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext) {
+				throw new NoSuchElementException();
+			}
 			try {
-				newQuery = transform.apply(query, null);
-			} catch (QueryTransformException e) {
+				reader.process(rs.getBytes(1));
+				T result = converter.from(reader);
+				advance();
+				return result;
+			} catch (SQLException | IOException e) {
+				close();
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public void close() {
+			if (closed) return;
+			closed = true;
+			hasNext = false;
+			try {
+				rs.close();
+				ps.close();
+				if (restoreAutoCommit) {
+					connection.setAutoCommit(true);
+				}
+			} catch (SQLException e) {
 				throw new RuntimeException(e);
 			} finally {
-				// Always cache the resulting query, even if it is an error
-				cachedQuery = Optional.ofNullable(newQuery);
-				cachedQuery = cachedQueries.cacheQuery(query, transform.getTransformationTypeCachingTag(), null, cachedQuery);
+				try {
+					releaseConnection(connection);
+				} catch (SQLException ignore) {
+				}
 			}
 		}
+	}
+
+	/**
+	 * Executes the query with a server side cursor and decodes rows only when they are pulled.
+	 * Connection is held until the stream is exhausted or closed.
+	 * PostgreSQL respects fetch size only when autocommit is disabled.
+	 * When connection is in autocommit mode, including the provided one,
+	 * autocommit is disabled while the stream is open and restored when it's closed.
+	 * In that case the query is executed in a separate read transaction, which is committed on close.
+	 *
+	 * @return lazily evaluated stream which must be closed if not fully consumed
+	 * @throws SQLException when query could not be started
+	 */
+	public Stream<T> stream() throws SQLException {
+		final String queryString = query.getQueryString();
+		final Connection connection = getConnection();
+		boolean restoreAutoCommit = false;
+		PreparedStatement ps = null;
+		try {
+			if (connection.getAutoCommit()) {
+				connection.setAutoCommit(false);
+				restoreAutoCommit = true;
+			}
+			ps = connection.prepareStatement(queryString, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			ps.setFetchSize(STREAM_FETCH_SIZE);
+			fillQueryParameters(connection, ps, query.getQueryParameters());
+			final CursorIterator iterator = new CursorIterator(connection, restoreAutoCommit, ps, ps.executeQuery());
+			return StreamSupport.stream(
+					Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL),
+					false).onClose(iterator::close);
+		} catch (SQLException | RuntimeException e) {
+			try {
+				if (ps != null) ps.close();
+				if (restoreAutoCommit) connection.setAutoCommit(true);
+			} catch (SQLException ex) {
+				e.addSuppressed(ex);
+			} finally {
+				releaseConnection(connection);
+			}
+			throw e;
+		}
+	}
+
+	private <U> RevenjQueryComposer<U> applyTransformWithLambda
+			(Class<U> newManifest, RevenjNoLambdaQueryTransform transform) {
+		Optional<JinqPostgresQuery<?>> cachedQuery =
+				cachedQueries.computeIfAbsent(
+						query,
+						transform.getTransformationTypeCachingTag(),
+						null,
+						() -> Optional.ofNullable(transform.apply(query, null)));
 		if (!cachedQuery.isPresent()) {
 			return null;
 		}
@@ -403,27 +519,18 @@ public final class RevenjQueryComposer<T> {
 			return null;
 		}
 		Optional<JinqPostgresQuery<?>> cachedQuery =
-				cachedQueries.findInCache(
+				cachedQueries.computeIfAbsent(
 						query,
 						transform.getTransformationTypeCachingTag(),
-						new String[]{lambdaInfo.getLambdaSourceString()});
-		if (cachedQuery == null) {
-			JinqPostgresQuery<U> newQuery = null;
-			try {
-				LambdaAnalysis lambdaAnalysis = lambdaInfo.fullyAnalyze(metamodel, null, true, true, true);
-				if (lambdaAnalysis == null) {
-					return null;
-				}
-				getConfig().checkLambdaSideEffects(lambdaAnalysis);
-				newQuery = transform.apply(query, lambdaAnalysis, null);
-			} catch (QueryTransformException e) {
-				throw new RuntimeException(e);
-			} finally {
-				// Always cache the resulting query, even if it is an error
-				cachedQuery = Optional.ofNullable(newQuery);
-				cachedQuery = cachedQueries.cacheQuery(query, transform.getTransformationTypeCachingTag(), new String[]{lambdaInfo.getLambdaSourceString()}, cachedQuery);
-			}
-		}
+						new String[]{lambdaInfo.getLambdaSourceString()},
+						() -> {
+							LambdaAnalysis lambdaAnalysis = lambdaInfo.fullyAnalyze(metamodel, null, true, true, true);
+							if (lambdaAnalysis == null) {
+								return Optional.empty();
+							}
+							getConfig().checkLambdaSideEffects(lambdaAnalysis);
+							return Optional.ofNullable(transform.apply(query, lambdaAnalysis, null));
+						});
 		if (!cachedQuery.isPresent()) {
 			return null;
 		}
@@ -443,27 +550,21 @@ public final class RevenjQueryComposer<T> {
 		}
 
 		Optional<JinqPostgresQuery<?>> cachedQuery =
-				cachedQueries.findInCache(query, transform.getTransformationTypeCachingTag(), lambdaSources);
-		if (cachedQuery == null) {
-			JinqPostgresQuery<U> newQuery = null;
-			try {
-				LambdaAnalysis[] lambdaAnalyses = new LambdaAnalysis[lambdaInfos.length];
-				for (int n = 0; n < lambdaInfos.length; n++) {
-					lambdaAnalyses[n] = lambdaInfos[n].fullyAnalyze(metamodel, null, true, true, true);
-					if (lambdaAnalyses[n] == null) {
-						return null;
-					}
-					getConfig().checkLambdaSideEffects(lambdaAnalyses[n]);
-				}
-				newQuery = transform.apply(query, lambdaAnalyses, null);
-			} catch (QueryTransformException e) {
-				throw new RuntimeException(e);
-			} finally {
-				// Always cache the resulting query, even if it is an error
-				cachedQuery = Optional.ofNullable(newQuery);
-				cachedQuery = cachedQueries.cacheQuery(query, transform.getTransformationTypeCachingTag(), lambdaSources, cachedQuery);
-			}
-		}
+				cachedQueries.computeIfAbsent(
+						query,
+						transform.getTransformationTypeCachingTag(),
+						lambdaSources,
+						() -> {
+							LambdaAnalysis[] lambdaAnalyses = new LambdaAnalysis[lambdaInfos.length];
+							for (int n = 0; n < lambdaInfos.length; n++) {
+								lambdaAnalyses[n] = lambdaInfos[n].fullyAnalyze(metamodel, null, true, true, true);
+								if (lambdaAnalyses[n] == null) {
+									return Optional.empty();
+								}
+								getConfig().checkLambdaSideEffects(lambdaAnalyses[n]);
+							}
+							return Optional.ofNullable(transform.apply(query, lambdaAnalyses, null));
+						});
 		if (!cachedQuery.isPresent()) {
 			return null;
 		}
@@ -1,68 +1,192 @@
 package org.revenj.postgres.jinq;
 
 import org.revenj.postgres.jinq.jpqlquery.JinqPostgresQuery;
+import org.revenj.postgres.jinq.transform.QueryTransformException;
 
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Iterator;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 public final class RevenjQueryComposerCache {
+    private static final int DEFAULT_MAX_SIZE = 10000;
+
     private static class CacheKey {
-        @Override
-        public int hashCode() {
+        String transformationType;
+        JinqPostgresQuery<?> baseQuery;
+        String[] lambdaSources;
+        int hash;
+
+        CacheKey set(JinqPostgresQuery<?> baseQuery, String transformationType, String[] lambdaSources) {
+            this.baseQuery = baseQuery;
+            this.transformationType = transformationType;
+            this.lambdaSources = lambdaSources;
             final int prime = 31;
             int result = 1;
-            result = prime * result
-                    + ((baseQuery == null) ? 0 : baseQuery.hashCode());
+            result = prime * result + ((baseQuery == null) ? 0 : baseQuery.hashCode());
             result = prime * result + Arrays.hashCode(lambdaSources);
-            result = prime
-                    * result
-                    + ((transformationType == null) ? 0 : transformationType
-                    .hashCode());
-            return result;
+            result = prime * result + ((transformationType == null) ? 0 : transformationType.hashCode());
+            this.hash = result;
+            return this;
+        }
+
+        static CacheKey create(JinqPostgresQuery<?> baseQuery, String transformationType, String[] lambdaSources) {
+            String[] sources = lambdaSources == null ? null : Arrays.copyOf(lambdaSources, lambdaSources.length);
+            return new CacheKey().set(baseQuery, transformationType, sources);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
         }
 
         @Override
         public boolean equals(Object obj) {
             if (this == obj)
                 return true;
-            if (obj == null)
-                return false;
-            if (getClass() != obj.getClass())
+            if (obj == null || getClass() != obj.getClass())
                 return false;
             CacheKey other = (CacheKey) obj;
-            if (baseQuery == null) {
-                if (other.baseQuery != null)
-                    return false;
-            } else if (!baseQuery.equals(other.baseQuery))
-                return false;
-            if (!Arrays.equals(lambdaSources, other.lambdaSources))
-                return false;
-            if (transformationType == null) {
-                if (other.transformationType != null)
-                    return false;
-            } else if (!transformationType.equals(other.transformationType))
-                return false;
-            return true;
+            return hash == other.hash
+                    && Objects.equals(baseQuery, other.baseQuery)
+                    && Objects.equals(transformationType, other.transformationType)
+                    && Arrays.equals(lambdaSources, other.lambdaSources);
         }
+    }
 
-        String transformationType;
-        JinqPostgresQuery<?> baseQuery;
-        String[] lambdaSources;
+    private static class CacheEntry {
+        final CompletableFuture<Optional<JinqPostgresQuery<?>>> result = new CompletableFuture<>();
+        volatile boolean accessed;
     }
 
+    /**
+     * Transformation which is executed only once per cache key.
+     */
+    public interface Transformation {
+        /**
+         * @return transformed query or empty if query can't be transformed
+         * @throws QueryTransformException when query transformation failed
+         */
+        Optional<JinqPostgresQuery<?>> apply() throws QueryTransformException;
+    }
+
+    /**
+     * Lookup key is reused per thread so cache hits don't allocate.
+     */
+    private static final ThreadLocal<CacheKey> lookupKey = ThreadLocal.withInitial(CacheKey::new);
+
     /**
      * Map of cached query transforms. Maps from a description of the transform
      * to the cached result of the transform.
      */
-    private final Map<CacheKey, Optional<JinqPostgresQuery<?>>> cachedQueryTransforms = new HashMap<>();
+    private final ConcurrentMap<CacheKey, CacheEntry> cachedQueryTransforms = new ConcurrentHashMap<>();
 
     /**
      * Map of cached queries for finding all the entities of a certain type. The
      * map maps from entity name to the corresponding query.
      */
-    private final Map<String, Optional<JinqPostgresQuery<?>>> cachedFindAllEntities = new HashMap<>();
+    private final ConcurrentMap<String, Optional<JinqPostgresQuery<?>>> cachedFindAllEntities = new ConcurrentHashMap<>();
+
+    private final int maxSize;
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public RevenjQueryComposerCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize approximate maximum number of cached transformations
+     */
+    public RevenjQueryComposerCache(int maxSize) {
+        if (maxSize < 1) throw new IllegalArgumentException("maxSize must be positive");
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Cache size is read from revenj.queryCache.size setting.
+     *
+     * @param properties configuration
+     */
+    public RevenjQueryComposerCache(Properties properties) {
+        this(parseSize(properties));
+    }
+
+    private static int parseSize(Properties properties) {
+        String value = properties.getProperty("revenj.queryCache.size");
+        if (value == null || value.isEmpty()) {
+            return DEFAULT_MAX_SIZE;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unable to parse revenj.queryCache.size. Expecting number. Found: " + value, e);
+        }
+    }
+
+    private CacheEntry lookup(JinqPostgresQuery<?> base, String transformationType, String[] lambdaSources) {
+        CacheKey key = lookupKey.get().set(base, transformationType, lambdaSources);
+        CacheEntry entry = cachedQueryTransforms.get(key);
+        key.set(null, null, null);
+        return entry;
+    }
+
+    private static Optional<JinqPostgresQuery<?>> await(CacheEntry entry) {
+        if (!entry.accessed) {
+            entry.accessed = true;
+        }
+        return entry.result.join();
+    }
+
+    /**
+     * Returns cached transformation or runs it. Transformation for the same key
+     * is executed only once. Concurrent callers wait for the result.
+     * Failed transformations are cached as empty results.
+     *
+     * @param base               query being transformed
+     * @param transformationType type of transformation being applied to the query
+     * @param lambdaSources      array of descriptions of the lambdas used in the query
+     * @param transformation     transformation to run on cache miss
+     * @return transformation result
+     */
+    public Optional<JinqPostgresQuery<?>> computeIfAbsent(
+            JinqPostgresQuery<?> base,
+            String transformationType,
+            String[] lambdaSources,
+            Transformation transformation) {
+        CacheEntry entry = lookup(base, transformationType, lambdaSources);
+        if (entry != null) {
+            hits.increment();
+            return await(entry);
+        }
+        CacheEntry created = new CacheEntry();
+        entry = cachedQueryTransforms.putIfAbsent(CacheKey.create(base, transformationType, lambdaSources), created);
+        if (entry != null) {
+            hits.increment();
+            return await(entry);
+        }
+        misses.increment();
+        evictIfRequired();
+        Optional<JinqPostgresQuery<?>> result = Optional.empty();
+        try {
+            result = transformation.apply();
+            if (result == null) result = Optional.empty();
+        } catch (QueryTransformException e) {
+            throw new RuntimeException(e);
+        } finally {
+            // Always cache the resulting query, even if it is an error
+            created.result.complete(result);
+        }
+        return result;
+    }
 
     /**
      * Looks up whether a certain transformation is already in the cache or not.
@@ -73,11 +197,17 @@ public final class RevenjQueryComposerCache {
      * @return cached transformation result or null if this transformation hasn't
      * been cached
      */
-    public synchronized Optional<JinqPostgresQuery<?>> findInCache(
+    public Optional<JinqPostgresQuery<?>> findInCache(
             JinqPostgresQuery<?> base,
             String transformationType,
             String[] lambdaSources) {
-        return cacheQuery(base, transformationType, lambdaSources, null);
+        CacheEntry entry = lookup(base, transformationType, lambdaSources);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return await(entry);
     }
 
     /**
@@ -90,23 +220,54 @@ public final class RevenjQueryComposerCache {
      * @param resultingQuery     result of the transformation that should be cached
      * @return the existing cached entry or resultingQuery if nothing is cached
      */
-    public synchronized Optional<JinqPostgresQuery<?>> cacheQuery(
+    public Optional<JinqPostgresQuery<?>> cacheQuery(
             JinqPostgresQuery<?> base,
             String transformationType,
             String[] lambdaSources,
             Optional<JinqPostgresQuery<?>> resultingQuery) {
-        CacheKey key = new CacheKey();
-        key.transformationType = transformationType;
-        key.baseQuery = base;
-        if (lambdaSources != null)
-            key.lambdaSources = Arrays.copyOf(lambdaSources, lambdaSources.length);
-        if (cachedQueryTransforms.containsKey(key))
-            return cachedQueryTransforms.get(key);
-        if (resultingQuery != null)
-            cachedQueryTransforms.put(key, resultingQuery);
+        if (resultingQuery == null) {
+            CacheEntry entry = lookup(base, transformationType, lambdaSources);
+            return entry != null ? await(entry) : null;
+        }
+        CacheEntry created = new CacheEntry();
+        created.result.complete(resultingQuery);
+        CacheEntry entry = cachedQueryTransforms.putIfAbsent(CacheKey.create(base, transformationType, lambdaSources), created);
+        if (entry != null) {
+            return await(entry);
+        }
+        evictIfRequired();
         return resultingQuery;
     }
 
+    /**
+     * Second chance eviction. Entries which were not accessed since the last sweep are removed.
+     * Only a single thread sweeps at a time, while others continue without waiting.
+     */
+    private void evictIfRequired() {
+        if (cachedQueryTransforms.size() <= maxSize || !evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int target = maxSize - maxSize / 10;
+            Iterator<CacheEntry> iterator = cachedQueryTransforms.values().iterator();
+            while (cachedQueryTransforms.size() > target) {
+                if (!iterator.hasNext()) {
+                    iterator = cachedQueryTransforms.values().iterator();
+                    if (!iterator.hasNext()) break;
+                }
+                CacheEntry entry = iterator.next();
+                if (entry.accessed) {
+                    entry.accessed = false;
+                } else if (entry.result.isDone()) {
+                    iterator.remove();
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
     /**
      * Checks if a query for finding all the entities of a certain type has
      * already been cached
@@ -114,8 +275,8 @@ public final class RevenjQueryComposerCache {
      * @param dataSource name of the type of entity the query should return
      * @return the cached query or null if no query has been cached.
      */
-    public synchronized Optional<JinqPostgresQuery<?>> findCachedFindAll(String dataSource) {
-        return cacheFindAll(dataSource, null);
+    public Optional<JinqPostgresQuery<?>> findCachedFindAll(String dataSource) {
+        return cachedFindAllEntities.get(dataSource);
     }
 
     /**
@@ -129,13 +290,29 @@ public final class RevenjQueryComposerCache {
      * @return if a query has already been cached, that query is returned;
      * otherwise, queryToCache is inserted into the cache and returned.
      */
-    public synchronized Optional<JinqPostgresQuery<?>> cacheFindAll(
+    public Optional<JinqPostgresQuery<?>> cacheFindAll(
             String dataSource,
             Optional<JinqPostgresQuery<?>> queryToCache) {
-        if (cachedFindAllEntities.containsKey(dataSource))
+        if (queryToCache == null) {
             return cachedFindAllEntities.get(dataSource);
-        if (queryToCache != null)
-            cachedFindAllEntities.put(dataSource, queryToCache);
-        return queryToCache;
+        }
+        Optional<JinqPostgresQuery<?>> existing = cachedFindAllEntities.putIfAbsent(dataSource, queryToCache);
+        return existing != null ? existing : queryToCache;
+    }
+
+    public int size() {
+        return cachedQueryTransforms.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
     }
 }
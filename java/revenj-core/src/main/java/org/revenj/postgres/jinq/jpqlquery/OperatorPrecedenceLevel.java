@@ -60,6 +60,7 @@ public class OperatorPrecedenceLevel {
 		JPQL_OPERATOR_PRECEDENCE.put("NOT IN", 2180);
 		JPQL_OPERATOR_PRECEDENCE.put("IS NULL", 2190);
 		JPQL_OPERATOR_PRECEDENCE.put("IS NOT NULL", 2190);
+		JPQL_OPERATOR_PRECEDENCE.put("IS NOT TRUE", 2190);
 		JPQL_OPERATOR_PRECEDENCE.put("IS EMPTY", 2200);
 		JPQL_OPERATOR_PRECEDENCE.put("IS NOT EMPTY", 2200);
 		JPQL_OPERATOR_PRECEDENCE.put("MEMBER OF", 2210);
@@ -11,10 +11,19 @@ import java.util.List;
 
 public class WhereTransform extends RevenjOneLambdaQueryTransform {
 	boolean withSource;
+	boolean negate;
 
 	public WhereTransform(RevenjQueryTransformConfiguration config, boolean withSource) {
+		this(config, withSource, false);
+	}
+
+	/**
+	 * @param negate keep only rows for which predicate is not true (false or null)
+	 */
+	public WhereTransform(RevenjQueryTransformConfiguration config, boolean withSource, boolean negate) {
 		super(config);
 		this.withSource = withSource;
+		this.negate = negate;
 	}
 
 	@Override
@@ -100,11 +109,16 @@ public class WhereTransform extends RevenjOneLambdaQueryTransform {
 				methodExpr = pathExpr;
 			}
 		}
+		if (negate) {
+			return methodExpr == null
+					? new ConstantExpression("FALSE")
+					: UnaryExpression.postfix("IS NOT TRUE", methodExpr);
+		}
 		return methodExpr;
 	}
 
 	@Override
 	public String getTransformationTypeCachingTag() {
-		return WhereTransform.class.getName();
+		return negate ? WhereTransform.class.getName() + ":negate" : WhereTransform.class.getName();
 	}
 }
@@ -16,6 +16,14 @@ public interface PermissionManager {
 		return canAccess(manifest.getTypeName(), user);
 	}
 
+	/**
+	 * Checks if any row filter applies to the user.
+	 * When it doesn't, data can be loaded without going through applyFilters.
+	 */
+	default boolean hasFilters(Class<?> manifest, Principal user) {
+		return true;
+	}
+
 	<T extends DataSource, S extends T> Query<S> applyFilters(Class<T> manifest, Principal user, Query<S> data);
 
 	default <T extends DataSource, S extends T> Query<S> applyFilters(Class<T> manifest, Query<S> data) {
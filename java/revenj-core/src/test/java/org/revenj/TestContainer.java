@@ -6,7 +6,11 @@ import org.revenj.extensibility.Container;
 import org.revenj.patterns.Generic;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TestContainer {
 
@@ -66,6 +70,19 @@ public class TestContainer {
 		Assert.assertEquals(2, B.counter);
 	}
 
+	@Test
+	public void optionalArgumentFollowsRegistrations() throws IOException {
+		Container container = new SimpleContainer(false);
+		container.register(A.class, B.class, C.class);
+		Assert.assertFalse(container.resolve(C.class).d.isPresent());
+		Assert.assertFalse(container.resolve(C.class).d.isPresent());
+		D d = new D();
+		container.registerInstance(D.class, d, false);
+		C c = container.resolve(C.class);
+		Assert.assertSame(d, c.d.get());
+		Assert.assertSame(d, container.resolve(C.class).d.get());
+	}
+
 	static class G<T> {
 		public final T instance;
 
@@ -193,4 +210,157 @@ public class TestContainer {
 		Assert.assertTrue(cg.generics.instance2 instanceof B);
 		Assert.assertEquals(B.class, cg.generics.instance2.getClass());
 	}
+
+	static class OptionalGenerics<T> {
+		public final Optional<T> instance;
+
+		public OptionalGenerics(Optional<T> instance) {
+			this.instance = instance;
+		}
+	}
+
+	@Test
+	public void optionalGenericsTest() throws IOException {
+		Container container = new SimpleContainer(false);
+		container.register(A.class, B.class, OptionalGenerics.class);
+		for (int i = 0; i < 3; i++) {
+			OptionalGenerics<A> found = new Generic<OptionalGenerics<A>>() {
+			}.resolve(container);
+			Assert.assertTrue(found.instance.isPresent());
+			OptionalGenerics<D> missing = new Generic<OptionalGenerics<D>>() {
+			}.resolve(container);
+			Assert.assertFalse(missing.instance.isPresent());
+		}
+	}
+
+	static class Failing {
+		public Failing() {
+			throw new IllegalStateException("failing constructor");
+		}
+	}
+
+	@Test
+	public void constructorExceptions() {
+		Container container = new SimpleContainer(false);
+		container.register(Failing.class);
+		for (int i = 0; i < 2; i++) {
+			try {
+				container.resolve(Failing.class);
+				Assert.fail("Expecting exception");
+			} catch (RuntimeException e) {
+				Assert.assertTrue(e.getCause() instanceof ReflectiveOperationException);
+				Assert.assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+			}
+		}
+	}
+
+	static class Tracked implements AutoCloseable {
+		public boolean closed;
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+
+	@Test
+	public void scopeRegistrations() throws Exception {
+		Container container = new SimpleContainer(false);
+		Tracked shared = new Tracked();
+		container.registerInstance(Tracked.class, shared, true);
+		container.register(B.class);
+		Tracked scoped = new Tracked();
+		Tracked other = new Tracked();
+		Container scope = container.createScope();
+		scope.registerInstance(Tracked.class, scoped, true);
+		scope.registerInstance(D.class, new D(), false);
+		scope.registerInstance(Tracked.class, other, true);
+		Assert.assertSame(other, scope.resolve(Tracked.class));
+		Assert.assertSame(shared, container.resolve(Tracked.class));
+		Assert.assertNotNull(scope.resolve(B.class));
+		Tracked[] all = scope.resolve(Tracked[].class);
+		Assert.assertArrayEquals(new Tracked[]{shared, scoped, other}, all);
+		Assert.assertFalse(container.tryResolve(D.class).isPresent());
+		scope.close();
+		Assert.assertTrue(scoped.closed);
+		Assert.assertTrue(other.closed);
+		Assert.assertFalse(shared.closed);
+		container.close();
+		Assert.assertTrue(shared.closed);
+	}
+
+	static class Slow {
+		static final AtomicInteger created = new AtomicInteger();
+
+		public Slow() throws InterruptedException {
+			created.incrementAndGet();
+			Thread.sleep(20);
+		}
+	}
+
+	@Test
+	public void singletonsUnderContention() throws Exception {
+		Slow.created.set(0);
+		AtomicInteger factoryCalls = new AtomicInteger();
+		Container container = new SimpleContainer(false);
+		container.register(Slow.class, true);
+		container.registerFactory(D.class, c -> {
+			factoryCalls.incrementAndGet();
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException ignore) {
+			}
+			return new D();
+		}, true);
+		int threads = 16;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<Object[]>> results = new ArrayList<>();
+			for (int i = 0; i < threads; i++) {
+				results.add(pool.submit(() -> {
+					start.await();
+					return new Object[]{container.resolve(Slow.class), container.resolve(D.class)};
+				}));
+			}
+			start.countDown();
+			Object[] first = results.get(0).get(10, TimeUnit.SECONDS);
+			for (Future<Object[]> it : results) {
+				Object[] found = it.get(10, TimeUnit.SECONDS);
+				Assert.assertSame(first[0], found[0]);
+				Assert.assertSame(first[1], found[1]);
+			}
+			Assert.assertEquals(1, Slow.created.get());
+			Assert.assertEquals(1, factoryCalls.get());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void singletonConstructionDoesNotBlockOthers() throws Exception {
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Container container = new SimpleContainer(false);
+		container.registerFactory(D.class, c -> {
+			entered.countDown();
+			try {
+				Assert.assertTrue(release.await(10, TimeUnit.SECONDS));
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+			return new D();
+		}, true);
+		container.register(B.class, true);
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			Future<D> pending = pool.submit(() -> container.resolve(D.class));
+			Assert.assertTrue(entered.await(10, TimeUnit.SECONDS));
+			Assert.assertNotNull(container.resolve(B.class));
+			release.countDown();
+			Assert.assertNotNull(pending.get(10, TimeUnit.SECONDS));
+		} finally {
+			pool.shutdown();
+		}
+	}
 }
@@ -0,0 +1,256 @@
+package org.revenj;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.revenj.patterns.*;
+import rx.Observable;
+import rx.Subscription;
+import rx.subjects.PublishSubject;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestNotifications {
+
+	@Test
+	public void coalesceWithinWindow() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("revenj.notifications.status", "disabled");
+		properties.setProperty("revenj.notifications.coalesceWindow", "100");
+		PostgresDatabaseNotification notification = new PostgresDatabaseNotification(null, Optional.empty(), properties, null);
+		List<DataChangeNotification.NotifyInfo> received = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch latch = new CountDownLatch(4);
+		Subscription subscription = notification.getNotifications().subscribe(it -> {
+			received.add(it);
+			latch.countDown();
+		});
+		notification.notify(new DataChangeNotification.NotifyInfo("A", DataChangeNotification.Operation.Insert, new String[]{"1", "2"}));
+		notification.notify(new DataChangeNotification.NotifyInfo("A", DataChangeNotification.Operation.Insert, new String[]{"2", "3"}));
+		notification.notify(new DataChangeNotification.NotifyInfo("A", DataChangeNotification.Operation.Delete, new String[]{"4"}));
+		notification.notify(new DataChangeNotification.NotifyInfo("B", DataChangeNotification.Operation.Update, new String[]{"6"}));
+		notification.notify(new DataChangeNotification.NotifyInfo("A", DataChangeNotification.Operation.Insert, new String[]{"5"}));
+		notification.notify(new DataChangeNotification.NotifyInfo("A", DataChangeNotification.Operation.Insert, new String[]{"4"}));
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		subscription.unsubscribe();
+		//insert after delete must not be merged with the insert before it
+		Assert.assertEquals(4, received.size());
+		Assert.assertEquals(DataChangeNotification.Operation.Insert, received.get(0).operation);
+		Assert.assertArrayEquals(new String[]{"1", "2", "3"}, received.get(0).uris);
+		Assert.assertEquals(DataChangeNotification.Operation.Delete, received.get(1).operation);
+		Assert.assertArrayEquals(new String[]{"4"}, received.get(1).uris);
+		Assert.assertEquals("B", received.get(2).name);
+		Assert.assertEquals(DataChangeNotification.Operation.Insert, received.get(3).operation);
+		Assert.assertArrayEquals(new String[]{"5", "4"}, received.get(3).uris);
+		Assert.assertEquals(0, notification.getQueueDepth());
+		Assert.assertEquals(6, notification.getReceivedCount());
+		Assert.assertEquals(4, notification.getPublishedCount());
+		Assert.assertEquals(1.5, notification.getCoalescingRatio(), 0.001);
+	}
+
+	public static class Item implements AggregateRoot, Cloneable {
+		public final String uri;
+		public int value;
+
+		public Item(String uri, int value) {
+			this.uri = uri;
+			this.value = value;
+		}
+
+		@Override
+		public String getURI() {
+			return uri;
+		}
+
+		@Override
+		public Object clone() {
+			return new Item(uri, value);
+		}
+	}
+
+	static class ItemRepository implements Repository<Item> {
+		final Map<String, Item> items = new HashMap<>();
+		final List<Integer> requests = new ArrayList<>();
+
+		@Override
+		public List<Item> find(String[] uris) {
+			requests.add(uris.length);
+			List<Item> result = new ArrayList<>();
+			for (String uri : uris) {
+				Item it = items.get(uri);
+				if (it != null) result.add(new Item(uri, it.value));
+			}
+			return result;
+		}
+
+		@Override
+		public Query<Item> query(Specification<Item> specification) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public List<Item> search(Specification<Item> specification, Integer limit, Integer offset) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public long count(Specification<Item> specification) {
+			return items.size();
+		}
+
+		@Override
+		public boolean exists(Specification<Item> specification) {
+			return !items.isEmpty();
+		}
+	}
+
+	@Test
+	public void cacheFetchesMissesAndInvalidates() throws Exception {
+		PublishSubject<DataChangeNotification.NotifyInfo> subject = PublishSubject.create();
+		DataChangeNotification notifications = new DataChangeNotification() {
+			@Override
+			public Observable<NotifyInfo> getNotifications() {
+				return subject;
+			}
+
+			@Override
+			public <T> Observable<TrackInfo<T>> track(Class<T> manifest) {
+				throw new UnsupportedOperationException();
+			}
+		};
+		ItemRepository repository = new ItemRepository();
+		repository.items.put("1", new Item("1", 1));
+		repository.items.put("2", new Item("2", 2));
+		repository.items.put("3", new Item("3", 3));
+		AggregateCache<Item> cache = new AggregateCache<>("Item", Item.class, 2, notifications);
+		CachingRepository<Item> caching = new CachingRepository<>(cache, () -> repository);
+		Assert.assertEquals(1, caching.find("1").get().value);
+		Item cached = caching.find("1").get();
+		cached.value = 10;
+		Assert.assertEquals(1, caching.find("1").get().value);
+		Assert.assertEquals(2, caching.find(new String[]{"1", "2"}).size());
+		Assert.assertEquals(Arrays.asList(1, 1), repository.requests);
+		repository.items.get("1").value = 11;
+		subject.onNext(new DataChangeNotification.NotifyInfo("Item", DataChangeNotification.Operation.Update, new String[]{"1"}));
+		Assert.assertEquals(11, caching.find("1").get().value);
+		caching.find("3");
+		Assert.assertEquals(2, cache.getSize());
+		Assert.assertEquals(1, cache.getEvictions());
+		Assert.assertEquals(1, cache.getInvalidations());
+		Assert.assertEquals(3, cache.getHits());
+		Assert.assertEquals(4, cache.getMisses());
+		cache.close();
+	}
+
+	@Test
+	public void cacheIsUsedOnlyOutsideWriteTransactions() throws Exception {
+		SimpleContainer container = new SimpleContainer(false);
+		Assert.assertTrue(Revenj.canUseCache(container));
+		SimpleContainer write = (SimpleContainer) container.createScope();
+		write.registerFactory(java.sql.Connection.class, c -> {
+			throw new IllegalStateException("Connection must not be created");
+		}, false);
+		Assert.assertFalse(Revenj.canUseCache(write));
+		SimpleContainer read = (SimpleContainer) container.createScope();
+		read.registerFactory(java.sql.Connection.class, c -> {
+			throw new IllegalStateException("Connection must not be created");
+		}, false);
+		read.registerInstance(ReadOnlyContext.class, ReadOnlyContext.INSTANCE, false);
+		Assert.assertTrue(Revenj.canUseCache(read));
+	}
+
+	@Test
+	public void cachedFindInReadOnlyScopeDoesNotAcquireConnection() throws Exception {
+		PublishSubject<DataChangeNotification.NotifyInfo> subject = PublishSubject.create();
+		DataChangeNotification notifications = new DataChangeNotification() {
+			@Override
+			public Observable<NotifyInfo> getNotifications() {
+				return subject;
+			}
+
+			@Override
+			public <T> Observable<TrackInfo<T>> track(Class<T> manifest) {
+				throw new UnsupportedOperationException();
+			}
+		};
+		ItemRepository repository = new ItemRepository();
+		repository.items.put("1", new Item("1", 1));
+		AggregateCache<Item> cache = new AggregateCache<>("Item", Item.class, 10, notifications);
+		SimpleContainer container = new SimpleContainer(false);
+		java.lang.reflect.Type repositoryType = Utils.makeGenericType(Repository.class, Item.class);
+		//generated repositories take the scoped connection in their constructor
+		container.registerFactory(repositoryType, c -> {
+			c.tryResolve(java.sql.Connection.class);
+			return repository;
+		}, false);
+		Assert.assertTrue(container.decorate(repositoryType, (locator, inner) ->
+				Revenj.decorateRepository(cache, (SimpleContainer) locator, inner)));
+		java.util.concurrent.atomic.AtomicInteger connections = new java.util.concurrent.atomic.AtomicInteger();
+		java.sql.Connection connection = (java.sql.Connection) java.lang.reflect.Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class<?>[]{java.sql.Connection.class},
+				(proxy, m, args) -> null);
+		for (int i = 0; i < 3; i++) {
+			//read only batch scope with a lazily acquired connection
+			try (org.revenj.extensibility.Container read = container.createScope()) {
+				read.registerFactory(java.sql.Connection.class, c -> {
+					connections.incrementAndGet();
+					return connection;
+				}, false);
+				read.registerInstance(ReadOnlyContext.class, ReadOnlyContext.INSTANCE, false);
+				Repository<Item> found = (Repository<Item>) read.resolve(repositoryType);
+				Assert.assertEquals(1, found.find("1").get().value);
+			}
+		}
+		Assert.assertEquals(1, connections.get());
+		Assert.assertEquals(Collections.singletonList(1), repository.requests);
+		Assert.assertEquals(2, cache.getHits());
+		cache.close();
+	}
+
+	@Test
+	public void cacheIsClearedWhenNotificationsReconnect() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("revenj.notifications.status", "disabled");
+		java.sql.Statement statement = (java.sql.Statement) java.lang.reflect.Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class<?>[]{java.sql.Statement.class},
+				(proxy, m, args) -> "execute".equals(m.getName()) ? false : null);
+		org.postgresql.core.BaseConnection connection = (org.postgresql.core.BaseConnection) java.lang.reflect.Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class<?>[]{org.postgresql.core.BaseConnection.class},
+				(proxy, m, args) -> "createStatement".equals(m.getName()) ? statement : null);
+		javax.sql.DataSource dataSource = (javax.sql.DataSource) java.lang.reflect.Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class<?>[]{javax.sql.DataSource.class},
+				(proxy, m, args) -> "getConnection".equals(m.getName()) ? connection : null);
+		PostgresDatabaseNotification notification = new PostgresDatabaseNotification(dataSource, Optional.empty(), properties, null);
+		ItemRepository repository = new ItemRepository();
+		repository.items.put("1", new Item("1", 1));
+		AggregateCache<Item> cache = new AggregateCache<>("Item", Item.class, 10, notification);
+		notification.onConnect(cache::clear);
+		CachingRepository<Item> caching = new CachingRepository<>(cache, () -> repository);
+		Assert.assertEquals(1, caching.find("1").get().value);
+		//change while listening connection was down
+		repository.items.get("1").value = 2;
+		Assert.assertEquals(1, caching.find("1").get().value);
+		Assert.assertTrue(notification.new Pooling().connect());
+		Assert.assertEquals(0, cache.getSize());
+		Assert.assertEquals(2, caching.find("1").get().value);
+		Assert.assertEquals(Arrays.asList(1, 1), repository.requests);
+		cache.close();
+	}
+
+	@Test
+	public void cachesRequireNotifications() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("revenj.notifications.status", "disabled");
+		properties.setProperty("revenj.cache.aggregates", "Item");
+		try {
+			Revenj.setup(null, properties, Optional.empty(), (Iterator<org.revenj.extensibility.SystemAspect>) null);
+			Assert.fail("Expecting configuration error");
+		} catch (java.io.IOException e) {
+			Assert.assertTrue(e.getMessage().contains("notifications are disabled"));
+		}
+	}
+}
@@ -2,13 +2,22 @@ package org.revenj;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.revenj.patterns.ServiceLocator;
+import org.revenj.postgres.PostgresBufferPool;
 import org.revenj.postgres.PostgresReader;
 import org.revenj.postgres.PostgresWriter;
+import org.revenj.postgres.SequenceAllocator;
+import org.revenj.postgres.SequenceAllocators;
 import org.revenj.postgres.converters.*;
+import org.revenj.postgres.jinq.RevenjQueryComposerCache;
+import org.revenj.postgres.jinq.jpqlquery.JinqPostgresQuery;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.OffsetDateTime;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TestPostgres {
 
@@ -85,4 +94,317 @@ public class TestPostgres {
 		Assert.assertEquals(0, values.get(0).getOffset().getTotalSeconds());
 		Assert.assertEquals(38, values.get(0).getMinute());
 	}
+
+	@Test
+	public void utf8BytesMatchString() throws IOException {
+		PostgresReader reader = new PostgresReader();
+		String[] strings = new String[]{"abc", null, "\u010d\u0107\u017e \"quoted\" \\ slash", "\u20ac", "\ud83d\ude00 emoji", "(x,y)"};
+		PostgresTuple[] tuples = new PostgresTuple[strings.length];
+		for (int i = 0; i < strings.length; i++) {
+			tuples[i] = StringConverter.toTuple(strings[i]);
+		}
+		String value = RecordTuple.from(tuples).buildTuple(false);
+		reader.process(value.getBytes(StandardCharsets.UTF_8));
+		reader.read();
+		for (String expected : strings) {
+			Assert.assertEquals(expected, StringConverter.parse(reader, 1, true));
+		}
+	}
+
+	private static String decode(byte[] source, int offset, int len) {
+		PostgresReader reader = new PostgresReader();
+		reader.process(source, offset, len);
+		StringBuilder sb = new StringBuilder();
+		int c;
+		while ((c = reader.read()) != -1) {
+			sb.append((char) c);
+		}
+		return sb.toString();
+	}
+
+	private static byte[] bytes(int... values) {
+		byte[] result = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = (byte) values[i];
+		}
+		return result;
+	}
+
+	@Test
+	public void utf8BytesAreDecoded() {
+		String[] values = new String[]{
+				"ascii only",
+				"\u00e9\u010d\u0107\u017e",
+				"\u20ac \u4e2d\u6587",
+				"\ud83d\ude00 \ud800\udf48",
+				"mixed \u00e9 \u20ac \ud83d\ude00 end"};
+		for (String value : values) {
+			byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+			Assert.assertEquals(value, decode(utf8, 0, utf8.length));
+		}
+		byte[] padded = "xx\u20acyy".getBytes(StandardCharsets.UTF_8);
+		Assert.assertEquals("x\u20acy", decode(padded, 1, 5));
+		Assert.assertEquals("", decode(padded, 0, 0));
+	}
+
+	@Test
+	public void malformedUtf8IsReplaced() {
+		byte[][] inputs = new byte[][]{
+				bytes(0x80),
+				bytes('a', 0xBF, 'b'),
+				bytes('a', 0xC3),
+				bytes(0xE2, 0x82),
+				bytes(0xE2, 0x82, 'A'),
+				bytes(0xC3, 'A'),
+				bytes(0xF0, 0x9F, 0x98, 'x'),
+				bytes(0xF0, 0x9F, 0x98),
+				bytes(0xFF, 'z')};
+		for (byte[] input : inputs) {
+			Assert.assertEquals(new String(input, StandardCharsets.UTF_8), decode(input, 0, input.length));
+		}
+	}
+
+	@Test
+	public void pooledBuffersAreReused() {
+		PostgresWriter first = PostgresWriter.create();
+		PostgresWriter nested = PostgresWriter.create();
+		Assert.assertNotSame(first, nested);
+		nested.close();
+		first.write("abc");
+		first.close();
+		first.close();
+		long hits = PostgresBufferPool.getHits();
+		PostgresWriter reused = PostgresWriter.create();
+		PostgresWriter other = PostgresWriter.create();
+		Assert.assertSame(first, reused);
+		Assert.assertSame(nested, other);
+		Assert.assertEquals("", reused.toString());
+		Assert.assertEquals(hits + 2, PostgresBufferPool.getHits());
+		other.close();
+		reused.close();
+	}
+
+	@Test
+	public void pooledReaderIsBoundToLocator() {
+		ServiceLocator first = (ServiceLocator) java.lang.reflect.Proxy.newProxyInstance(
+				getClass().getClassLoader(), new Class<?>[]{ServiceLocator.class}, (proxy, m, args) -> null);
+		ServiceLocator second = (ServiceLocator) java.lang.reflect.Proxy.newProxyInstance(
+				getClass().getClassLoader(), new Class<?>[]{ServiceLocator.class}, (proxy, m, args) -> null);
+		PostgresReader reader = PostgresReader.create(first);
+		Assert.assertSame(first, reader.locator);
+		char[] tmp = reader.tmp;
+		reader.close();
+		PostgresReader other = PostgresReader.create(second);
+		Assert.assertSame(second, other.locator);
+		Assert.assertSame(tmp, other.tmp);
+		other.close();
+		PostgresReader unbound = PostgresReader.create(null);
+		Assert.assertNull(unbound.locator);
+		Assert.assertSame(tmp, unbound.tmp);
+		unbound.close();
+	}
+
+	@Test
+	public void bufferPoolIsConfiguredOnce() {
+		Properties properties = new Properties();
+		properties.setProperty("revenj.buffers.poolSize", "2");
+		PostgresBufferPool.configure(properties);
+		Assert.assertFalse(PostgresBufferPool.configure(new Properties()));
+		properties.setProperty("revenj.buffers.poolSize", "-1");
+		try {
+			PostgresBufferPool.configure(properties);
+			Assert.fail("Expecting invalid setting");
+		} catch (IllegalArgumentException ignore) {
+		}
+	}
+
+	@Test
+	public void compositeUrisAreSplitIntoColumns() {
+		String[][] keys = PostgresWriter.splitCompositeUriList(new String[]{"a/1", "b\\/c/2", "d'e/3"}, 2);
+		Assert.assertArrayEquals(new String[]{"a", "b/c", "d'e"}, keys[0]);
+		Assert.assertArrayEquals(new String[]{"1", "2", "3"}, keys[1]);
+		try {
+			PostgresWriter.splitCompositeUriList(new String[]{"a/1/2"}, 2);
+			Assert.fail("Expecting invalid URI");
+		} catch (IllegalArgumentException ignore) {
+		}
+	}
+
+	@Test
+	public void queryCacheComputesOnceAndEvicts() throws Exception {
+		RevenjQueryComposerCache cache = new RevenjQueryComposerCache(10);
+		JinqPostgresQuery<?> base = JinqPostgresQuery.findAll("\"test\".\"Item\"");
+		AtomicInteger calls = new AtomicInteger();
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			Thread t = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException ignore) {
+				}
+				cache.computeIfAbsent(base, "where", new String[]{"lambda"}, () -> {
+					calls.incrementAndGet();
+					try {
+						Thread.sleep(50);
+					} catch (InterruptedException ignore) {
+					}
+					return Optional.of(base);
+				});
+			});
+			t.start();
+			threads.add(t);
+		}
+		start.countDown();
+		for (Thread t : threads) {
+			t.join();
+		}
+		Assert.assertEquals(1, calls.get());
+		Assert.assertEquals(1, cache.getMisses());
+		Assert.assertEquals(7, cache.getHits());
+		for (int i = 0; i < 100; i++) {
+			cache.computeIfAbsent(base, "where", new String[]{"lambda" + i}, Optional::empty);
+		}
+		Assert.assertTrue(cache.size() <= 11);
+		Assert.assertTrue(cache.getEvictions() > 0);
+	}
+
+	@Test
+	public void queryCacheIsRegisteredWithConfiguredSize() throws Exception {
+		SimpleContainer container = new SimpleContainer(false);
+		Properties properties = new Properties();
+		properties.setProperty("revenj.queryCache.size", "10");
+		container.registerInstance(Properties.class, properties, false);
+		javax.sql.DataSource dataSource = (javax.sql.DataSource) java.lang.reflect.Proxy.newProxyInstance(
+				getClass().getClassLoader(), new Class<?>[]{javax.sql.DataSource.class}, (proxy, m, args) -> null);
+		container.registerInstance(javax.sql.DataSource.class, dataSource, false);
+		org.revenj.postgres.jinq.JinqMetaModel.configure(container);
+		RevenjQueryComposerCache cache = container.resolve(RevenjQueryComposerCache.class);
+		JinqPostgresQuery<?> base = JinqPostgresQuery.findAll("\"test\".\"Item\"");
+		for (int i = 0; i < 100; i++) {
+			cache.computeIfAbsent(base, "where", new String[]{"lambda" + i}, Optional::empty);
+		}
+		Assert.assertTrue(cache.size() <= 11);
+		Assert.assertEquals(100, cache.getMisses());
+		properties.setProperty("revenj.queryCache.size", "many");
+		try {
+			new RevenjQueryComposerCache(properties);
+			Assert.fail("Expecting invalid setting");
+		} catch (IllegalArgumentException ignore) {
+		}
+	}
+
+	@Test
+	public void sequenceBlocksAreReusedAcrossThreads() throws Exception {
+		AtomicInteger roundTrips = new AtomicInteger();
+		long[] counter = new long[1];
+		//reservations always look as if they were done immediately one after another, so block keeps growing
+		SequenceAllocator allocator = new SequenceAllocator((connection, count) -> {
+			roundTrips.incrementAndGet();
+			long[] result = new long[count];
+			synchronized (counter) {
+				for (int i = 0; i < count; i++) {
+					result[i] = ++counter[0];
+				}
+			}
+			return result;
+		}, 4, 64, () -> 0L);
+		Assert.assertArrayEquals(new long[]{1, 2, 3}, allocator.next(null, 3));
+		Assert.assertArrayEquals(new long[]{4}, allocator.next(null, 1));
+		Assert.assertEquals(1, roundTrips.get());
+		Assert.assertArrayEquals(new long[]{5, 6}, allocator.next(null, 2));
+		Assert.assertEquals(8, allocator.getBlockSize());
+		Set<Long> values = Collections.synchronizedSet(new HashSet<>());
+		Queue<Throwable> failures = new java.util.concurrent.ConcurrentLinkedQueue<>();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			Thread thread = new Thread(() -> {
+				try {
+					for (int i = 0; i < 500; i++) {
+						for (long v : allocator.next(null, 1 + i % 3)) {
+							Assert.assertTrue("Duplicate value " + v, values.add(v));
+						}
+					}
+				} catch (Throwable ex) {
+					failures.add(ex);
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		if (!failures.isEmpty()) {
+			AssertionError error = new AssertionError("Allocation failed in " + failures.size() + " thread(s)", failures.peek());
+			for (Throwable ex : failures) {
+				if (ex != failures.peek()) error.addSuppressed(ex);
+			}
+			throw error;
+		}
+		Assert.assertEquals(4 * (500 / 3 * 6 + 3), values.size());
+		Assert.assertEquals(64, allocator.getBlockSize());
+		Assert.assertTrue(roundTrips.get() < 100);
+	}
+
+	@Test
+	public void sequenceBlockShrinksWhenValuesAreNotUsed() throws Exception {
+		long[] now = new long[1];
+		long[] counter = new long[1];
+		SequenceAllocator allocator = new SequenceAllocator((connection, count) -> {
+			long[] result = new long[count];
+			for (int i = 0; i < count; i++) {
+				result[i] = ++counter[0];
+			}
+			return result;
+		}, 4, 64, () -> now[0]);
+		allocator.next(null, 4);
+		allocator.next(null, 8);
+		Assert.assertEquals(8, allocator.getBlockSize());
+		now[0] += 2L * 60 * 1000 * 1000 * 1000;
+		allocator.next(null, 1);
+		Assert.assertEquals(4, allocator.getBlockSize());
+		now[0] += 5L * 1000 * 1000 * 1000;
+		Assert.assertArrayEquals(new long[]{14, 15, 16, 17}, allocator.next(null, 4));
+		Assert.assertEquals(4, allocator.getBlockSize());
+	}
+
+	@Test
+	public void sequenceAllocatorsAreResolvedOrCreated() {
+		SequenceAllocators registered = new SequenceAllocators(5, 10);
+		ServiceLocator withAllocators = type -> {
+			if (type == SequenceAllocators.class) return registered;
+			throw new ReflectiveOperationException("Unknown service");
+		};
+		Assert.assertSame(registered, SequenceAllocators.from(withAllocators));
+		ServiceLocator empty = type -> {
+			throw new ReflectiveOperationException("Unknown service");
+		};
+		SequenceAllocators created = SequenceAllocators.from(empty);
+		Assert.assertNotNull(created);
+		Assert.assertEquals(10, created.forSequence("\"test\".\"seq\"").getBlockSize());
+		Assert.assertSame(created, SequenceAllocators.from(empty));
+		ServiceLocator other = type -> {
+			throw new ReflectiveOperationException("Unknown service");
+		};
+		Assert.assertNotSame(created, SequenceAllocators.from(other));
+	}
+
+	@Test
+	public void sequenceAllocatorsAreScopedPerInstance() {
+		Properties properties = new Properties();
+		properties.setProperty("revenj.sequence.minBlock", "5");
+		SequenceAllocators first = new SequenceAllocators(properties);
+		SequenceAllocators second = new SequenceAllocators(properties);
+		SequenceAllocator allocator = first.forSequence("\"test\".\"seq\"");
+		Assert.assertSame(allocator, first.forSequence("\"test\".\"seq\""));
+		Assert.assertNotSame(allocator, second.forSequence("\"test\".\"seq\""));
+		Assert.assertEquals(5, allocator.getBlockSize());
+		properties.setProperty("revenj.sequence.maxBlock", "2");
+		try {
+			new SequenceAllocators(properties);
+			Assert.fail("Expecting exception");
+		} catch (IllegalArgumentException ignore) {
+		}
+	}
 }
@@ -4,12 +4,20 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.revenj.extensibility.Container;
 import org.revenj.patterns.DataSource;
+import org.revenj.patterns.Query;
+import org.revenj.patterns.SearchableRepository;
+import org.revenj.patterns.Specification;
+import org.revenj.security.GlobalPermission;
 import org.revenj.security.PermissionManager;
+import org.revenj.security.RolePermission;
 import org.revenj.security.UserPrincipal;
+import rx.subjects.PublishSubject;
 
 import java.io.Closeable;
 import java.security.Principal;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TestSecurity {
 
@@ -64,4 +72,162 @@ public class TestSecurity {
 		Assert.assertEquals(3, filtered1.size());
 		Assert.assertEquals(3, filtered2.size());
 	}
+
+	@Test
+	public void hasFiltersOnlyForAffectedRoles() throws Exception {
+		Principal user1 = new UserPrincipal("user1", Collections.singleton("role"));
+		Principal user2 = new UserPrincipal("user2", Collections.singleton("not-in-role"));
+		Container container = Revenj.setup(null, new Properties(), Optional.<ClassLoader>empty(), null);
+		PermissionManager permissions = container.resolve(PermissionManager.class);
+		Assert.assertFalse(permissions.hasFilters(Model.class, user1));
+		Closeable reg = permissions.registerForRole(Model.class, it -> it.i == 5, "role");
+		Assert.assertTrue(permissions.hasFilters(Model.class, user1));
+		Assert.assertFalse(permissions.hasFilters(Model.class, user2));
+		Assert.assertFalse(permissions.hasFilters(TestSecurity.class, user1));
+		reg.close();
+		Assert.assertFalse(permissions.hasFilters(Model.class, user1));
+	}
+
+	static class ListRepository<T extends DataSource> implements SearchableRepository<T> {
+		final List<T> items = new ArrayList<>();
+
+		@Override
+		public Query<T> query(Specification<T> specification) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public List<T> search(Specification<T> specification, Integer limit, Integer offset) {
+			return new ArrayList<>(items);
+		}
+
+		@Override
+		public long count(Specification<T> specification) {
+			return items.size();
+		}
+
+		@Override
+		public boolean exists(Specification<T> specification) {
+			return !items.isEmpty();
+		}
+	}
+
+	static GlobalPermission global(String name, boolean isAllowed) {
+		return new GlobalPermission() {
+			public String getName() {
+				return name;
+			}
+
+			public boolean getIsAllowed() {
+				return isAllowed;
+			}
+		};
+	}
+
+	static RolePermission role(String name, String role, boolean isAllowed) {
+		return new RolePermission() {
+			public String getName() {
+				return name;
+			}
+
+			public String getRoleID() {
+				return role;
+			}
+
+			public boolean getIsAllowed() {
+				return isAllowed;
+			}
+		};
+	}
+
+	@Test
+	public void permissionsByIdentifierPrefix() throws Exception {
+		ListRepository<GlobalPermission> globals = new ListRepository<>();
+		ListRepository<RolePermission> roles = new ListRepository<>();
+		globals.items.add(global("module", false));
+		globals.items.add(global("module.Public", true));
+		roles.items.add(role("module.Item", "admin", true));
+		PublishSubject<Callable<GlobalPermission>> globalChanges = PublishSubject.create();
+		PublishSubject<Callable<RolePermission>> roleChanges = PublishSubject.create();
+		RevenjPermissionManager permissions = new RevenjPermissionManager(
+				new Properties(),
+				globalChanges,
+				roleChanges,
+				Optional.of(globals),
+				Optional.of(roles));
+		Principal admin = new UserPrincipal("user1", Collections.singleton("admin"));
+		Principal user = new UserPrincipal("user2", Collections.<String>emptySet());
+		Assert.assertTrue(permissions.canAccess("module.Item", admin));
+		Assert.assertTrue(permissions.canAccess("module.Item.create", admin));
+		Assert.assertFalse(permissions.canAccess("module.Item", user));
+		Assert.assertFalse(permissions.canAccess("module.Other", admin));
+		Assert.assertTrue(permissions.canAccess("module.Public", user));
+		Assert.assertTrue(permissions.canAccess("other", user));
+		Assert.assertTrue(permissions.canAccess("modules", user));
+		roles.items.clear();
+		roles.items.add(role("module", "user2", true));
+		roleChanges.onNext(() -> null);
+		long timeout = System.currentTimeMillis() + 5000;
+		while (!permissions.canAccess("module.Item", user) && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		Assert.assertTrue(permissions.canAccess("module.Item", user));
+		Assert.assertFalse(permissions.canAccess("module.Item", admin));
+		permissions.close();
+	}
+
+	@Test
+	public void rebuildsDoNotOverlap() throws Exception {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger overlaps = new AtomicInteger();
+		ListRepository<RolePermission> roles = new ListRepository<RolePermission>() {
+			@Override
+			public List<RolePermission> search(Specification<RolePermission> specification, Integer limit, Integer offset) {
+				if (running.incrementAndGet() > 1) {
+					overlaps.incrementAndGet();
+				}
+				try {
+					Thread.sleep(2);
+					synchronized (items) {
+						return new ArrayList<>(items);
+					}
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				} finally {
+					running.decrementAndGet();
+				}
+			}
+		};
+		ListRepository<GlobalPermission> globals = new ListRepository<>();
+		globals.items.add(global("module", false));
+		PublishSubject<Callable<GlobalPermission>> globalChanges = PublishSubject.create();
+		PublishSubject<Callable<RolePermission>> roleChanges = PublishSubject.create();
+		RevenjPermissionManager permissions = new RevenjPermissionManager(
+				new Properties(),
+				globalChanges,
+				roleChanges,
+				Optional.of(globals),
+				Optional.of(roles));
+		Principal user = new UserPrincipal("user", Collections.<String>emptySet());
+		Assert.assertFalse(permissions.canAccess("module.Item", user));
+		for (int i = 0; i < 50; i++) {
+			synchronized (roles.items) {
+				roles.items.clear();
+				roles.items.add(role("module", i % 2 == 0 ? "user" : "other", true));
+			}
+			roleChanges.onNext(() -> null);
+			permissions.canAccess("module.Item", user);
+		}
+		synchronized (roles.items) {
+			roles.items.clear();
+		}
+		roleChanges.onNext(() -> null);
+		long timeout = System.currentTimeMillis() + 5000;
+		while (permissions.canAccess("module.Item", user) && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		Assert.assertFalse(permissions.canAccess("module.Item", user));
+		Assert.assertEquals(0, overlaps.get());
+		permissions.close();
+	}
 }
@@ -1,5 +1,6 @@
 package org.revenj.server;
 
+import org.revenj.ReadOnlyContext;
 import org.revenj.extensibility.Container;
 import org.revenj.extensibility.PluginLoader;
 import org.revenj.security.PermissionManager;
@@ -11,15 +12,24 @@ import java.io.IOException;
 import java.security.Principal;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 public final class ProcessingEngine {
 
 	private final Container container;
 	private final DataSource dataSource;
 	private final Map<Class<?>, ServerCommand> serverCommands = new HashMap<>();
+	private final Map<String, Class<?>> commandNames = new HashMap<>();
 	private final WireSerialization serialization;
 	private final PermissionManager permissions;
+	private final Executor readExecutor;
+	private final int readConcurrency;
 
 	public ProcessingEngine(
 			Container container,
@@ -27,11 +37,28 @@ public final class ProcessingEngine {
 			WireSerialization serialization,
 			PermissionManager permissions,
 			Optional<PluginLoader> extensibility) throws Exception {
+		this(container, dataSource, serialization, permissions, extensibility, null, 1);
+	}
+
+	/**
+	 * @param readExecutor    when provided, batches of read-only commands are executed concurrently on it
+	 * @param readConcurrency maximum number of commands from a single batch executed at the same time
+	 */
+	public ProcessingEngine(
+			Container container,
+			DataSource dataSource,
+			WireSerialization serialization,
+			PermissionManager permissions,
+			Optional<PluginLoader> extensibility,
+			Executor readExecutor,
+			int readConcurrency) throws Exception {
 		this(container,
 				dataSource,
 				serialization,
 				permissions,
-				extensibility.isPresent() ? extensibility.get().resolve(container, ServerCommand.class) : new ServerCommand[0]);
+				extensibility.isPresent() ? extensibility.get().resolve(container, ServerCommand.class) : new ServerCommand[0],
+				readExecutor,
+				readConcurrency);
 	}
 
 	public ProcessingEngine(
@@ -40,22 +67,45 @@ public final class ProcessingEngine {
 			WireSerialization serialization,
 			PermissionManager permissions,
 			ServerCommand[] commands) {
+		this(container, dataSource, serialization, permissions, commands, null, 1);
+	}
+
+	public ProcessingEngine(
+			Container container,
+			DataSource dataSource,
+			WireSerialization serialization,
+			PermissionManager permissions,
+			ServerCommand[] commands,
+			Executor readExecutor,
+			int readConcurrency) {
+		if (readConcurrency < 1) throw new IllegalArgumentException("readConcurrency must be positive");
 		this.container = container;
 		this.dataSource = dataSource;
 		this.serialization = serialization;
 		this.permissions = permissions;
+		this.readExecutor = readExecutor;
+		this.readConcurrency = readConcurrency;
 		for (ServerCommand com : commands) {
 			serverCommands.put(com.getClass(), com);
+			commandNames.put(com.getClass().getName(), com.getClass());
+		}
+		//full name has priority over the simple name of some other command
+		for (Class<?> command : serverCommands.keySet()) {
+			commandNames.putIfAbsent(command.getSimpleName(), command);
 		}
 	}
 
 	public Optional<Class<?>> findCommand(String name) {
-		for (Class<?> command : serverCommands.keySet()) {
-			if (command.getName().equals(name) || command.getSimpleName().equals(name)) {
-				return Optional.of(command);
-			}
-		}
-		return Optional.empty();
+		return Optional.ofNullable(commandNames.get(name));
+	}
+
+	/**
+	 * Writes successful result while the connection is still open.
+	 * Lazy results, such as iterators over a database cursor, can be consumed during write.
+	 */
+	@FunctionalInterface
+	public interface ResultWriter<TOutput> {
+		void write(ProcessingResult<TOutput> result) throws IOException;
 	}
 
 	public <TInput, TOutput> ProcessingResult<TOutput> execute(
@@ -63,6 +113,23 @@ public final class ProcessingEngine {
 			Class<TOutput> output,
 			ServerCommandDescription<TInput>[] commandDescriptions,
 			Principal principal) {
+		return execute(input, output, commandDescriptions, principal, null);
+	}
+
+	/**
+	 * Executes commands and writes the result through the provided writer.
+	 * Read-only batches are written while the read transaction is still open,
+	 * so the result doesn't have to be materialized in memory before it's sent.
+	 * Batches with changes are committed first and written afterwards,
+	 * so success is never sent for a transaction which failed to commit.
+	 * Writer is invoked only on success.
+	 */
+	public <TInput, TOutput> ProcessingResult<TOutput> execute(
+			Class<TInput> input,
+			Class<TOutput> output,
+			ServerCommandDescription<TInput>[] commandDescriptions,
+			Principal principal,
+			ResultWriter<TOutput> writer) {
 		long startProcessing = System.nanoTime();
 
 		PermissionManager.boundPrincipal.set(principal);
@@ -74,10 +141,12 @@ public final class ProcessingEngine {
 		Serialization<TInput> inputSerializer = serialization.find(input).orElseGet(() -> {
 			throw new RuntimeException("Invalid serialization format: " + input);
 		});
-		Serialization<TOutput> outputSerializer = serialization.find(output).orElseGet(() -> {
+		Serialization<TOutput> outputFormat = serialization.find(output).orElseGet(() -> {
 			throw new RuntimeException("Invalid serialization format: " + output);
 		});
 
+		boolean readOnly = true;
+		boolean streaming = false;
 		for (ServerCommandDescription<TInput> cd : commandDescriptions) {
 			if (!permissions.canAccess(cd.commandClass, principal)) {
 				return new ProcessingResult<>(
@@ -86,6 +155,16 @@ public final class ProcessingEngine {
 						Collections.EMPTY_LIST,
 						startProcessing);
 			}
+			ServerCommand command = serverCommands.get(cd.commandClass);
+			readOnly = readOnly && command != null && command.isReadOnly();
+			streaming = streaming || command != null && command.isStreaming();
+		}
+		streaming = streaming && readOnly && writer != null;
+		Serialization<TOutput> outputSerializer = streaming ? new StreamingSerialization<>(outputFormat) : outputFormat;
+		if (readOnly && readExecutor != null && readConcurrency > 1 && writer == null && commandDescriptions.length > 1) {
+			return executeConcurrently(commandDescriptions, inputSerializer, outputSerializer, principal, startProcessing);
+		} else if (readOnly) {
+			return executeReadOnly(commandDescriptions, inputSerializer, outputSerializer, principal, writer, streaming, startProcessing);
 		}
 		ArrayList<CommandResultDescription<TOutput>> executedCommands = new ArrayList<>(commandDescriptions.length);
 		Connection connection;
@@ -99,31 +178,21 @@ public final class ProcessingEngine {
 				try (Container scope = container.createScope()) {
 					scope.registerInstance(Connection.class, connection, false);
 					connection.setAutoCommit(false);
-					for (ServerCommandDescription<TInput> cd : commandDescriptions) {
-						long startCommand = System.nanoTime();
-						ServerCommand command = serverCommands.get(cd.commandClass);
-						if (command == null) {
-							throw new RuntimeException("Command not registered: " + cd.commandClass);
-						}
-						CommandResult<TOutput> result = command.execute(scope, inputSerializer, outputSerializer, cd.data, principal);
-						if (result == null) {
-							throw new RuntimeException("Result returned null for: " + cd.commandClass);
-						}
-						executedCommands.add(CommandResultDescription.create(cd.requestID, result, startCommand));
-						if (result.status >= 400) {
-							connection.rollback();
-							return new ProcessingResult<>(result.message, result.status, null, startProcessing);
-						}
+					CommandResult<TOutput> failed = executeCommands(scope, commandDescriptions, inputSerializer, outputSerializer, principal, executedCommands);
+					if (failed != null) {
+						connection.rollback();
+						return new ProcessingResult<>(failed.message, failed.status, null, startProcessing);
 					}
 					connection.commit();
-					return ProcessingResult.success(executedCommands, startProcessing);
+					ProcessingResult<TOutput> success = ProcessingResult.success(executedCommands, startProcessing);
+					if (writer != null) {
+						writer.write(success);
+					}
+					return success;
 				}
 			} catch (IOException e) {
 				connection.rollback();
-				if (e.getCause() instanceof SQLException) {
-					return new ProcessingResult<>(e.getCause().getMessage(), 409, null, startProcessing);
-				}
-				return new ProcessingResult<>(e.getMessage(), 500, null, startProcessing);
+				return ioError(e, startProcessing);
 			} catch (SecurityException e) {
 				connection.rollback();
 				return new ProcessingResult<>(e.getMessage(), 403, null, startProcessing);
@@ -138,4 +207,217 @@ public final class ProcessingEngine {
 			return ProcessingResult.error(ex, startProcessing);
 		}
 	}
+
+	/**
+	 * Batch consisting only of read-only commands doesn't acquire a connection upfront.
+	 * Connection is taken from the pool on first resolve and used in a read only transaction.
+	 * Single read which is not streamed doesn't need a transaction at all,
+	 * so repositories will run it in autocommit mode on a pooled connection.
+	 * This is the case even when the result is written by the engine,
+	 * since only streaming commands return results which are read during write.
+	 */
+	private <TInput, TOutput> ProcessingResult<TOutput> executeReadOnly(
+			ServerCommandDescription<TInput>[] commandDescriptions,
+			Serialization<TInput> inputSerializer,
+			Serialization<TOutput> outputSerializer,
+			Principal principal,
+			ResultWriter<TOutput> writer,
+			boolean streaming,
+			long startProcessing) {
+		ArrayList<CommandResultDescription<TOutput>> executedCommands = new ArrayList<>(commandDescriptions.length);
+		LazyConnection connection = commandDescriptions.length > 1 || streaming ? new LazyConnection(dataSource) : null;
+		try {
+			try (Container scope = container.createScope()) {
+				scope.registerInstance(ReadOnlyContext.class, ReadOnlyContext.INSTANCE, false);
+				if (connection != null) {
+					scope.registerFactory(Connection.class, connection, false);
+				}
+				CommandResult<TOutput> failed = executeCommands(scope, commandDescriptions, inputSerializer, outputSerializer, principal, executedCommands);
+				if (failed != null) {
+					return new ProcessingResult<>(failed.message, failed.status, null, startProcessing);
+				}
+				ProcessingResult<TOutput> success = ProcessingResult.success(executedCommands, startProcessing);
+				if (writer != null) {
+					writer.write(success);
+				}
+				return success;
+			}
+		} catch (IOException e) {
+			return ioError(e, startProcessing);
+		} catch (SecurityException e) {
+			return new ProcessingResult<>(e.getMessage(), 403, null, startProcessing);
+		} catch (Exception e) {
+			return ProcessingResult.error(e, startProcessing);
+		} finally {
+			if (connection != null) {
+				connection.release();
+			}
+		}
+	}
+
+	/**
+	 * Independent reads are executed concurrently, each in its own scope with its own pooled connection.
+	 * This way batch latency is close to the slowest command instead of the sum of all of them.
+	 * At most readConcurrency commands from the batch run at the same time,
+	 * so a single request can't take all pooled connections.
+	 * Results are returned in the request order.
+	 */
+	private <TInput, TOutput> ProcessingResult<TOutput> executeConcurrently(
+			ServerCommandDescription<TInput>[] commandDescriptions,
+			Serialization<TInput> inputSerializer,
+			Serialization<TOutput> outputSerializer,
+			Principal principal,
+			long startProcessing) {
+		CommandResultDescription<TOutput>[] results = new CommandResultDescription[commandDescriptions.length];
+		AtomicInteger next = new AtomicInteger();
+		int workers = Math.min(readConcurrency, commandDescriptions.length);
+		List<CompletableFuture<Void>> futures = new ArrayList<>(workers);
+		for (int w = 0; w < workers; w++) {
+			futures.add(CompletableFuture.runAsync(() -> {
+				Principal previous = PermissionManager.boundPrincipal.get();
+				PermissionManager.boundPrincipal.set(principal);
+				try {
+					int index;
+					while ((index = next.getAndIncrement()) < commandDescriptions.length) {
+						ServerCommandDescription<TInput> cd = commandDescriptions[index];
+						try (Container scope = container.createScope()) {
+							scope.registerInstance(ReadOnlyContext.class, ReadOnlyContext.INSTANCE, false);
+							long startCommand = System.nanoTime();
+							CommandResult<TOutput> result = executeCommand(scope, cd, inputSerializer, outputSerializer, principal);
+							results[index] = CommandResultDescription.create(cd.requestID, result, startCommand);
+							if (result.status >= 400) {
+								//commands after the failed one are not needed anymore
+								next.set(commandDescriptions.length);
+							}
+						}
+					}
+				} catch (RuntimeException e) {
+					next.set(commandDescriptions.length);
+					throw e;
+				} catch (Exception e) {
+					next.set(commandDescriptions.length);
+					throw new CompletionException(e);
+				} finally {
+					PermissionManager.boundPrincipal.set(previous);
+				}
+			}, readExecutor));
+		}
+		ArrayList<CommandResultDescription<TOutput>> executedCommands = new ArrayList<>(commandDescriptions.length);
+		try {
+			for (CompletableFuture<Void> future : futures) {
+				future.join();
+			}
+			for (CommandResultDescription<TOutput> description : results) {
+				executedCommands.add(description);
+				if (description.result.status >= 400) {
+					return new ProcessingResult<>(description.result.message, description.result.status, null, startProcessing);
+				}
+			}
+			return ProcessingResult.success(executedCommands, startProcessing);
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause() != null ? e.getCause() : e;
+			if (cause instanceof IOException) {
+				return ioError((IOException) cause, startProcessing);
+			} else if (cause instanceof SecurityException) {
+				return new ProcessingResult<>(cause.getMessage(), 403, null, startProcessing);
+			} else if (cause instanceof Exception) {
+				return ProcessingResult.error((Exception) cause, startProcessing);
+			}
+			return ProcessingResult.error(e, startProcessing);
+		} catch (RuntimeException e) {
+			return ProcessingResult.error(e, startProcessing);
+		}
+	}
+
+	private <TInput, TOutput> CommandResult<TOutput> executeCommand(
+			Container scope,
+			ServerCommandDescription<TInput> cd,
+			Serialization<TInput> inputSerializer,
+			Serialization<TOutput> outputSerializer,
+			Principal principal) {
+		ServerCommand command = serverCommands.get(cd.commandClass);
+		if (command == null) {
+			throw new RuntimeException("Command not registered: " + cd.commandClass);
+		}
+		CommandResult<TOutput> result = command.execute(scope, inputSerializer, outputSerializer, cd.data, principal);
+		if (result == null) {
+			throw new RuntimeException("Result returned null for: " + cd.commandClass);
+		}
+		return result;
+	}
+
+	private <TInput, TOutput> CommandResult<TOutput> executeCommands(
+			Container scope,
+			ServerCommandDescription<TInput>[] commandDescriptions,
+			Serialization<TInput> inputSerializer,
+			Serialization<TOutput> outputSerializer,
+			Principal principal,
+			List<CommandResultDescription<TOutput>> executedCommands) {
+		for (ServerCommandDescription<TInput> cd : commandDescriptions) {
+			long startCommand = System.nanoTime();
+			CommandResult<TOutput> result = executeCommand(scope, cd, inputSerializer, outputSerializer, principal);
+			executedCommands.add(CommandResultDescription.create(cd.requestID, result, startCommand));
+			if (result.status >= 400) {
+				return result;
+			}
+		}
+		return null;
+	}
+
+	private static <TOutput> ProcessingResult<TOutput> ioError(IOException e, long startProcessing) {
+		if (e.getCause() instanceof SQLException) {
+			return new ProcessingResult<>(e.getCause().getMessage(), 409, null, startProcessing);
+		}
+		return new ProcessingResult<>(e.getMessage(), 500, null, startProcessing);
+	}
+
+	/**
+	 * Read only mode is set on the transaction instead of the session,
+	 * so it's sent together with the transaction start and is reset by the rollback.
+	 */
+	private static final class LazyConnection implements Function<Container, Connection> {
+		private final DataSource dataSource;
+		private Connection connection;
+
+		LazyConnection(DataSource dataSource) {
+			this.dataSource = dataSource;
+		}
+
+		@Override
+		public Connection apply(Container container) {
+			if (connection == null) {
+				try {
+					Connection created = dataSource.getConnection();
+					try {
+						created.setAutoCommit(false);
+						try (Statement statement = created.createStatement()) {
+							statement.execute("SET TRANSACTION READ ONLY");
+						}
+					} catch (SQLException e) {
+						created.close();
+						throw e;
+					}
+					connection = created;
+				} catch (SQLException e) {
+					throw new RuntimeException("Unable to create database connection", e);
+				}
+			}
+			return connection;
+		}
+
+		void release() {
+			if (connection == null) {
+				return;
+			}
+			try {
+				try {
+					connection.rollback();
+					connection.setAutoCommit(true);
+				} finally {
+					connection.close();
+				}
+			} catch (SQLException ignore) {
+			}
+		}
+	}
 }
@@ -12,4 +12,26 @@ public interface ServerCommand {
 			Serialization<TOutput> output,
 			TInput data,
 			Principal principal);
+
+	/**
+	 * Batches which consist only of read-only commands are executed without an explicit transaction
+	 * or in a read only one, with a connection acquired only when it's actually required.
+	 *
+	 * @return command doesn't modify data
+	 */
+	default boolean isReadOnly() {
+		return false;
+	}
+
+	/**
+	 * Read-only command can return lazy results, such as iterators over a database cursor,
+	 * when executed with {@link StreamingSerialization}.
+	 * Such results are written while the read only transaction is still open.
+	 * Other reads don't need a transaction, even when their result is written by the engine.
+	 *
+	 * @return command result can be streamed
+	 */
+	default boolean isStreaming() {
+		return false;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+package org.revenj.server;
+
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Iterator over a lazy stream which releases the stream resources when closed.
+ * Writers which consume streamed results should close it when done.
+ */
+public final class StreamIterator<T> implements Iterator<T>, AutoCloseable {
+	private final Stream<T> stream;
+	private final Iterator<T> iterator;
+
+	public StreamIterator(Stream<T> stream) {
+		this.stream = stream;
+		this.iterator = stream.iterator();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return iterator.hasNext();
+	}
+
+	@Override
+	public T next() {
+		return iterator.next();
+	}
+
+	@Override
+	public void close() {
+		stream.close();
+	}
+}
@@ -0,0 +1,28 @@
+package org.revenj.server;
+
+import org.revenj.serialization.Serialization;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * Output format used when command results are written before the command scope is closed.
+ * Commands can detect it and return lazy results, such as iterators over a database cursor.
+ */
+public final class StreamingSerialization<TFormat> implements Serialization<TFormat> {
+	private final Serialization<TFormat> serialization;
+
+	StreamingSerialization(Serialization<TFormat> serialization) {
+		this.serialization = serialization;
+	}
+
+	@Override
+	public TFormat serialize(Object value) {
+		return serialization.serialize(value);
+	}
+
+	@Override
+	public Object deserialize(Type type, TFormat data) throws IOException {
+		return serialization.deserialize(type, data);
+	}
+}
@@ -15,12 +15,14 @@ public class DomainObjectExists implements ServerCommand {
 
 	private final DomainModel domainModel;
 	private final PermissionManager permissions;
+	private final PreparedDomainType.Cache domainTypes;
 
 	public DomainObjectExists(
 			DomainModel domainModel,
 			PermissionManager permissions) {
 		this.domainModel = domainModel;
 		this.permissions = permissions;
+		this.domainTypes = new PreparedDomainType.Cache(domainModel, SearchableRepository.class);
 	}
 
 	public static final class Argument<TFormat> {
@@ -39,6 +41,11 @@ public class DomainObjectExists implements ServerCommand {
 		}
 	}
 
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
 	@Override
 	public <TInput, TOutput> CommandResult<TOutput> execute(
 			ServiceLocator locator,
@@ -52,19 +59,16 @@ public class DomainObjectExists implements ServerCommand {
 		} catch (IOException e) {
 			return CommandResult.badRequest(e.getMessage());
 		}
-		Optional<Class<?>> manifest = domainModel.find(arg.Name);
-		if (!manifest.isPresent()) {
+		PreparedDomainType domainType = domainTypes.find(arg.Name);
+		if (domainType == null) {
 			return CommandResult.badRequest("Unable to find specified domain object: " + arg.Name);
 		}
-		if (!permissions.canAccess(manifest.get(), principal)) {
+		if (!permissions.canAccess(domainType.manifest, principal)) {
 			return CommandResult.forbidden(arg.Name);
 		}
 		final Specification specification;
 		if (arg.SpecificationName != null && arg.SpecificationName.length() > 0) {
-			Optional<Class<?>> specType = domainModel.find(arg.Name + "$" + arg.SpecificationName);
-			if (!specType.isPresent()) {
-				specType = domainModel.find(arg.SpecificationName);
-			}
+			Optional<Class<?>> specType = domainType.findSpecification(arg.SpecificationName);
 			if (!specType.isPresent()) {
 				return CommandResult.badRequest("Couldn't find specification: " + arg.SpecificationName);
 			}
@@ -80,11 +84,21 @@ public class DomainObjectExists implements ServerCommand {
 		}
 		SearchableRepository repository;
 		try {
-			repository = locator.resolve(SearchableRepository.class, manifest.get());
+			repository = domainType.resolveRepository(locator);
 		} catch (ReflectiveOperationException e) {
 			return CommandResult.badRequest("Error resolving repository for: " + arg.Name + ". Reason: " + e.getMessage());
 		}
-		boolean found = repository.exists(specification);
+		final boolean found;
+		if (permissions.hasFilters(domainType.manifest, principal)) {
+			Query query = permissions.applyFilters((Class) domainType.manifest, principal, repository.query(specification));
+			try {
+				found = query.any();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		} else {
+			found = repository.exists(specification);
+		}
 		return CommandResult.success(Boolean.toString(found), output.serialize(found));
 	}
 }
@@ -9,18 +9,19 @@ import org.revenj.serialization.Serialization;
 import java.io.IOException;
 import java.security.Principal;
 import java.util.List;
-import java.util.Optional;
 
 public class GetDomainObject implements ServerCommand {
 
 	private final DomainModel domainModel;
 	private final PermissionManager permissions;
+	private final PreparedDomainType.Cache domainTypes;
 
 	public GetDomainObject(
 			DomainModel domainModel,
 	        PermissionManager permissions) {
 		this.domainModel = domainModel;
 		this.permissions = permissions;
+		this.domainTypes = new PreparedDomainType.Cache(domainModel, Repository.class);
 	}
 
 	public static final class Argument {
@@ -39,6 +40,11 @@ public class GetDomainObject implements ServerCommand {
 		}
 	}
 
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
 	@Override
 	public <TInput, TOutput> CommandResult<TOutput> execute(
 			ServiceLocator locator,
@@ -52,19 +58,19 @@ public class GetDomainObject implements ServerCommand {
 		} catch (IOException e) {
 			return CommandResult.badRequest(e.getMessage());
 		}
-		Optional<Class<?>> manifest = domainModel.find(arg.Name);
-		if (!manifest.isPresent()) {
+		PreparedDomainType domainType = domainTypes.find(arg.Name);
+		if (domainType == null) {
 			return CommandResult.badRequest("Unable to find specified domain object: " + arg.Name);
 		}
 		if (arg.Uri == null || arg.Uri.length == 0) {
 			return CommandResult.badRequest("Uri not specified.");
 		}
-		if (!permissions.canAccess(manifest.get(), principal)) {
+		if (!permissions.canAccess(domainType.manifest, principal)) {
 			return CommandResult.forbidden(arg.Name);
 		}
 		Repository repository;
 		try {
-			repository = locator.resolve(Repository.class, manifest.get());
+			repository = domainType.resolveRepository(locator);
 		} catch (ReflectiveOperationException e) {
 			return CommandResult.badRequest("Error resolving repository for: " + arg.Name + ". Reason: " + e.getMessage());
 		}
@@ -0,0 +1,90 @@
+package org.revenj.server.commands;
+
+import org.revenj.Utils;
+import org.revenj.patterns.DomainModel;
+import org.revenj.patterns.ServiceLocator;
+
+import java.lang.reflect.Type;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Domain object information resolved once per command and domain object name.
+ * Requests reuse resolved manifest, repository type and specification types
+ * instead of repeating name based lookups.
+ */
+public final class PreparedDomainType {
+	public final String name;
+	public final Class<?> manifest;
+	private final Type repositoryType;
+	private final DomainModel domainModel;
+	private final ConcurrentMap<String, Class<?>> specifications = new ConcurrentHashMap<>();
+
+	private PreparedDomainType(DomainModel domainModel, String name, Class<?> manifest, Type repositoryType) {
+		this.domainModel = domainModel;
+		this.name = name;
+		this.manifest = manifest;
+		this.repositoryType = repositoryType;
+	}
+
+	/**
+	 * Specification is first looked up as nested in the domain object and then by its full name.
+	 */
+	public Optional<Class<?>> findSpecification(String specificationName) {
+		Class<?> found = specifications.get(specificationName);
+		if (found != null) {
+			return Optional.of(found);
+		}
+		Optional<Class<?>> specType = domainModel.find(name + "$" + specificationName);
+		if (!specType.isPresent()) {
+			specType = domainModel.find(specificationName);
+		}
+		if (specType.isPresent()) {
+			specifications.putIfAbsent(specificationName, specType.get());
+		}
+		return specType;
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> T resolveRepository(ServiceLocator locator) throws ReflectiveOperationException {
+		return (T) locator.resolve(repositoryType);
+	}
+
+	/**
+	 * Prepared domain objects for a single command.
+	 * Only found domain objects are cached.
+	 */
+	public static final class Cache {
+		private final DomainModel domainModel;
+		private final Class<?> repository;
+		private final ConcurrentMap<String, PreparedDomainType> types = new ConcurrentHashMap<>();
+
+		public Cache(DomainModel domainModel, Class<?> repository) {
+			this.domainModel = domainModel;
+			this.repository = repository;
+		}
+
+		/**
+		 * @param name domain object name
+		 * @return prepared domain object or null if it doesn't exist
+		 */
+		public PreparedDomainType find(String name) {
+			PreparedDomainType found = types.get(name);
+			if (found != null) {
+				return found;
+			}
+			Optional<Class<?>> manifest = domainModel.find(name);
+			if (!manifest.isPresent()) {
+				return null;
+			}
+			PreparedDomainType prepared = new PreparedDomainType(
+					domainModel,
+					name,
+					manifest.get(),
+					Utils.makeGenericType(repository, manifest.get()));
+			PreparedDomainType existing = types.putIfAbsent(name, prepared);
+			return existing != null ? existing : prepared;
+		}
+	}
+}
@@ -7,6 +7,7 @@ import org.revenj.serialization.Serialization;
 import org.revenj.patterns.ServiceLocator;
 import org.revenj.server.CommandResult;
 import org.revenj.server.ServerCommand;
+import org.revenj.server.commands.PreparedDomainType;
 
 import java.io.IOException;
 import java.security.Principal;
@@ -16,12 +17,14 @@ public final class Read implements ServerCommand {
 
 	private final DomainModel domainModel;
 	private final PermissionManager permissions;
+	private final PreparedDomainType.Cache domainTypes;
 
 	public Read(
 			DomainModel domainModel,
 			PermissionManager permissions) {
 		this.domainModel = domainModel;
 		this.permissions = permissions;
+		this.domainTypes = new PreparedDomainType.Cache(domainModel, Repository.class);
 	}
 
 	public static final class Argument {
@@ -38,6 +41,11 @@ public final class Read implements ServerCommand {
 		}
 	}
 
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
 	@Override
 	public <TInput, TOutput> CommandResult<TOutput> execute(
 			ServiceLocator locator,
@@ -51,16 +59,16 @@ public final class Read implements ServerCommand {
 		} catch (IOException e) {
 			return CommandResult.badRequest(e.getMessage());
 		}
-		Optional<Class<?>> manifest = domainModel.find(arg.Name);
-		if (!manifest.isPresent()) {
+		PreparedDomainType domainType = domainTypes.find(arg.Name);
+		if (domainType == null) {
 			return CommandResult.badRequest("Unable to find specified domain object: " + arg.Name);
 		}
-		if (!permissions.canAccess(manifest.get(), principal)) {
+		if (!permissions.canAccess(domainType.manifest, principal)) {
 			return CommandResult.forbidden(arg.Name);
 		}
 		Repository repository;
 		try {
-			repository = locator.resolve(Repository.class, manifest.get());
+			repository = domainType.resolveRepository(locator);
 		} catch (ReflectiveOperationException e) {
 			return CommandResult.badRequest("Error resolving repository for: " + arg.Name + ". Reason: " + e.getMessage());
 		}
@@ -4,6 +4,9 @@ import org.revenj.patterns.*;
 import org.revenj.security.PermissionManager;
 import org.revenj.server.CommandResult;
 import org.revenj.server.ServerCommand;
+import org.revenj.server.commands.PreparedDomainType;
+import org.revenj.server.StreamIterator;
+import org.revenj.server.StreamingSerialization;
 import org.revenj.serialization.Serialization;
 
 import java.io.IOException;
@@ -12,17 +15,20 @@ import java.security.Principal;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public class SearchDomainObject implements ServerCommand {
 
 	private final DomainModel domainModel;
 	private final PermissionManager permissions;
+	private final PreparedDomainType.Cache domainTypes;
 
 	public SearchDomainObject(
 			DomainModel domainModel,
 			PermissionManager permissions) {
 		this.domainModel = domainModel;
 		this.permissions = permissions;
+		this.domainTypes = new PreparedDomainType.Cache(domainModel, SearchableRepository.class);
 	}
 
 	public static final class Argument<TFormat> {
@@ -47,6 +53,16 @@ public class SearchDomainObject implements ServerCommand {
 		}
 	}
 
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	@Override
+	public boolean isStreaming() {
+		return true;
+	}
+
 	@Override
 	public <TInput, TOutput> CommandResult<TOutput> execute(
 			ServiceLocator locator,
@@ -60,19 +76,16 @@ public class SearchDomainObject implements ServerCommand {
 		} catch (IOException e) {
 			return CommandResult.badRequest(e.getMessage());
 		}
-		Optional<Class<?>> manifest = domainModel.find(arg.Name);
-		if (!manifest.isPresent()) {
+		PreparedDomainType domainType = domainTypes.find(arg.Name);
+		if (domainType == null) {
 			return CommandResult.badRequest("Unable to find specified domain object: " + arg.Name);
 		}
-		if (!permissions.canAccess(manifest.get(), principal)) {
+		if (!permissions.canAccess(domainType.manifest, principal)) {
 			return CommandResult.forbidden(arg.Name);
 		}
 		final Specification specification;
 		if (arg.SpecificationName != null && arg.SpecificationName.length() > 0) {
-			Optional<Class<?>> specType = domainModel.find(arg.Name + "$" + arg.SpecificationName);
-			if (!specType.isPresent()) {
-				specType = domainModel.find(arg.SpecificationName);
-			}
+			Optional<Class<?>> specType = domainType.findSpecification(arg.SpecificationName);
 			if (!specType.isPresent()) {
 				return CommandResult.badRequest("Couldn't find specification: " + arg.SpecificationName);
 			}
@@ -88,11 +101,51 @@ public class SearchDomainObject implements ServerCommand {
 		}
 		SearchableRepository repository;
 		try {
-			repository = locator.resolve(SearchableRepository.class, manifest.get());
+			repository = domainType.resolveRepository(locator);
 		} catch (ReflectiveOperationException e) {
 			return CommandResult.badRequest("Error resolving repository for: " + arg.Name + ". Reason: " + e.getMessage());
 		}
+		final boolean streaming = output instanceof StreamingSerialization;
+		if (permissions.hasFilters(domainType.manifest, principal)) {
+			//apply row filters in the database, so paging works only on permitted rows
+			Query query = permissions.applyFilters((Class) domainType.manifest, principal, repository.query(specification));
+			if (arg.Offset != null) {
+				query = query.skip(arg.Offset);
+			}
+			if (arg.Limit != null) {
+				query = query.limit(arg.Limit);
+			}
+			try {
+				if (streaming) {
+					return stream(output, query.stream());
+				}
+				List<AggregateRoot> found = query.list();
+				return CommandResult.success("Found " + found.size() + " items", output.serialize(found));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		if (streaming) {
+			//result will be written while connection is still open, so rows can be sent while they are being read
+			return stream(output, repository.stream(specification, arg.Limit, arg.Offset));
+		}
 		List<AggregateRoot> found = repository.search(specification, arg.Limit, arg.Offset);
 		return CommandResult.success("Found " + found.size() + " items", output.serialize(found));
 	}
+
+	private static <TOutput> CommandResult<TOutput> stream(Serialization<TOutput> output, Stream<AggregateRoot> stream) {
+		StreamIterator<AggregateRoot> found = new StreamIterator<>(stream);
+		TOutput result;
+		try {
+			result = output.serialize(found);
+		} catch (RuntimeException e) {
+			found.close();
+			throw e;
+		}
+		//when iterator is passed through, writer will close it after it's sent
+		if (result != found) {
+			found.close();
+		}
+		return CommandResult.success("Streaming items", result);
+	}
 }
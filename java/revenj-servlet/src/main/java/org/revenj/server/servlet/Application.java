@@ -12,11 +12,17 @@ import org.revenj.server.ProcessingEngine;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
+import javax.servlet.ServletRegistration;
 import javax.sql.DataSource;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Application implements ServletContextListener {
 
@@ -57,18 +63,86 @@ public class Application implements ServletContextListener {
 		container.registerInstance(WireSerialization.class, serialization, false);
 		container.registerInstance(new Generic<Serialization<String>>() {
 		}.type, serialization.find(String.class).get(), false);
-		container.register(new ProcessingEngine(container, dataSource, serialization, permissions, plugins));
+		Properties properties = container.resolve(Properties.class);
+		int threads = parse(properties, "revenj.server.readThreads", 0);
+		ReadExecutor reads = null;
+		if (threads > 0) {
+			reads = new ReadExecutor(threads, parse(properties, "revenj.server.readQueueSize", threads * 16));
+			container.registerInstance(ReadExecutor.class, reads, true);
+		}
+		container.register(new ProcessingEngine(
+				container,
+				dataSource,
+				serialization,
+				permissions,
+				plugins,
+				reads != null ? reads.executor : null,
+				parse(properties, "revenj.server.readConcurrency", 4)));
+		AsyncProcessing processing = AsyncProcessing.create(properties);
+		if (processing != null) {
+			container.registerInstance(AsyncProcessing.class, processing, true);
+		}
+	}
+
+	private static int parse(Properties properties, String name, int defaultValue) {
+		String value = properties.getProperty(name);
+		try {
+			return value != null ? Integer.parseInt(value) : defaultValue;
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("Invalid " + name + " settings found: " + value, e);
+		}
+	}
+
+	/**
+	 * Threads for concurrent reads within a batch.
+	 * When the queue is full or executor was shut down, command is executed on the request thread instead.
+	 */
+	private static final class ReadExecutor implements Closeable {
+		final ThreadPoolExecutor executor;
+
+		ReadExecutor(int threads, int queueSize) {
+			if (queueSize < 1) throw new IllegalArgumentException("revenj.server.readQueueSize must be positive");
+			AtomicInteger counter = new AtomicInteger();
+			this.executor = new ThreadPoolExecutor(
+					threads,
+					threads,
+					0L,
+					TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<>(queueSize),
+					r -> {
+						Thread thread = new Thread(r, "revenj-reads-" + counter.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					},
+					(r, pool) -> r.run());
+		}
+
+		@Override
+		public void close() {
+			executor.shutdown();
+		}
 	}
 
 	public static void configure(ServletContext context, Container container) throws Exception {
 		setup(container);
-		context.addServlet("rpc", new RpcServlet(container)).addMapping("/RestApplication.svc/*");
-		context.addServlet("crud", new CrudServlet(container)).addMapping("/Crud.svc/*");
-		context.addServlet("domain", new DomainServlet(container)).addMapping("/Domain.svc/*");
-		context.addServlet("standard", new StandardServlet(container)).addMapping("/Commands.svc/*");
+		boolean async = container.tryResolve(AsyncProcessing.class).isPresent();
+		ServletRegistration.Dynamic rpc = context.addServlet("rpc", new RpcServlet(container));
+		rpc.setAsyncSupported(async);
+		rpc.addMapping("/RestApplication.svc/*");
+		ServletRegistration.Dynamic crud = context.addServlet("crud", new CrudServlet(container));
+		crud.setAsyncSupported(async);
+		crud.addMapping("/Crud.svc/*");
+		ServletRegistration.Dynamic domain = context.addServlet("domain", new DomainServlet(container));
+		domain.setAsyncSupported(async);
+		domain.addMapping("/Domain.svc/*");
+		ServletRegistration.Dynamic standard = context.addServlet("standard", new StandardServlet(container));
+		standard.setAsyncSupported(async);
+		standard.addMapping("/Commands.svc/*");
 	}
 
 	@Override
 	public void contextDestroyed(ServletContextEvent sce) {
+		container.tryResolve(AsyncProcessing.class).ifPresent(AsyncProcessing::close);
+		container.tryResolve(ReadExecutor.class).ifPresent(ReadExecutor::close);
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,594 @@
+package org.revenj.server.servlet;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs servlet requests on a bounded executor instead of the container thread.
+ * When the queue is full request is rejected with 503 and Retry-After header.
+ * Small responses are buffered while processing and sent to the client through non-blocking output.
+ * Larger responses are written through to the client once the buffer is full.
+ * Processing timeout applies only until the response starts to be written,
+ * so large responses which are written through are not cut off.
+ * Async processing is disabled by default and is enabled with revenj.async=enabled.
+ */
+public final class AsyncProcessing implements Closeable {
+
+	@FunctionalInterface
+	interface Handler {
+		void handle(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException;
+	}
+
+	private static final int RUNNING = 0;
+	private static final int WRITING = 1;
+	private static final int DONE = 2;
+	private static final int CHUNK_SIZE = 8192;
+	private static final String FAILURE = "org.revenj.async.failure";
+
+	private final ThreadPoolExecutor executor;
+	private final ScheduledThreadPoolExecutor timeouts;
+	private final long timeout;
+	private final String retryAfter;
+	private final int bufferSize;
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong timedOut = new AtomicLong();
+
+	public AsyncProcessing(int threads, int queueSize, long timeout, int retryAfter) {
+		this(threads, queueSize, timeout, retryAfter, 64 * 1024);
+	}
+
+	public AsyncProcessing(int threads, int queueSize, long timeout, int retryAfter, int bufferSize) {
+		if (threads < 1) throw new IllegalArgumentException("threads must be positive");
+		if (queueSize < 1) throw new IllegalArgumentException("queueSize must be positive");
+		if (bufferSize < 1) throw new IllegalArgumentException("bufferSize must be positive");
+		AtomicInteger counter = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(
+				threads,
+				threads,
+				0L,
+				TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueSize),
+				r -> {
+					Thread thread = new Thread(r, "revenj-async-" + counter.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				},
+				new ThreadPoolExecutor.AbortPolicy());
+		this.timeouts = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread thread = new Thread(r, "revenj-async-timeout");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.timeouts.setRemoveOnCancelPolicy(true);
+		this.timeout = timeout;
+		this.retryAfter = Integer.toString(retryAfter);
+		this.bufferSize = bufferSize;
+	}
+
+	private static int parse(Properties properties, String name, int defaultValue) {
+		String value = properties.getProperty(name);
+		try {
+			return value != null ? Integer.parseInt(value) : defaultValue;
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("Invalid " + name + " settings found: " + value, e);
+		}
+	}
+
+	/**
+	 * Creates async processing from revenj.async.threads, revenj.async.queueSize,
+	 * revenj.async.timeout (in milliseconds), revenj.async.retryAfter (in seconds)
+	 * and revenj.async.bufferSize (in bytes) settings.
+	 *
+	 * @param properties configuration
+	 * @return configured processing or null when async processing is not enabled
+	 */
+	public static AsyncProcessing create(Properties properties) {
+		if (!"enabled".equalsIgnoreCase(properties.getProperty("revenj.async"))) {
+			return null;
+		}
+		return new AsyncProcessing(
+				parse(properties, "revenj.async.threads", Runtime.getRuntime().availableProcessors() * 4),
+				parse(properties, "revenj.async.queueSize", 1000),
+				parse(properties, "revenj.async.timeout", 30000),
+				parse(properties, "revenj.async.retryAfter", 1),
+				parse(properties, "revenj.async.bufferSize", 64 * 1024));
+	}
+
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	public long getTimedOutCount() {
+		return timedOut.get();
+	}
+
+	static void service(
+			AsyncProcessing processing,
+			HttpServletRequest request,
+			HttpServletResponse response,
+			Handler handler) throws ServletException, IOException {
+		Object failure = request.getAttribute(FAILURE);
+		if (failure instanceof Throwable) {
+			//request was dispatched back after it failed while writing through.
+			//failing it on the container thread makes the container abort the connection,
+			//so the client doesn't take the truncated body as a complete response
+			request.removeAttribute(FAILURE);
+			throw new ServletException("Response failed after it was committed", (Throwable) failure);
+		}
+		if (processing == null || !request.isAsyncSupported()) {
+			handler.handle(request, response);
+		} else {
+			processing.dispatch(request, response, handler);
+		}
+	}
+
+	private void dispatch(HttpServletRequest request, HttpServletResponse response, Handler handler) {
+		AsyncContext context = request.startAsync(request, response);
+		//container timeout would fail the request even while the result is being written,
+		//so processing timeout is enforced by the scheduled task instead
+		context.setTimeout(0);
+		AsyncRequest async = new AsyncRequest(request, response, handler, context);
+		context.addListener(async);
+		try {
+			async.task = executor.submit(async);
+			if (timeout > 0) {
+				async.timer = timeouts.schedule(async::timeout, timeout, TimeUnit.MILLISECONDS);
+			}
+		} catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			async.state.set(DONE);
+			response.setStatus(503);
+			response.setHeader("Retry-After", retryAfter);
+			context.complete();
+		}
+	}
+
+	@Override
+	public void close() {
+		executor.shutdown();
+		timeouts.shutdownNow();
+	}
+
+	private static boolean isSafe(HttpServletRequest request) {
+		String method = request.getMethod();
+		return "GET".equalsIgnoreCase(method) || "HEAD".equalsIgnoreCase(method);
+	}
+
+	private final class AsyncRequest implements Runnable, AsyncListener {
+		final HttpServletRequest request;
+		final HttpServletResponse response;
+		final Handler handler;
+		final AsyncContext context;
+		final AtomicInteger state = new AtomicInteger(RUNNING);
+		volatile Future<?> task;
+		volatile ScheduledFuture<?> timer;
+
+		AsyncRequest(HttpServletRequest request, HttpServletResponse response, Handler handler, AsyncContext context) {
+			this.request = request;
+			this.response = response;
+			this.handler = handler;
+			this.context = context;
+		}
+
+		@Override
+		public void run() {
+			if (state.get() != RUNNING) {
+				return;
+			}
+			BufferedResponse buffered = new BufferedResponse(this, bufferSize);
+			try {
+				handler.handle(request, buffered);
+			} catch (Exception e) {
+				buffered.fail(e);
+			}
+			buffered.finish();
+		}
+
+		void completeFrom(int expected) {
+			if (state.compareAndSet(expected, DONE)) {
+				cancelTimer();
+				context.complete();
+			}
+		}
+
+		void failFrom(int expected, Throwable failure) {
+			if (state.compareAndSet(expected, DONE)) {
+				cancelTimer();
+				request.setAttribute(FAILURE, failure);
+				context.dispatch();
+			}
+		}
+
+		private void cancelTimer() {
+			ScheduledFuture<?> scheduled = timer;
+			if (scheduled != null) {
+				scheduled.cancel(false);
+			}
+		}
+
+		/**
+		 * Acts only while the request is still processing.
+		 * Once the result is being written, writer will complete the request.
+		 */
+		void timeout() {
+			if (!state.compareAndSet(RUNNING, DONE)) {
+				return;
+			}
+			timedOut.incrementAndGet();
+			Future<?> running = task;
+			if (running != null) {
+				running.cancel(true);
+			}
+			if (isSafe(request)) {
+				response.setStatus(503);
+				response.setHeader("Retry-After", retryAfter);
+			} else {
+				//changes might have been applied already, so client should not blindly retry
+				response.setStatus(504);
+			}
+			context.complete();
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) {
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) {
+			timeout();
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+			state.set(DONE);
+			cancelTimer();
+			Future<?> running = task;
+			if (running != null) {
+				running.cancel(true);
+			}
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+		}
+	}
+
+	/**
+	 * Keeps the beginning of the body in memory.
+	 * When it doesn't fit into the buffer, response is committed and everything is written through.
+	 */
+	private static final class BufferOutputStream extends ServletOutputStream {
+		private final BufferedResponse response;
+		private final int limit;
+		byte[] buffer;
+		int length;
+		private ServletOutputStream target;
+
+		BufferOutputStream(BufferedResponse response, int limit) {
+			this.response = response;
+			this.limit = limit;
+			this.buffer = new byte[Math.min(CHUNK_SIZE, limit)];
+		}
+
+		boolean isWritingThrough() {
+			return target != null;
+		}
+
+		private boolean ensureCapacity(int len) throws IOException {
+			if (length + len <= buffer.length) {
+				return true;
+			}
+			if (length + len <= limit) {
+				buffer = Arrays.copyOf(buffer, Math.min(limit, Math.max(buffer.length * 2, length + len)));
+				return true;
+			}
+			target = response.commit();
+			target.write(buffer, 0, length);
+			buffer = null;
+			length = 0;
+			return false;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (target == null && ensureCapacity(1)) {
+				buffer[length++] = (byte) b;
+			} else {
+				target.write(b);
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (target == null && ensureCapacity(len)) {
+				System.arraycopy(b, off, buffer, length, len);
+				length += len;
+			} else {
+				target.write(b, off, len);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (target != null) {
+				target.flush();
+			}
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			throw new IllegalStateException("Buffered output doesn't support write listener");
+		}
+	}
+
+	/**
+	 * Status, headers and beginning of the body are kept in memory while processing.
+	 * This way nothing is written to the actual response if request has timed out before that.
+	 * If the body doesn't fit into the buffer, response is committed and the rest is written through.
+	 */
+	private static final class BufferedResponse extends HttpServletResponseWrapper {
+		private final AsyncRequest request;
+		private final HttpServletResponse response;
+		private final BufferOutputStream output;
+		private final List<String[]> headers = new ArrayList<>();
+		private PrintWriter writer;
+		private int status = 200;
+		private String contentType;
+		private String encoding;
+		private boolean error;
+		private String errorMessage;
+		private Exception failure;
+
+		BufferedResponse(AsyncRequest request, int bufferSize) {
+			super(request.response);
+			this.request = request;
+			this.response = request.response;
+			this.output = new BufferOutputStream(this, bufferSize);
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() {
+			return output;
+		}
+
+		@Override
+		public PrintWriter getWriter() {
+			if (writer == null) {
+				writer = new PrintWriter(new OutputStreamWriter(output, Charset.forName(getCharacterEncoding())));
+			}
+			return writer;
+		}
+
+		@Override
+		public void setStatus(int sc) {
+			if (!output.isWritingThrough()) {
+				status = sc;
+			}
+		}
+
+		@Override
+		public int getStatus() {
+			return status;
+		}
+
+		@Override
+		public void setContentType(String type) {
+			if (!output.isWritingThrough()) {
+				contentType = type;
+			}
+		}
+
+		@Override
+		public String getContentType() {
+			return contentType;
+		}
+
+		@Override
+		public void setCharacterEncoding(String charset) {
+			if (!output.isWritingThrough()) {
+				encoding = charset;
+			}
+		}
+
+		@Override
+		public String getCharacterEncoding() {
+			return encoding != null ? encoding : "ISO-8859-1";
+		}
+
+		@Override
+		public void setHeader(String name, String value) {
+			if (!output.isWritingThrough()) {
+				headers.removeIf(h -> h[0].equalsIgnoreCase(name));
+				headers.add(new String[]{name, value});
+			}
+		}
+
+		@Override
+		public void addHeader(String name, String value) {
+			if (!output.isWritingThrough()) {
+				headers.add(new String[]{name, value});
+			}
+		}
+
+		@Override
+		public void sendError(int sc, String msg) {
+			if (output.isWritingThrough()) {
+				throw new IllegalStateException("Response has already been committed");
+			}
+			status = sc;
+			error = true;
+			errorMessage = msg;
+		}
+
+		@Override
+		public void sendError(int sc) {
+			sendError(sc, null);
+		}
+
+		@Override
+		public void flushBuffer() throws IOException {
+			if (writer != null) {
+				writer.flush();
+			}
+			output.flush();
+		}
+
+		@Override
+		public void resetBuffer() {
+			if (writer != null) {
+				writer.flush();
+			}
+			if (output.isWritingThrough()) {
+				throw new IllegalStateException("Response has already been committed");
+			}
+			output.length = 0;
+		}
+
+		@Override
+		public void reset() {
+			resetBuffer();
+			headers.clear();
+			status = 200;
+			contentType = null;
+			encoding = null;
+			error = false;
+			errorMessage = null;
+		}
+
+		/**
+		 * Nothing is sent to the client until the result is complete,
+		 * unless the body didn't fit into the buffer.
+		 */
+		@Override
+		public boolean isCommitted() {
+			return error || output.isWritingThrough();
+		}
+
+		void fail(Exception e) {
+			if (output.isWritingThrough()) {
+				failure = e;
+			} else if (!error) {
+				//partial result must not be sent as a success
+				output.length = 0;
+				sendError(500, e.getMessage() != null ? e.getMessage() : e.toString());
+			}
+		}
+
+		private void copyHeaders() {
+			for (String[] h : headers) {
+				response.addHeader(h[0], h[1]);
+			}
+			if (encoding != null) {
+				response.setCharacterEncoding(encoding);
+			}
+			if (contentType != null) {
+				response.setContentType(contentType);
+			}
+		}
+
+		/**
+		 * Called when buffer is full. From now on body is written directly to the client.
+		 */
+		ServletOutputStream commit() throws IOException {
+			if (!request.state.compareAndSet(RUNNING, WRITING)) {
+				throw new IOException("Request has timed out");
+			}
+			copyHeaders();
+			response.setStatus(status);
+			return response.getOutputStream();
+		}
+
+		void finish() {
+			if (writer != null && failure == null && !error) {
+				//might switch to writing through when remaining characters don't fit into the buffer.
+				//error response doesn't have a body, so pending characters are not needed
+				writer.flush();
+			}
+			if (output.isWritingThrough()) {
+				if (failure != null) {
+					request.failFrom(WRITING, failure);
+					return;
+				}
+				try {
+					output.flush();
+				} catch (IOException | RuntimeException ignore) {
+					//client is gone, there is nothing else to send
+				}
+				request.completeFrom(WRITING);
+				return;
+			}
+			if (!request.state.compareAndSet(RUNNING, WRITING)) {
+				return;
+			}
+			try {
+				copyHeaders();
+				if (error) {
+					if (errorMessage != null) {
+						response.sendError(status, errorMessage);
+					} else {
+						response.sendError(status);
+					}
+					request.completeFrom(WRITING);
+					return;
+				}
+				response.setStatus(status);
+				ServletOutputStream out = response.getOutputStream();
+				out.setWriteListener(new WriteListener() {
+					private int position;
+
+					@Override
+					public void onWritePossible() throws IOException {
+						while (out.isReady()) {
+							if (position == output.length) {
+								request.completeFrom(WRITING);
+								return;
+							}
+							int len = Math.min(CHUNK_SIZE, output.length - position);
+							out.write(output.buffer, position, len);
+							position += len;
+						}
+					}
+
+					@Override
+					public void onError(Throwable t) {
+						request.completeFrom(WRITING);
+					}
+				});
+			} catch (IOException | RuntimeException e) {
+				request.completeFrom(WRITING);
+			}
+		}
+	}
+}
@@ -22,20 +22,36 @@ public class CrudServlet extends HttpServlet {
 	private final DomainModel model;
 	private final ProcessingEngine engine;
 	private final WireSerialization serialization;
+	private final AsyncProcessing processing;
 
 	public CrudServlet(
 			DomainModel model,
 			ProcessingEngine engine,
 			WireSerialization serialization) {
+		this(model, engine, serialization, null);
+	}
+
+	public CrudServlet(
+			DomainModel model,
+			ProcessingEngine engine,
+			WireSerialization serialization,
+			AsyncProcessing processing) {
 		this.model = model;
 		this.engine = engine;
 		this.serialization = serialization;
+		this.processing = processing;
 	}
 
 	CrudServlet(ServiceLocator locator) {
 		this(locator.resolve(DomainModel.class),
 				locator.resolve(ProcessingEngine.class),
-				locator.resolve(WireSerialization.class));
+				locator.resolve(WireSerialization.class),
+				locator.tryResolve(AsyncProcessing.class).orElse(null));
+	}
+
+	@Override
+	protected void service(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
+		AsyncProcessing.service(processing, req, res, super::service);
 	}
 
 	private <T> Optional<T> check(HttpServletRequest req, HttpServletResponse res, BiFunction<String, String, T> call) throws IOException {
@@ -60,7 +76,7 @@ public class CrudServlet extends HttpServlet {
 
 	@Override
 	protected void doGet(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
-		check(req, res, Read.Argument::new).ifPresent(arg -> Utility.executeJson(engine, req, res, Read.class, arg));
+		check(req, res, Read.Argument::new).ifPresent(arg -> Utility.executeJson(engine, serialization, req, res, Read.class, arg));
 	}
 
 	@Override
@@ -77,7 +93,7 @@ public class CrudServlet extends HttpServlet {
 			return;
 		}
 		Object instance = serialization.deserialize(manifest.get(), req.getInputStream(), req.getContentType());
-		Utility.executeJson(engine, req, res, Create.class, new Create.Argument<>(name, instance));
+		Utility.executeJson(engine, serialization, req, res, Create.class, new Create.Argument<>(name, instance));
 	}
 
 	@Override
@@ -99,11 +115,11 @@ public class CrudServlet extends HttpServlet {
 			return;
 		}
 		Object instance = serialization.deserialize(manifest.get(), req.getInputStream(), req.getContentType());
-		Utility.executeJson(engine, req, res, Update.class, new Update.Argument<>(name, uri, instance));
+		Utility.executeJson(engine, serialization, req, res, Update.class, new Update.Argument<>(name, uri, instance));
 	}
 
 	@Override
 	protected void doDelete(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
-		check(req, res, Delete.Argument::new).ifPresent(arg -> Utility.executeJson(engine, req, res, Delete.class, arg));
+		check(req, res, Delete.Argument::new).ifPresent(arg -> Utility.executeJson(engine, serialization, req, res, Delete.class, arg));
 	}
 }
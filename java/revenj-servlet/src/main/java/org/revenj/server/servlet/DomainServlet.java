@@ -22,15 +22,29 @@ public class DomainServlet extends HttpServlet {
 	private final DomainModel model;
 	private final ProcessingEngine engine;
 	private final WireSerialization serialization;
+	private final AsyncProcessing processing;
 
 	public DomainServlet(DomainModel model, ProcessingEngine engine, WireSerialization serialization) {
+		this(model, engine, serialization, null);
+	}
+
+	public DomainServlet(DomainModel model, ProcessingEngine engine, WireSerialization serialization, AsyncProcessing processing) {
 		this.model = model;
 		this.engine = engine;
 		this.serialization = serialization;
+		this.processing = processing;
 	}
 
 	DomainServlet(ServiceLocator locator) {
-		this(locator.resolve(DomainModel.class), locator.resolve(ProcessingEngine.class), locator.resolve(WireSerialization.class));
+		this(locator.resolve(DomainModel.class),
+				locator.resolve(ProcessingEngine.class),
+				locator.resolve(WireSerialization.class),
+				locator.tryResolve(AsyncProcessing.class).orElse(null));
+	}
+
+	@Override
+	protected void service(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
+		AsyncProcessing.service(processing, req, res, super::service);
 	}
 
 	@Override
@@ -46,7 +60,7 @@ public class DomainServlet extends HttpServlet {
 					Integer limit = req.getParameter("limit") != null ? Integer.parseInt(req.getParameter("limit")) : null;
 					Integer offset = req.getParameter("offset") != null ? Integer.parseInt(req.getParameter("offset")) : null;
 					SearchDomainObject.Argument arg = new SearchDomainObject.Argument(name.get(), null, null, offset, limit, null);
-					Utility.executeJson(engine, req, res, SearchDomainObject.class, arg);
+					Utility.executeJson(engine, serialization, req, res, SearchDomainObject.class, arg);
 				}
 			}
 		} else if (path.startsWith("/count/")) {
@@ -57,7 +71,7 @@ public class DomainServlet extends HttpServlet {
 					res.sendError(405, "Parsing specification from URL argument not yet supported. Use PUT method instead");
 				} else {
 					CountDomainObject.Argument arg = new CountDomainObject.Argument(name.get(), null, null);
-					Utility.executeJson(engine, req, res, CountDomainObject.class, arg);
+					Utility.executeJson(engine, serialization, req, res, CountDomainObject.class, arg);
 				}
 			}
 		} else if (path.startsWith("/exists/")) {
@@ -68,7 +82,7 @@ public class DomainServlet extends HttpServlet {
 					res.sendError(405, "Parsing specification from URL argument not yet supported. Use PUT method instead");
 				} else {
 					DomainObjectExists.Argument arg = new DomainObjectExists.Argument(name.get(), null, null);
-					Utility.executeJson(engine, req, res, DomainObjectExists.class, arg);
+					Utility.executeJson(engine, serialization, req, res, DomainObjectExists.class, arg);
 				}
 			}
 		} else {
@@ -83,7 +97,7 @@ public class DomainServlet extends HttpServlet {
 			String[] uris = serialization.deserialize(req.getInputStream(), req.getContentType(), String[].class);
 			Utility.findName(model, path, "/find/", res).ifPresent(name -> {
 				GetDomainObject.Argument arg = new GetDomainObject.Argument(name, uris, "match".equals(req.getParameter("order")));
-				Utility.executeJson(engine, req, res, GetDomainObject.class, arg);
+				Utility.executeJson(engine, serialization, req, res, GetDomainObject.class, arg);
 			});
 		} else if (path.startsWith("/search/")) {
 			final Optional<String> name = Utility.findName(model, path, "/search/", res);
@@ -130,7 +144,7 @@ public class DomainServlet extends HttpServlet {
 			}
 			DomainEvent domainEvent = (DomainEvent) serialization.deserialize(manifest.get(), req.getInputStream(), req.getContentType());
 			SubmitEvent.Argument arg = new SubmitEvent.Argument<>(name, domainEvent, "instance".equals(req.getParameter("return")));
-			Utility.executeJson(engine, req, res, SubmitEvent.class, arg);
+			Utility.executeJson(engine, serialization, req, res, SubmitEvent.class, arg);
 		} else {
 			res.sendError(405, "Unknown URL path: " + path);
 		}
@@ -163,6 +177,6 @@ public class DomainServlet extends HttpServlet {
 		} else {
 			arg = buildArgument.apply(null);
 		}
-		Utility.executeJson(engine, req, res, target, arg);
+		Utility.executeJson(engine, serialization, req, res, target, arg);
 	}
 }
@@ -2,8 +2,6 @@ package org.revenj.server.servlet;
 
 import org.revenj.patterns.ServiceLocator;
 import org.revenj.server.ProcessingEngine;
-import org.revenj.server.ProcessingResult;
-import org.revenj.server.ServerCommandDescription;
 
 import javax.servlet.ServletException;
 import javax.servlet.ServletInputStream;
@@ -16,13 +14,24 @@ import java.util.Optional;
 public class RpcServlet extends HttpServlet {
 
 	private final ProcessingEngine engine;
+	private final AsyncProcessing processing;
 
 	public RpcServlet(ProcessingEngine engine) {
+		this(engine, null);
+	}
+
+	public RpcServlet(ProcessingEngine engine, AsyncProcessing processing) {
 		this.engine = engine;
+		this.processing = processing;
 	}
 
 	RpcServlet(ServiceLocator locator) {
-		this(locator.resolve(ProcessingEngine.class));
+		this(locator.resolve(ProcessingEngine.class), locator.tryResolve(AsyncProcessing.class).orElse(null));
+	}
+
+	@Override
+	protected void service(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
+		AsyncProcessing.service(processing, req, res, super::service);
 	}
 
 	private void executeRequest(HttpServletRequest req, HttpServletResponse res, ServletInputStream stream) throws ServletException, IOException {
@@ -38,11 +47,7 @@ public class RpcServlet extends HttpServlet {
 			return;
 		}
 		String argument = Utility.readString(stream, req.getCharacterEncoding());
-		ServerCommandDescription[] scd = new ServerCommandDescription[]{
-				new ServerCommandDescription<>(null, command.get(), argument)
-		};
-		ProcessingResult<String> result = engine.execute(String.class, String.class, scd, Utility.toPrincipal(req));
-		Utility.returnJSON(res, result);
+		Utility.executeString(engine, req, res, command.get(), argument);
 	}
 
 	@Override
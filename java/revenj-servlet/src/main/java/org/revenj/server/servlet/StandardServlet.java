@@ -4,8 +4,6 @@ import org.revenj.patterns.DomainModel;
 import org.revenj.patterns.ServiceLocator;
 import org.revenj.serialization.WireSerialization;
 import org.revenj.server.ProcessingEngine;
-import org.revenj.server.ProcessingResult;
-import org.revenj.server.ServerCommandDescription;
 import org.revenj.server.commands.*;
 
 import javax.servlet.ServletException;
@@ -23,18 +21,36 @@ public class StandardServlet extends HttpServlet {
 	private final DomainModel model;
 	private final ProcessingEngine engine;
 	private final WireSerialization serialization;
+	private final AsyncProcessing processing;
 
 	public StandardServlet(
 			DomainModel model,
 			ProcessingEngine engine,
 			WireSerialization serialization) {
+		this(model, engine, serialization, null);
+	}
+
+	public StandardServlet(
+			DomainModel model,
+			ProcessingEngine engine,
+			WireSerialization serialization,
+			AsyncProcessing processing) {
 		this.model = model;
 		this.engine = engine;
 		this.serialization = serialization;
+		this.processing = processing;
 	}
 
 	StandardServlet(ServiceLocator locator) {
-		this(locator.resolve(DomainModel.class), locator.resolve(ProcessingEngine.class), locator.resolve(WireSerialization.class));
+		this(locator.resolve(DomainModel.class),
+				locator.resolve(ProcessingEngine.class),
+				locator.resolve(WireSerialization.class),
+				locator.tryResolve(AsyncProcessing.class).orElse(null));
+	}
+
+	@Override
+	protected void service(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
+		AsyncProcessing.service(processing, req, res, super::service);
 	}
 
 	@Override
@@ -46,17 +62,13 @@ public class StandardServlet extends HttpServlet {
 				String name = path.substring("/persist/".length(), path.length());
 				ArrayList insert = serialization.deserialize(req.getInputStream(), "application/json", ArrayList.class, manifest.get());
 				PersistAggregateRoot.Argument<Object> arg = new PersistAggregateRoot.Argument<>(name, insert, null, null);
-				Utility.executeJson(engine, req, res, PersistAggregateRoot.class, arg);
+				Utility.executeJson(engine, serialization, req, res, PersistAggregateRoot.class, arg);
 			}
 		} else if (path.startsWith("/execute/")) {
 			String name = path.substring("/execute/".length(), path.length());
 			String argument = Utility.readString(req.getInputStream(), req.getCharacterEncoding());
 			ExecuteService.Argument<String> arg = new ExecuteService.Argument<>(name, argument);
-			ServerCommandDescription[] scd = new ServerCommandDescription[]{
-					new ServerCommandDescription<>(null, ExecuteService.class, serialization.serialize(arg, "application/json").toUtf8())
-			};
-			ProcessingResult<String> result = engine.execute(String.class, String.class, scd, Utility.toPrincipal(req));
-			Utility.returnJSON(res, result);
+			Utility.executeString(engine, req, res, ExecuteService.class, serialization.serialize(arg, "application/json").toUtf8());
 		} else {
 			res.sendError(405, "Unknown URL path: " + path);
 		}
@@ -75,7 +87,7 @@ public class StandardServlet extends HttpServlet {
 					toUpdate.add(new PersistAggregateRoot.Pair<>(null, it));
 				}
 				PersistAggregateRoot.Argument<Object> arg = new PersistAggregateRoot.Argument<>(name, null, toUpdate, null);
-				Utility.executeJson(engine, req, res, PersistAggregateRoot.class, arg);
+				Utility.executeJson(engine, serialization, req, res, PersistAggregateRoot.class, arg);
 			}
 		} else {
 			res.sendError(405, "Unknown URL path: " + path);
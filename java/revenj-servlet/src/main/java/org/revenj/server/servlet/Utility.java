@@ -2,6 +2,7 @@ package org.revenj.server.servlet;
 
 import org.revenj.patterns.DomainModel;
 import org.revenj.security.UserPrincipal;
+import org.revenj.serialization.WireSerialization;
 import org.revenj.server.CommandResult;
 import org.revenj.server.ProcessingEngine;
 import org.revenj.server.ProcessingResult;
@@ -21,61 +22,134 @@ abstract class Utility {
 
 	static void executeJson(
 			ProcessingEngine engine,
+			WireSerialization serialization,
 			HttpServletRequest request,
-			HttpServletResponse ressponse,
+			HttpServletResponse response,
 			Class<?> command,
 			Object argument) {
 		ServerCommandDescription[] scd = new ServerCommandDescription[]{
 				new ServerCommandDescription<>(null, command, argument)
 		};
-		ProcessingResult<String> result = engine.execute(Object.class, String.class, scd, toPrincipal(request));
-		returnJSON(ressponse, result);
+		execute(engine, Object.class, scd, request, response, it -> writeJSON(serialization, response, it));
 	}
 
-	static String readString(InputStream stream, String encoding) throws IOException {
-		if (stream == null) {
-			return null;
+	static void executeString(
+			ProcessingEngine engine,
+			HttpServletRequest request,
+			HttpServletResponse response,
+			Class<?> command,
+			String argument) {
+		ServerCommandDescription[] scd = new ServerCommandDescription[]{
+				new ServerCommandDescription<>(null, command, argument)
+		};
+		execute(engine, String.class, scd, request, response, it -> writeString(response, it));
+	}
+
+	private static <T> void execute(
+			ProcessingEngine engine,
+			Class<T> format,
+			ServerCommandDescription[] scd,
+			HttpServletRequest request,
+			HttpServletResponse response,
+			ProcessingEngine.ResultWriter<T> writer) {
+		//engine decides when result is written; read-only results are written while the command scope is still open
+		ProcessingResult<T> result = engine.execute(format, format, scd, toPrincipal(request), writer);
+		if (result.status == 200) {
+			return;
 		}
-		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		final byte[] buffer = new byte[1024];
-		int len;
-		while ((len = stream.read(buffer)) != -1) {
-			baos.write(buffer, 0, len);
+		if (response.isCommitted()) {
+			//streamed result failed after part of it was sent.
+			//failing the request makes the container abort the connection,
+			//so the client doesn't take the truncated body as a complete response
+			throw new IllegalStateException("Response failed after it was committed: " + result.message);
 		}
-		if (baos.size() == 0) {
-			return null;
+		try {
+			//discard partially written result
+			response.resetBuffer();
+			writer.write(result);
+		} catch (IOException e) {
+			sendError(response, e);
 		}
-		return new String(baos.toByteArray(), encoding != null && encoding.length() > 0 ? encoding : "UTF-8");
 	}
 
-	static void returnJSON(HttpServletResponse response, ProcessingResult<String> result) {
+	private static void sendError(HttpServletResponse response, IOException error) {
+		if (response.isCommitted()) {
+			return;
+		}
+		try {
+			response.sendError(500, error.getMessage());
+		} catch (IOException ignore) {
+			//connection is gone, so there is no one to report to
+		}
+	}
+
+	private static void writeJSON(
+			WireSerialization serialization,
+			HttpServletResponse response,
+			ProcessingResult<Object> result) throws IOException {
 		if (result.executedCommandResults.length == 1) {
-			CommandResult<String> command = result.executedCommandResults[0].result;
+			CommandResult<Object> command = result.executedCommandResults[0].result;
 			response.setStatus(command.status);
 			if (command.data != null) {
 				response.setContentType("application/json");
 				try {
-					response.getOutputStream().write(command.data.getBytes(UTF8));
-				} catch (IOException e) {
-					e.printStackTrace();
+					serialization.serialize(command.data, response.getOutputStream(), "application/json");
+				} finally {
+					if (command.data instanceof AutoCloseable) {
+						close((AutoCloseable) command.data);
+					}
 				}
 			} else if (result.message != null) {
-				try {
-					response.getOutputStream().write(result.message.getBytes(UTF8));
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
+				response.getOutputStream().write(result.message.getBytes(UTF8));
 			}
 		} else if (result.message != null) {
 			response.setStatus(result.status);
-			try {
+			response.getOutputStream().write(result.message.getBytes(UTF8));
+		}
+	}
+
+	private static void close(AutoCloseable closeable) throws IOException {
+		try {
+			closeable.close();
+		} catch (IOException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static void writeString(HttpServletResponse response, ProcessingResult<String> result) throws IOException {
+		if (result.executedCommandResults.length == 1) {
+			CommandResult<String> command = result.executedCommandResults[0].result;
+			response.setStatus(command.status);
+			if (command.data != null) {
+				response.setContentType("application/json");
+				response.getOutputStream().write(command.data.getBytes(UTF8));
+			} else if (result.message != null) {
 				response.getOutputStream().write(result.message.getBytes(UTF8));
-			} catch (IOException e) {
-				e.printStackTrace();
 			}
+		} else if (result.message != null) {
+			response.setStatus(result.status);
+			response.getOutputStream().write(result.message.getBytes(UTF8));
 		}
 	}
 
+	static String readString(InputStream stream, String encoding) throws IOException {
+		if (stream == null) {
+			return null;
+		}
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[1024];
+		int len;
+		while ((len = stream.read(buffer)) != -1) {
+			baos.write(buffer, 0, len);
+		}
+		if (baos.size() == 0) {
+			return null;
+		}
+		return new String(baos.toByteArray(), encoding != null && encoding.length() > 0 ? encoding : "UTF-8");
+	}
+
 	public static Principal toPrincipal(HttpServletRequest req) {
 		return req.getUserPrincipal() != null && !(req.getUserPrincipal() instanceof UserPrincipal)
 				? new UserPrincipal(req.getUserPrincipal().getName(), req::isUserInRole)
@@ -0,0 +1,72 @@
+package org.revenj.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.revenj.patterns.ServiceLocator;
+import org.revenj.serialization.Serialization;
+
+import java.security.Principal;
+
+public class ProcessingEngineTest {
+
+	static class Read implements ServerCommand {
+		@Override
+		public <TInput, TOutput> CommandResult<TOutput> execute(
+				ServiceLocator locator,
+				Serialization<TInput> input,
+				Serialization<TOutput> output,
+				TInput data,
+				Principal principal) {
+			return null;
+		}
+	}
+
+	static class Other {
+		static class Read implements ServerCommand {
+			@Override
+			public <TInput, TOutput> CommandResult<TOutput> execute(
+					ServiceLocator locator,
+					Serialization<TInput> input,
+					Serialization<TOutput> output,
+					TInput data,
+					Principal principal) {
+				return null;
+			}
+		}
+	}
+
+	static class Count implements ServerCommand {
+		@Override
+		public <TInput, TOutput> CommandResult<TOutput> execute(
+				ServiceLocator locator,
+				Serialization<TInput> input,
+				Serialization<TOutput> output,
+				TInput data,
+				Principal principal) {
+			return null;
+		}
+	}
+
+	private static ProcessingEngine engine(ServerCommand... commands) {
+		return new ProcessingEngine(null, null, null, null, commands);
+	}
+
+	@Test
+	public void commandsAreFoundBySimpleAndFullName() {
+		ProcessingEngine engine = engine(new Read(), new Count());
+		Assert.assertEquals(Read.class, engine.findCommand("Read").get());
+		Assert.assertEquals(Read.class, engine.findCommand(Read.class.getName()).get());
+		Assert.assertEquals(Count.class, engine.findCommand("Count").get());
+		Assert.assertFalse(engine.findCommand("Missing").isPresent());
+		Assert.assertFalse(engine.findCommand("read").isPresent());
+	}
+
+	@Test
+	public void fullNameIsNotShadowedBySimpleName() {
+		ProcessingEngine engine = engine(new Read(), new Other.Read());
+		Assert.assertEquals(Read.class, engine.findCommand(Read.class.getName()).get());
+		Assert.assertEquals(Other.Read.class, engine.findCommand(Other.Read.class.getName()).get());
+		Class<?> bySimpleName = engine.findCommand("Read").get();
+		Assert.assertTrue(bySimpleName == Read.class || bySimpleName == Other.Read.class);
+	}
+}
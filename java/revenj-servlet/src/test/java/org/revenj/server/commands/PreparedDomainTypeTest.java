@@ -0,0 +1,84 @@
+package org.revenj.server.commands;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.revenj.patterns.DomainModel;
+import org.revenj.patterns.SearchableRepository;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PreparedDomainTypeTest {
+
+	static class Item {
+		static class ByName {
+		}
+	}
+
+	static class Global {
+	}
+
+	private static class CountingModel implements DomainModel {
+		final Map<String, Class<?>> types = new HashMap<>();
+		final AtomicInteger lookups = new AtomicInteger();
+
+		CountingModel() {
+			types.put("test.Item", Item.class);
+			types.put("test.Item$ByName", Item.ByName.class);
+			types.put("test.Global", Global.class);
+		}
+
+		@Override
+		public Optional<Class<?>> find(String name) {
+			lookups.incrementAndGet();
+			return Optional.ofNullable(types.get(name));
+		}
+	}
+
+	@Test
+	public void foundTypesAreCached() throws Exception {
+		CountingModel model = new CountingModel();
+		PreparedDomainType.Cache cache = new PreparedDomainType.Cache(model, SearchableRepository.class);
+		PreparedDomainType item = cache.find("test.Item");
+		Assert.assertEquals(Item.class, item.manifest);
+		Assert.assertSame(item, cache.find("test.Item"));
+		Assert.assertEquals(1, model.lookups.get());
+		Type[] requested = new Type[1];
+		item.resolveRepository(type -> requested[0] = type);
+		ParameterizedType repository = (ParameterizedType) requested[0];
+		Assert.assertEquals(SearchableRepository.class, repository.getRawType());
+		Assert.assertArrayEquals(new Type[]{Item.class}, repository.getActualTypeArguments());
+	}
+
+	@Test
+	public void missingTypesAreNotCached() {
+		CountingModel model = new CountingModel();
+		PreparedDomainType.Cache cache = new PreparedDomainType.Cache(model, SearchableRepository.class);
+		Assert.assertNull(cache.find("test.Missing"));
+		model.types.put("test.Missing", Global.class);
+		Assert.assertEquals(Global.class, cache.find("test.Missing").manifest);
+		Assert.assertEquals(2, model.lookups.get());
+	}
+
+	@Test
+	public void specificationLookupIsCached() {
+		CountingModel model = new CountingModel();
+		PreparedDomainType item = new PreparedDomainType.Cache(model, SearchableRepository.class).find("test.Item");
+		model.lookups.set(0);
+		Assert.assertEquals(Item.ByName.class, item.findSpecification("ByName").get());
+		Assert.assertEquals(Item.ByName.class, item.findSpecification("ByName").get());
+		Assert.assertEquals(1, model.lookups.get());
+		//nested specification is tried first and then the full name
+		Assert.assertEquals(Global.class, item.findSpecification("test.Global").get());
+		Assert.assertEquals(3, model.lookups.get());
+		Assert.assertEquals(Global.class, item.findSpecification("test.Global").get());
+		Assert.assertEquals(3, model.lookups.get());
+		Assert.assertFalse(item.findSpecification("Unknown").isPresent());
+		Assert.assertFalse(item.findSpecification("Unknown").isPresent());
+		Assert.assertEquals(7, model.lookups.get());
+	}
+}
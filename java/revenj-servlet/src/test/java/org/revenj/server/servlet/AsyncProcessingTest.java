@@ -0,0 +1,330 @@
+package org.revenj.server.servlet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AsyncProcessingTest {
+
+	private static final class Output extends ServletOutputStream {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final CountDownLatch listenerSet = new CountDownLatch(1);
+		volatile WriteListener listener;
+
+		@Override
+		public void write(int b) {
+			bytes.write(b);
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			listener = writeListener;
+			listenerSet.countDown();
+		}
+
+		String text() {
+			return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Records what was sent to the container for a single request.
+	 */
+	private static final class Exchange {
+		final Output output = new Output();
+		final Map<String, String> headers = new ConcurrentHashMap<>();
+		final AtomicInteger completions = new AtomicInteger();
+		final CountDownLatch completed = new CountDownLatch(1);
+		final CountDownLatch dispatched = new CountDownLatch(1);
+		final Map<String, Object> attributes = new ConcurrentHashMap<>();
+		volatile Long containerTimeout;
+		volatile int status = 200;
+		volatile String contentType;
+		volatile AsyncListener listener;
+		final AsyncContext context;
+		final HttpServletRequest request;
+		final HttpServletResponse response;
+
+		Exchange(String method) {
+			ClassLoader loader = getClass().getClassLoader();
+			context = (AsyncContext) Proxy.newProxyInstance(loader, new Class<?>[]{AsyncContext.class}, (proxy, m, args) -> {
+				switch (m.getName()) {
+					case "addListener":
+						listener = (AsyncListener) args[0];
+						break;
+					case "complete":
+						completions.incrementAndGet();
+						completed.countDown();
+						break;
+					case "dispatch":
+						dispatched.countDown();
+						break;
+					case "setTimeout":
+						containerTimeout = (Long) args[0];
+						break;
+				}
+				return null;
+			});
+			response = (HttpServletResponse) Proxy.newProxyInstance(loader, new Class<?>[]{HttpServletResponse.class}, (proxy, m, args) -> {
+				switch (m.getName()) {
+					case "setStatus":
+					case "sendError":
+						status = (Integer) args[0];
+						return null;
+					case "setHeader":
+					case "addHeader":
+						headers.put((String) args[0], (String) args[1]);
+						return null;
+					case "setContentType":
+						contentType = (String) args[0];
+						return null;
+					case "getOutputStream":
+						return output;
+					case "isCommitted":
+						return false;
+				}
+				return null;
+			});
+			request = (HttpServletRequest) Proxy.newProxyInstance(loader, new Class<?>[]{HttpServletRequest.class}, (proxy, m, args) -> {
+				switch (m.getName()) {
+					case "isAsyncSupported":
+						return true;
+					case "startAsync":
+						return context;
+					case "getMethod":
+						return method;
+					case "getAttribute":
+						return attributes.get(args[0]);
+					case "setAttribute":
+						attributes.put((String) args[0], args[1]);
+						return null;
+					case "removeAttribute":
+						attributes.remove(args[0]);
+						return null;
+				}
+				return null;
+			});
+		}
+	}
+
+	private static void write(HttpServletResponse response, String value) throws IOException {
+		response.getOutputStream().write(value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void fullQueueIsRejectedWithRetryAfter() throws Exception {
+		AsyncProcessing processing = new AsyncProcessing(1, 1, 30000, 5);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AsyncProcessing.Handler blocking = (req, res) -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+		};
+		Exchange running = new Exchange("GET");
+		AsyncProcessing.service(processing, running.request, running.response, blocking);
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		Exchange queued = new Exchange("GET");
+		AsyncProcessing.service(processing, queued.request, queued.response, blocking);
+		Exchange rejected = new Exchange("POST");
+		AsyncProcessing.service(processing, rejected.request, rejected.response, blocking);
+		Assert.assertEquals(503, rejected.status);
+		Assert.assertEquals("5", rejected.headers.get("Retry-After"));
+		Assert.assertEquals(1, rejected.completions.get());
+		Assert.assertEquals(1, processing.getRejectedCount());
+		release.countDown();
+		Assert.assertTrue(queued.output.listenerSet.await(5, TimeUnit.SECONDS));
+		processing.close();
+	}
+
+	@Test
+	public void timedOutChangeIsInterruptedWithoutRetryHint() throws Exception {
+		AsyncProcessing processing = new AsyncProcessing(1, 1, 100, 5);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch interrupted = new CountDownLatch(1);
+		Exchange post = new Exchange("POST");
+		AsyncProcessing.service(processing, post.request, post.response, (req, res) -> {
+			started.countDown();
+			try {
+				Thread.sleep(60000);
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+			}
+			write(res, "too late");
+		});
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(Long.valueOf(0), post.containerTimeout);
+		Assert.assertEquals(504, post.status);
+		Assert.assertNull(post.headers.get("Retry-After"));
+		Assert.assertEquals(1, processing.getTimedOutCount());
+		//executor has a single thread, so next request runs only after the timed out one is done
+		Exchange next = new Exchange("GET");
+		AsyncProcessing.service(processing, next.request, next.response, (req, res) -> write(res, "ok"));
+		Assert.assertTrue(next.output.listenerSet.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(1, post.completions.get());
+		Assert.assertNull(post.output.listener);
+		Assert.assertEquals("", post.output.text());
+		processing.close();
+	}
+
+	@Test
+	public void timedOutReadCanBeRetried() throws Exception {
+		AsyncProcessing processing = new AsyncProcessing(1, 1, 100, 5);
+		CountDownLatch started = new CountDownLatch(1);
+		Exchange get = new Exchange("GET");
+		AsyncProcessing.service(processing, get.request, get.response, (req, res) -> {
+			started.countDown();
+			try {
+				Thread.sleep(60000);
+			} catch (InterruptedException ignore) {
+			}
+		});
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(get.completed.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(503, get.status);
+		Assert.assertEquals("5", get.headers.get("Retry-After"));
+		Assert.assertEquals(1, get.completions.get());
+		processing.close();
+	}
+
+	@Test
+	public void bufferedResultIsSentThroughWriteListener() throws Exception {
+		AsyncProcessing processing = new AsyncProcessing(1, 1, 200, 1);
+		Exchange get = new Exchange("GET");
+		AsyncProcessing.service(processing, get.request, get.response, (req, res) -> {
+			res.setContentType("text/plain");
+			res.setStatus(201);
+			write(res, "hello");
+		});
+		Assert.assertTrue(get.output.listenerSet.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals("", get.output.text());
+		Assert.assertEquals(0, get.completions.get());
+		get.output.listener.onWritePossible();
+		Assert.assertEquals("hello", get.output.text());
+		Assert.assertEquals(201, get.status);
+		Assert.assertEquals("text/plain", get.contentType);
+		Assert.assertEquals(1, get.completions.get());
+		//timeout after the result was sent doesn't change anything
+		Thread.sleep(400);
+		Assert.assertEquals(201, get.status);
+		Assert.assertEquals(1, get.completions.get());
+		Assert.assertEquals(0, processing.getTimedOutCount());
+		processing.close();
+	}
+
+	@Test
+	public void largeResultIsWrittenThrough() throws Exception {
+		AsyncProcessing processing = new AsyncProcessing(1, 1, 30000, 1, 16);
+		Exchange get = new Exchange("GET");
+		AsyncProcessing.service(processing, get.request, get.response, (req, res) -> {
+			res.setContentType("text/plain");
+			for (int i = 0; i < 10; i++) {
+				write(res, "0123456789");
+			}
+		});
+		Assert.assertTrue(get.completed.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(100, get.output.text().length());
+		Assert.assertNull(get.output.listener);
+		Assert.assertEquals(200, get.status);
+		Assert.assertEquals("text/plain", get.contentType);
+		Assert.assertEquals(1, get.completions.get());
+		processing.close();
+	}
+
+	@Test
+	public void writeThroughIsNotCutOffByTimeout() throws Exception {
+		AsyncProcessing processing = new AsyncProcessing(1, 1, 100, 1, 16);
+		Exchange get = new Exchange("GET");
+		AsyncProcessing.service(processing, get.request, get.response, (req, res) -> {
+			write(res, "01234567890123456789");
+			try {
+				Thread.sleep(400);
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			write(res, "end");
+		});
+		Assert.assertTrue(get.completed.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals("01234567890123456789end", get.output.text());
+		Assert.assertEquals(200, get.status);
+		Assert.assertEquals(1, get.completions.get());
+		Assert.assertEquals(0, processing.getTimedOutCount());
+		Assert.assertEquals(Long.valueOf(0), get.containerTimeout);
+		processing.close();
+	}
+
+	@Test
+	public void partialResultIsNotSentOnFailure() throws Exception {
+		AsyncProcessing processing = new AsyncProcessing(1, 1, 30000, 1);
+		Exchange failed = new Exchange("GET");
+		AsyncProcessing.service(processing, failed.request, failed.response, (req, res) -> {
+			write(res, "[1,2,");
+			Assert.assertFalse(res.isCommitted());
+			throw new IOException("cursor failed");
+		});
+		Assert.assertTrue(failed.completed.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(500, failed.status);
+		Assert.assertEquals("", failed.output.text());
+		Assert.assertNull(failed.output.listener);
+		Exchange reset = new Exchange("GET");
+		AsyncProcessing.service(processing, reset.request, reset.response, (req, res) -> {
+			res.setContentType("text/plain");
+			write(res, "partial");
+			res.reset();
+			res.setStatus(400);
+			write(res, "error");
+		});
+		Assert.assertTrue(reset.output.listenerSet.await(5, TimeUnit.SECONDS));
+		reset.output.listener.onWritePossible();
+		Assert.assertEquals("error", reset.output.text());
+		Assert.assertEquals(400, reset.status);
+		Assert.assertNull(reset.contentType);
+		processing.close();
+	}
+
+	@Test
+	public void failureAfterWriteThroughAbortsRequest() throws Exception {
+		AsyncProcessing processing = new AsyncProcessing(1, 1, 30000, 1, 16);
+		Exchange get = new Exchange("GET");
+		AsyncProcessing.Handler handler = (req, res) -> {
+			write(res, "01234567890123456789");
+			throw new IOException("cursor failed");
+		};
+		AsyncProcessing.service(processing, get.request, get.response, handler);
+		Assert.assertTrue(get.dispatched.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(0, get.completions.get());
+		try {
+			AsyncProcessing.service(processing, get.request, get.response, handler);
+			Assert.fail("Expecting failure on dispatch");
+		} catch (ServletException e) {
+			Assert.assertEquals("cursor failed", e.getCause().getMessage());
+		}
+		Assert.assertTrue(get.attributes.isEmpty());
+		processing.close();
+	}
+}
@@ -0,0 +1,224 @@
+package org.revenj.server.servlet;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.revenj.extensibility.Container;
+import org.revenj.patterns.Bytes;
+import org.revenj.patterns.ServiceLocator;
+import org.revenj.security.PermissionManager;
+import org.revenj.serialization.Serialization;
+import org.revenj.serialization.WireSerialization;
+import org.revenj.server.CommandResult;
+import org.revenj.server.ProcessingEngine;
+import org.revenj.server.ServerCommand;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class UtilityTest {
+
+	private static final AtomicInteger closed = new AtomicInteger();
+
+	/**
+	 * Simulates a database cursor which fails after a few rows.
+	 */
+	static class FailingRows implements Iterator<Integer>, AutoCloseable {
+		private int current;
+
+		@Override
+		public boolean hasNext() {
+			return true;
+		}
+
+		@Override
+		public Integer next() {
+			if (current == 3) {
+				throw new IllegalStateException("cursor failed");
+			}
+			if (current > 3) {
+				throw new NoSuchElementException();
+			}
+			return ++current;
+		}
+
+		@Override
+		public void close() {
+			closed.incrementAndGet();
+		}
+	}
+
+	static class StreamRows implements ServerCommand {
+		@Override
+		public boolean isReadOnly() {
+			return true;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <TInput, TOutput> CommandResult<TOutput> execute(
+				ServiceLocator locator,
+				Serialization<TInput> input,
+				Serialization<TOutput> output,
+				TInput data,
+				Principal principal) {
+			return new CommandResult<>((TOutput) new FailingRows(), "Found", 200);
+		}
+	}
+
+	private static final class Json implements WireSerialization {
+		@Override
+		public Bytes serialize(Object value, String contentType) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void serialize(Object value, OutputStream stream, String contentType) throws IOException {
+			stream.write('[');
+			Iterator<?> iterator = (Iterator<?>) value;
+			while (iterator.hasNext()) {
+				stream.write((iterator.next() + ",").getBytes(StandardCharsets.UTF_8));
+			}
+			stream.write(']');
+		}
+
+		@Override
+		public Object deserialize(Type type, Bytes data, String accept) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Object deserialize(Type type, InputStream stream, String accept) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <TFormat> Optional<Serialization<TFormat>> find(Class<TFormat> format) {
+			return Optional.of((Serialization<TFormat>) new Serialization<Object>() {
+				@Override
+				public Object serialize(Object value) {
+					return value;
+				}
+
+				@Override
+				public Object deserialize(Type type, Object data) {
+					return data;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Keeps the body in a container buffer until it's larger than the commit size.
+	 */
+	private static final class Response {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		final int commitSize;
+		int status = 200;
+		String error;
+		final HttpServletResponse response;
+
+		Response(int commitSize) {
+			this.commitSize = commitSize;
+			ServletOutputStream output = new ServletOutputStream() {
+				@Override
+				public void write(int b) {
+					buffer.write(b);
+				}
+
+				@Override
+				public boolean isReady() {
+					return true;
+				}
+
+				@Override
+				public void setWriteListener(WriteListener writeListener) {
+				}
+			};
+			response = (HttpServletResponse) Proxy.newProxyInstance(
+					getClass().getClassLoader(),
+					new Class<?>[]{HttpServletResponse.class},
+					(proxy, m, args) -> {
+						switch (m.getName()) {
+							case "setStatus":
+								status = (Integer) args[0];
+								return null;
+							case "sendError":
+								status = (Integer) args[0];
+								error = args.length > 1 ? (String) args[1] : null;
+								return null;
+							case "getOutputStream":
+								return output;
+							case "isCommitted":
+								return buffer.size() > commitSize;
+							case "resetBuffer":
+								buffer.reset();
+								return null;
+						}
+						return null;
+					});
+		}
+
+		String body() {
+			return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static ProcessingEngine engine() {
+		Container container = (Container) Proxy.newProxyInstance(
+				UtilityTest.class.getClassLoader(),
+				new Class<?>[]{Container.class},
+				(proxy, m, args) -> "createScope".equals(m.getName()) ? proxy : null);
+		PermissionManager permissions = (PermissionManager) Proxy.newProxyInstance(
+				UtilityTest.class.getClassLoader(),
+				new Class<?>[]{PermissionManager.class},
+				(proxy, m, args) -> "canAccess".equals(m.getName()) ? true : null);
+		return new ProcessingEngine(container, null, new Json(), permissions, new ServerCommand[]{new StreamRows()});
+	}
+
+	private static HttpServletRequest request() {
+		return (HttpServletRequest) Proxy.newProxyInstance(
+				UtilityTest.class.getClassLoader(),
+				new Class<?>[]{HttpServletRequest.class},
+				(proxy, m, args) -> null);
+	}
+
+	@Test
+	public void partialResultIsDiscardedOnFailure() {
+		closed.set(0);
+		Response response = new Response(1000);
+		Utility.executeJson(engine(), new Json(), request(), response.response, StreamRows.class, null);
+		Assert.assertEquals(500, response.status);
+		Assert.assertFalse(response.body().contains("[1,2,3,"));
+		Assert.assertEquals("cursor failed", response.body());
+		Assert.assertEquals(1, closed.get());
+	}
+
+	@Test
+	public void committedResultFailsRequest() {
+		closed.set(0);
+		Response response = new Response(4);
+		try {
+			Utility.executeJson(engine(), new Json(), request(), response.response, StreamRows.class, null);
+			Assert.fail("Expecting failure after commit");
+		} catch (IllegalStateException e) {
+			Assert.assertTrue(e.getMessage().contains("cursor failed"));
+		}
+		Assert.assertEquals("[1,2,3,", response.body());
+		Assert.assertEquals(1, closed.get());
+	}
+}
@@ -15,11 +15,12 @@ import java.sql.SQLException;
 final class JinqQueryProvider implements QueryProvider {
     private final MetamodelUtil metamodel;
     private final javax.sql.DataSource dataSource;
-    private final RevenjQueryComposerCache cachedQueries = new RevenjQueryComposerCache();
+    private final RevenjQueryComposerCache cachedQueries;
 
-    public JinqQueryProvider(MetamodelUtil metamodel, javax.sql.DataSource dataSource) {
+    public JinqQueryProvider(MetamodelUtil metamodel, javax.sql.DataSource dataSource, RevenjQueryComposerCache cachedQueries) {
         this.metamodel = metamodel;
         this.dataSource = dataSource;
+        this.cachedQueries = cachedQueries;
     }
 
     public <T extends DataSource> Query<T> query(Connection connection, ServiceLocator locator, Class<T> manifest) {
@@ -7,6 +7,7 @@ import org.revenj.patterns.DataContext;
 import org.revenj.patterns.ServiceLocator;
 import org.revenj.patterns.UnitOfWork;
 import org.revenj.postgres.QueryProvider;
+import org.revenj.postgres.jinq.RevenjQueryComposerCache;
 import org.revenj.postgres.jinq.transform.MetamodelUtil;
 import org.revenj.security.PermissionManager;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -43,7 +44,9 @@ public class RevenjStartup {
 						Optional.of(context.getClassLoader()));
 		container.registerInstance(DataSource.class, dataSource, false);
 		MetamodelUtil metamodel = container.resolve(MetamodelUtil.class);
-		container.registerInstance(QueryProvider.class, new JinqQueryProvider(metamodel, dataSource), false);
+		//reuse registered cache, so its statistics and size setting apply to Spring queries too
+		RevenjQueryComposerCache cachedQueries = container.resolve(RevenjQueryComposerCache.class);
+		container.registerInstance(QueryProvider.class, new JinqQueryProvider(metamodel, dataSource, cachedQueries), false);
 		return container;
 	}
 
@@ -1,47 +1,214 @@
 package org.revenj;
 
-import java.io.Closeable;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.s3.AmazonS3Client;
-import com.amazonaws.services.s3.model.DeleteObjectRequest;
-import com.amazonaws.services.s3.model.GetObjectRequest;
-import com.amazonaws.services.s3.model.ObjectMetadata;
-import com.amazonaws.services.s3.model.PutObjectRequest;
-import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.S3ClientOptions;
+import com.amazonaws.services.s3.model.*;
 import org.revenj.storage.S3Repository;
+import org.revenj.storage.S3Statistics;
+
+class AmazonS3Repository implements S3Repository, S3Statistics, Closeable {
+	//S3 doesn't allow smaller parts, except the last one
+	private static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+	//buffer for content of unknown length starts small and grows up to the part size
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
 
-class AmazonS3Repository implements S3Repository, Closeable {
 	private final String bucketName;
 	private final ExecutorService executorService;
+	private final ExecutorService partExecutor;
 	private final AmazonS3Client s3Client;
 	private final boolean disposeExecutor;
+	private final int queueSize;
+	private final int partSize;
+	private final long multipartThreshold;
+	private final int partThreads;
+	//part buffers are shared by all uploads, so memory doesn't grow with the number of concurrent transfers
+	private final Semaphore partBuffers;
+	private final long partBufferTimeout;
+	//downloads have their own budget, so slowly consumed downloads can't starve uploads
+	private final Semaphore prefetchBuffers;
+	private final OperationQueue uploads;
+	private final OperationQueue downloads;
+	private final OperationQueue deletes;
+
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final LongAdder uploadCount = new LongAdder();
+	private final LongAdder downloadCount = new LongAdder();
+	private final LongAdder deleteCount = new LongAdder();
+	private final LongAdder rejectedCount = new LongAdder();
+	private final LongAdder uploadedBytes = new LongAdder();
+	private final LongAdder downloadedBytes = new LongAdder();
 
 	public AmazonS3Repository(Properties properties, Optional<ExecutorService> executorService) {
+		this(properties, executorService, createClient(properties));
+	}
+
+	AmazonS3Repository(Properties properties, Optional<ExecutorService> executorService, AmazonS3Client s3Client) {
 		bucketName = properties.getProperty("revenj.s3-bucket-name");
+		int threads = parse(properties, "revenj.s3-threads", 16);
+		queueSize = parse(properties, "revenj.s3-queue-size", 1000);
+		partSize = Math.max(MIN_PART_SIZE, parse(properties, "revenj.s3-part-size", 8 * 1024 * 1024));
+		multipartThreshold = Math.max(partSize, parse(properties, "revenj.s3-multipart-threshold", 16 * 1024 * 1024));
+		partThreads = parse(properties, "revenj.s3-part-threads", 4);
+		partBuffers = new Semaphore(parse(properties, "revenj.s3-part-buffers", 2 * partThreads));
+		partBufferTimeout = parse(properties, "revenj.s3-part-buffer-timeout", 60);
+		prefetchBuffers = new Semaphore(parse(properties, "revenj.s3-prefetch-buffers", 2 * partThreads));
+		uploads = new OperationQueue(parse(properties, "revenj.s3-max-uploads", threads));
+		downloads = new OperationQueue(parse(properties, "revenj.s3-max-downloads", threads));
+		deletes = new OperationQueue(parse(properties, "revenj.s3-max-deletes", threads));
+		disposeExecutor = !executorService.isPresent();
+		this.executorService = executorService.orElseGet(() -> Executors.newFixedThreadPool(threads, daemon("revenj-s3")));
+		this.partExecutor = Executors.newFixedThreadPool(partThreads, daemon("revenj-s3-part"));
+		this.s3Client = s3Client;
+	}
+
+	private static AmazonS3Client createClient(Properties properties) {
 		String s3AccessKey = properties.getProperty("revenj.s3-user");
 		String s3SecretKey = properties.getProperty("revenj.s3-secret");
 		String s3Region = properties.getProperty("revenj.s3-region");
-		disposeExecutor = !executorService.isPresent();
-		this.executorService = executorService.orElse(Executors.newSingleThreadExecutor());
+		String s3Endpoint = properties.getProperty("revenj.s3-endpoint");
 		if (s3AccessKey == null || s3AccessKey.isEmpty()) {
 			throw new RuntimeException("S3 configuration is missing. Please add revenj.s3-user");
 		}
 		if (s3SecretKey == null || s3SecretKey.isEmpty()) {
 			throw new RuntimeException("S3 configuration is missing. Please add revenj.s3-secret");
 		}
-		s3Client = new AmazonS3Client(new BasicAWSCredentials(s3AccessKey, s3SecretKey));
+		AmazonS3Client s3Client = new AmazonS3Client(new BasicAWSCredentials(s3AccessKey, s3SecretKey));
 		if (s3Region != null) {
 			s3Client.setRegion(Region.getRegion(Regions.fromName(s3Region)));
 		}
+		if (s3Endpoint != null && !s3Endpoint.isEmpty()) {
+			//local S3 compatible servers usually don't support bucket subdomains
+			s3Client.setEndpoint(s3Endpoint);
+			s3Client.setS3ClientOptions(new S3ClientOptions().withPathStyleAccess(true));
+		}
+		return s3Client;
+	}
+
+	private static int parse(Properties properties, String name, int defaultValue) {
+		String value = properties.getProperty(name);
+		if (value == null || value.isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			int result = Integer.parseInt(value);
+			if (result < 1) {
+				throw new RuntimeException("Invalid " + name + " settings found: " + value + ". Expecting positive number");
+			}
+			return result;
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("Invalid " + name + " settings found: " + value, e);
+		}
+	}
+
+	private static ThreadFactory daemon(String name) {
+		AtomicInteger counter = new AtomicInteger();
+		return r -> {
+			Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Limits number of concurrent operations of a single kind on the shared executor.
+	 * Operations above the limit wait in the queue, without taking up an executor thread.
+	 */
+	private final class OperationQueue {
+		private final int limit;
+		private final ConcurrentLinkedQueue<Operation<?>> pending = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger running = new AtomicInteger();
+
+		OperationQueue(int limit) {
+			this.limit = limit;
+		}
+
+		<T> Future<T> submit(Callable<T> operation) {
+			if (queued.incrementAndGet() > queueSize) {
+				queued.decrementAndGet();
+				rejectedCount.increment();
+				CompletableFuture<T> rejected = new CompletableFuture<>();
+				rejected.completeExceptionally(new RejectedExecutionException("Too many pending S3 operations. Queue size: " + queueSize));
+				return rejected;
+			}
+			Operation<T> task = new Operation<>(operation);
+			pending.add(task);
+			schedule();
+			return task;
+		}
+
+		private void schedule() {
+			while (!pending.isEmpty()) {
+				int current = running.get();
+				if (current >= limit) {
+					return;
+				}
+				if (!running.compareAndSet(current, current + 1)) {
+					continue;
+				}
+				Operation<?> task = pending.poll();
+				if (task == null) {
+					running.decrementAndGet();
+					continue;
+				}
+				queued.decrementAndGet();
+				try {
+					executorService.execute(() -> {
+						inFlight.incrementAndGet();
+						try {
+							task.run();
+						} finally {
+							inFlight.decrementAndGet();
+							running.decrementAndGet();
+							schedule();
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					running.decrementAndGet();
+					task.cancel(false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Completes as soon as the operation is done, so callers can attach completion actions.
+	 * Operation cancelled while waiting in the queue is not started.
+	 */
+	private static final class Operation<T> extends CompletableFuture<T> implements Runnable {
+		private final Callable<T> operation;
+
+		Operation(Callable<T> operation) {
+			this.operation = operation;
+		}
+
+		@Override
+		public void run() {
+			if (isDone()) {
+				return;
+			}
+			try {
+				complete(operation.call());
+			} catch (Throwable e) {
+				completeExceptionally(e);
+			}
+		}
 	}
 
 	private String getBucketName(final String name) throws IOException {
@@ -55,12 +222,213 @@ class AmazonS3Repository implements S3Repository, Closeable {
 
 	@Override
 	public Future<InputStream> get(final String bucket, final String key) {
-		return executorService.submit(() -> {
-			S3Object s3 = s3Client.getObject(new GetObjectRequest(bucket, key));
-			return s3.getObjectContent();
+		return downloads.submit(() -> {
+			String bn = getBucketName(bucket);
+			GetObjectRequest request = new GetObjectRequest(bn, key);
+			request.setRange(0, partSize - 1);
+			S3Object s3;
+			try {
+				s3 = s3Client.getObject(request);
+			} catch (AmazonS3Exception e) {
+				//range is not satisfiable for empty objects
+				if (e.getStatusCode() != 416) {
+					throw e;
+				}
+				s3 = s3Client.getObject(new GetObjectRequest(bn, key));
+			}
+			downloadCount.increment();
+			ObjectMetadata metadata = s3.getObjectMetadata();
+			InputStream content = new CountingInputStream(s3.getObjectContent());
+			long total = totalLength(metadata);
+			if (total <= partSize) {
+				return content;
+			}
+			return new RangeInputStream(bn, key, metadata.getETag(), content, total);
 		});
 	}
 
+	private static long totalLength(ObjectMetadata metadata) {
+		Object range = metadata.getRawMetadataValue("Content-Range");
+		if (range != null) {
+			String value = range.toString();
+			int slash = value.lastIndexOf('/');
+			if (slash != -1 && slash + 1 < value.length() && value.charAt(slash + 1) != '*') {
+				return Long.parseLong(value.substring(slash + 1).trim());
+			}
+		}
+		return metadata.getContentLength();
+	}
+
+	private static void readFully(InputStream stream, byte[] buffer, int length) throws IOException {
+		int position = readUpTo(stream, buffer, length);
+		if (position < length) {
+			throw new EOFException("Unexpected end of stream. Expecting " + length + " bytes. Found: " + position);
+		}
+	}
+
+	private static int readUpTo(InputStream stream, byte[] buffer, int length) throws IOException {
+		return readUpTo(stream, buffer, 0, length);
+	}
+
+	private static int readUpTo(InputStream stream, byte[] buffer, int position, int length) throws IOException {
+		while (position < length) {
+			int read = stream.read(buffer, position, length - position);
+			if (read == -1) {
+				break;
+			}
+			position += read;
+		}
+		return position;
+	}
+
+	private final class CountingInputStream extends FilterInputStream {
+		CountingInputStream(InputStream stream) {
+			super(stream);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int result = super.read();
+			if (result != -1) {
+				downloadedBytes.increment();
+			}
+			return result;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int result = super.read(b, off, len);
+			if (result > 0) {
+				downloadedBytes.add(result);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Large objects are downloaded as parallel range requests.
+	 * Only a limited number of ranges is prefetched ahead of the reader and only while there are free prefetch buffers.
+	 * When none is prefetched, the next range is streamed directly to the reader.
+	 */
+	private final class RangeInputStream extends InputStream {
+		private final String bucket;
+		private final String key;
+		private final String etag;
+		private final long total;
+		private final ArrayDeque<Future<byte[]>> prefetched = new ArrayDeque<>();
+		private InputStream current;
+		private boolean buffered;
+		private long nextStart;
+
+		RangeInputStream(String bucket, String key, String etag, InputStream first, long total) {
+			this.bucket = bucket;
+			this.key = key;
+			this.etag = etag;
+			this.total = total;
+			this.current = first;
+			this.nextStart = partSize;
+			prefetch();
+		}
+
+		private void prefetch() {
+			while (prefetched.size() < partThreads && nextStart < total && prefetchBuffers.tryAcquire()) {
+				final long start = nextStart;
+				final long end = Math.min(total, start + partSize) - 1;
+				prefetched.add(partExecutor.submit(() -> {
+					try (InputStream is = getRange(start, end).getObjectContent()) {
+						byte[] buffer = new byte[(int) (end - start + 1)];
+						readFully(is, buffer, buffer.length);
+						downloadedBytes.add(buffer.length);
+						return buffer;
+					}
+				}));
+				nextStart = end + 1;
+			}
+		}
+
+		private S3Object getRange(long start, long end) throws IOException {
+			GetObjectRequest request = new GetObjectRequest(bucket, key);
+			request.setRange(start, end);
+			if (etag != null) {
+				request.setMatchingETagConstraints(Collections.singletonList(etag));
+			}
+			S3Object s3 = s3Client.getObject(request);
+			if (s3 == null) {
+				throw new IOException("S3 object " + bucket + ":" + key + " was changed during download");
+			}
+			return s3;
+		}
+
+		private void releaseBuffer() {
+			if (buffered) {
+				buffered = false;
+				prefetchBuffers.release();
+			}
+		}
+
+		private boolean advance() throws IOException {
+			current.close();
+			releaseBuffer();
+			Future<byte[]> next = prefetched.poll();
+			if (next == null) {
+				if (nextStart >= total) {
+					return false;
+				}
+				final long start = nextStart;
+				final long end = Math.min(total, start + partSize) - 1;
+				nextStart = end + 1;
+				current = new CountingInputStream(getRange(start, end).getObjectContent());
+				prefetch();
+				return true;
+			}
+			buffered = true;
+			try {
+				current = new ByteArrayInputStream(next.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} catch (ExecutionException e) {
+				throw new IOException(e.getCause());
+			}
+			prefetch();
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			while (true) {
+				int result = current.read();
+				if (result != -1 || !advance()) {
+					return result;
+				}
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			while (true) {
+				int result = current.read(b, off, len);
+				if (result != -1 || !advance()) {
+					return result;
+				}
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			for (Future<byte[]> it : prefetched) {
+				it.cancel(true);
+				prefetchBuffers.release();
+			}
+			prefetched.clear();
+			releaseBuffer();
+			current.close();
+		}
+	}
+
 	@Override
 	public Future<Void> upload(
 			String bucket,
@@ -68,29 +436,222 @@ class AmazonS3Repository implements S3Repository, Closeable {
 			InputStream stream,
 			long length,
 			Map<String, String> metadata) {
-		return executorService.submit(() -> {
+		return uploads.submit(() -> {
+			String bn = getBucketName(bucket);
 			ObjectMetadata om = new ObjectMetadata();
-			om.setContentLength(length);
 			if (metadata != null) {
 				for (final Map.Entry<String, String> kv : metadata.entrySet()) {
 					om.addUserMetadata(kv.getKey(), kv.getValue());
 				}
 			}
-			s3Client.putObject(new PutObjectRequest(getBucketName(bucket), key, stream, om));
+			if (length < 0) {
+				//when length is unknown, object is uploaded in multiple parts only if it doesn't fit into a single one
+				acquirePartBuffer();
+				byte[] first;
+				int read;
+				try {
+					first = new byte[Math.min(partSize, INITIAL_BUFFER_SIZE)];
+					read = readUpTo(stream, first, first.length);
+					while (read == first.length && first.length < partSize) {
+						first = Arrays.copyOf(first, (int) Math.min(partSize, 2L * first.length));
+						read = readUpTo(stream, first, read, first.length);
+					}
+					if (read < partSize) {
+						om.setContentLength(read);
+						s3Client.putObject(new PutObjectRequest(bn, key, new ByteArrayInputStream(first, 0, read), om));
+						uploadedBytes.add(read);
+					}
+				} catch (Exception e) {
+					partBuffers.release();
+					throw e;
+				}
+				if (read < partSize) {
+					partBuffers.release();
+				} else {
+					uploadMultipart(bn, key, stream, -1, om, first);
+				}
+			} else if (length > multipartThreshold) {
+				uploadMultipart(bn, key, stream, length, om, null);
+			} else {
+				om.setContentLength(length);
+				s3Client.putObject(new PutObjectRequest(bn, key, stream, om));
+				uploadedBytes.add(length);
+			}
+			uploadCount.increment();
 			return null;
 		});
 	}
 
+	/**
+	 * Waits for a free upload part buffer, but not indefinitely,
+	 * so a stalled transfer results in a failed upload instead of a blocked executor thread.
+	 */
+	private void acquirePartBuffer() throws InterruptedException, IOException {
+		if (!partBuffers.tryAcquire(partBufferTimeout, TimeUnit.SECONDS)) {
+			throw new IOException("Timed out waiting for a free S3 part buffer after " + partBufferTimeout + " seconds. "
+					+ "Consider increasing revenj.s3-part-buffers or revenj.s3-part-buffer-timeout");
+		}
+	}
+
+	/**
+	 * Parts are read sequentially from the stream and uploaded in parallel.
+	 * A single transfer keeps at most as many parts in memory as there are part threads
+	 * and each part buffer is taken from the limit shared by all uploads.
+	 * When length is unknown (-1) parts are read until the end of stream.
+	 * First part can be provided already read, in which case its part buffer must be already acquired.
+	 */
+	private void uploadMultipart(
+			String bucket,
+			String key,
+			InputStream stream,
+			long length,
+			ObjectMetadata metadata,
+			byte[] first) throws Exception {
+		String uploadId;
+		try {
+			uploadId = s3Client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, key, metadata)).getUploadId();
+		} catch (RuntimeException e) {
+			if (first != null) {
+				partBuffers.release();
+			}
+			throw e;
+		}
+		List<Future<PartETag>> parts = new ArrayList<>();
+		Semaphore window = new Semaphore(partThreads);
+		try {
+			long position = 0;
+			int partNumber = 1;
+			if (first != null) {
+				window.acquire();
+				parts.add(uploadPart(bucket, key, uploadId, partNumber++, first, first.length, window));
+				position += first.length;
+			}
+			while (length < 0 || position < length) {
+				final int capacity = length < 0 ? partSize : (int) Math.min(partSize, length - position);
+				window.acquire();
+				try {
+					acquirePartBuffer();
+				} catch (InterruptedException | IOException e) {
+					window.release();
+					throw e;
+				}
+				final byte[] buffer = new byte[capacity];
+				final int size;
+				try {
+					if (length < 0) {
+						size = readUpTo(stream, buffer, capacity);
+					} else {
+						readFully(stream, buffer, capacity);
+						size = capacity;
+					}
+				} catch (IOException | RuntimeException e) {
+					partBuffers.release();
+					window.release();
+					throw e;
+				}
+				if (size == 0) {
+					partBuffers.release();
+					window.release();
+					break;
+				}
+				parts.add(uploadPart(bucket, key, uploadId, partNumber++, buffer, size, window));
+				position += size;
+				if (size < capacity) {
+					break;
+				}
+			}
+			List<PartETag> etags = new ArrayList<>(parts.size());
+			for (Future<PartETag> part : parts) {
+				etags.add(part.get());
+			}
+			s3Client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, uploadId, etags));
+		} catch (Exception e) {
+			for (Future<PartETag> part : parts) {
+				part.cancel(true);
+			}
+			s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+			throw e;
+		}
+	}
+
+	private Future<PartETag> uploadPart(
+			String bucket,
+			String key,
+			String uploadId,
+			int number,
+			byte[] buffer,
+			int size,
+			Semaphore window) {
+		return partExecutor.submit(() -> {
+			try {
+				UploadPartResult result = s3Client.uploadPart(new UploadPartRequest()
+						.withBucketName(bucket)
+						.withKey(key)
+						.withUploadId(uploadId)
+						.withPartNumber(number)
+						.withPartSize(size)
+						.withInputStream(new ByteArrayInputStream(buffer, 0, size)));
+				uploadedBytes.add(size);
+				return result.getPartETag();
+			} finally {
+				partBuffers.release();
+				window.release();
+			}
+		});
+	}
+
 	@Override
 	public Future<Void> delete(String bucket, String key) {
-		return executorService.submit(() -> {
+		return deletes.submit(() -> {
 			s3Client.deleteObject(new DeleteObjectRequest(getBucketName(bucket), key));
+			deleteCount.increment();
 			return null;
 		});
 	}
 
+	@Override
+	public int getQueueDepth() {
+		return queued.get();
+	}
+
+	@Override
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	@Override
+	public long getUploads() {
+		return uploadCount.sum();
+	}
+
+	@Override
+	public long getDownloads() {
+		return downloadCount.sum();
+	}
+
+	@Override
+	public long getDeletes() {
+		return deleteCount.sum();
+	}
+
+	@Override
+	public long getRejected() {
+		return rejectedCount.sum();
+	}
+
+	@Override
+	public long getUploadedBytes() {
+		return uploadedBytes.sum();
+	}
+
+	@Override
+	public long getDownloadedBytes() {
+		return downloadedBytes.sum();
+	}
+
 	@Override
 	public void close() throws IOException {
+		partExecutor.shutdown();
 		if (disposeExecutor) {
 			executorService.shutdown();
 		}
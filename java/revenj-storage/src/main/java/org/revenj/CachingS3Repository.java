@@ -0,0 +1,451 @@
+package org.revenj;
+
+import org.revenj.storage.S3Repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Keeps recently used objects on local disk, so repeated reads don't go to the remote storage.
+ * Cache is bounded by total size of cached files and least recently used objects are removed first.
+ * Object is cached while it's being read from the underlying repository and only when read to the end.
+ * Uploads and deletes through this repository invalidate the cached object.
+ * Changes made directly on the remote storage are not visible until the object is evicted.
+ */
+public final class CachingS3Repository implements S3Repository, Closeable {
+
+	private static final String EXTENSION = ".s3cache";
+
+	private final S3Repository repository;
+	private final String bucketName;
+	private final Path directory;
+	private final long maxSize;
+	private final long maxObjectSize;
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final Set<Download> downloads = new HashSet<>();
+	private long size;
+
+	private final AtomicLong fileCounter = new AtomicLong();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder bytesSaved = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	private static final class Entry {
+		final Path file;
+		final long length;
+
+		Entry(Path file, long length) {
+			this.file = file;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Download in progress. It's registered before the underlying repository is called,
+	 * so uploads and deletes which happen while the object is being fetched mark it as stale.
+	 */
+	private static final class Download {
+		final String name;
+		volatile boolean stale;
+		boolean started;
+
+		Download(String name) {
+			this.name = name;
+		}
+	}
+
+	/**
+	 * @param repository underlying repository
+	 * @param bucketName default bucket name of the underlying repository, used when bucket is not specified
+	 * @param directory  cache directory. Cached files from previous runs are removed
+	 * @param maxSize    maximum size of all cached objects in bytes
+	 * @throws IOException when cache directory can't be prepared
+	 */
+	public CachingS3Repository(S3Repository repository, String bucketName, Path directory, long maxSize) throws IOException {
+		if (repository == null) throw new IllegalArgumentException("repository can't be null");
+		if (maxSize < 1) throw new IllegalArgumentException("maxSize must be positive");
+		this.repository = repository;
+		this.bucketName = bucketName;
+		this.directory = Files.createDirectories(directory);
+		this.maxSize = maxSize;
+		this.maxObjectSize = Math.max(1, maxSize / 4);
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, "*" + EXTENSION)) {
+			for (Path f : files) {
+				Files.deleteIfExists(f);
+			}
+		}
+	}
+
+	private String cacheKey(String bucket, String key) {
+		String bn = bucket == null || bucket.isEmpty() ? bucketName : bucket;
+		return bn + ":" + key;
+	}
+
+	@Override
+	public Future<InputStream> get(String bucket, String key) {
+		String name = cacheKey(bucket, key);
+		InputStream cached = openCached(name);
+		if (cached != null) {
+			return CompletableFuture.completedFuture(cached);
+		}
+		misses.increment();
+		Download download = new Download(name);
+		synchronized (entries) {
+			downloads.add(download);
+		}
+		Future<InputStream> future;
+		try {
+			future = repository.get(bucket, key);
+		} catch (RuntimeException e) {
+			release(download);
+			throw e;
+		}
+		return new CompletionFuture<>(future, stream -> startCaching(download, stream), () -> {
+			if (!download.started) release(download);
+		});
+	}
+
+	private InputStream openCached(String name) {
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(name);
+		}
+		if (entry == null) {
+			return null;
+		}
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(entry.file, StandardOpenOption.READ);
+		} catch (IOException ignore) {
+			//evicted or invalidated in the meantime
+			return null;
+		}
+		hits.increment();
+		bytesSaved.add(entry.length);
+		return new FileChannelInputStream(channel, entry.length);
+	}
+
+	private InputStream startCaching(Download download, InputStream stream) {
+		Path file = directory.resolve(UUID.nameUUIDFromBytes(download.name.getBytes(StandardCharsets.UTF_8))
+				+ "-" + fileCounter.incrementAndGet() + EXTENSION);
+		OutputStream output;
+		try {
+			output = Files.newOutputStream(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		} catch (IOException ignore) {
+			return stream;
+		}
+		download.started = true;
+		return new CachingInputStream(download, stream, file, output);
+	}
+
+	private void release(Download download) {
+		synchronized (entries) {
+			downloads.remove(download);
+		}
+	}
+
+	@Override
+	public Future<Void> upload(String bucket, String key, InputStream stream, long length, Map<String, String> metadata) {
+		String name = cacheKey(bucket, key);
+		invalidate(name);
+		return new CompletionFuture<>(repository.upload(bucket, key, stream, length, metadata), v -> v, () -> invalidate(name));
+	}
+
+	@Override
+	public Future<Void> delete(String bucket, String key) {
+		String name = cacheKey(bucket, key);
+		invalidate(name);
+		return new CompletionFuture<>(repository.delete(bucket, key), v -> v, () -> invalidate(name));
+	}
+
+	private void invalidate(String name) {
+		Entry removed;
+		synchronized (entries) {
+			for (Download d : downloads) {
+				if (d.name.equals(name)) {
+					d.stale = true;
+				}
+			}
+			removed = entries.remove(name);
+			if (removed != null) {
+				size -= removed.length;
+			}
+		}
+		if (removed != null) {
+			deleteFile(removed.file);
+		}
+	}
+
+	private void complete(CachingInputStream caching, long length) {
+		Download download = caching.download;
+		List<Path> obsolete = new ArrayList<>();
+		synchronized (entries) {
+			downloads.remove(download);
+			if (download.stale) {
+				obsolete.add(caching.file);
+			} else {
+				Entry previous = entries.put(download.name, new Entry(caching.file, length));
+				if (previous != null) {
+					size -= previous.length;
+					obsolete.add(previous.file);
+				}
+				size += length;
+				Iterator<Entry> iterator = entries.values().iterator();
+				while (size > maxSize && iterator.hasNext()) {
+					Entry eldest = iterator.next();
+					iterator.remove();
+					size -= eldest.length;
+					obsolete.add(eldest.file);
+					evictions.increment();
+				}
+			}
+		}
+		for (Path f : obsolete) {
+			deleteFile(f);
+		}
+	}
+
+	private void abandon(CachingInputStream caching) {
+		release(caching.download);
+		deleteFile(caching.file);
+	}
+
+	private static void deleteFile(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException ignore) {
+			//file might still be open on some platforms
+		}
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public double getHitRatio() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	/**
+	 * @return number of bytes served from local disk instead of the underlying repository
+	 */
+	public long getBytesSaved() {
+		return bytesSaved.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public long getSize() {
+		synchronized (entries) {
+			return size;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (repository instanceof Closeable) {
+			((Closeable) repository).close();
+		}
+	}
+
+	/**
+	 * Converts the result and runs the completion action only once.
+	 * When underlying future is a CompletableFuture this is done as soon as it completes,
+	 * otherwise when completion is first observed through get.
+	 */
+	private static final class CompletionFuture<T, R> implements Future<R> {
+		private final Future<T> future;
+		private final Function<T, R> result;
+		private final Runnable onDone;
+		private final AtomicBoolean finished = new AtomicBoolean();
+		private final CompletableFuture<R> completion = new CompletableFuture<>();
+
+		CompletionFuture(Future<T> future, Function<T, R> result, Runnable onDone) {
+			this.future = future;
+			this.result = result;
+			this.onDone = onDone;
+			if (future instanceof CompletableFuture) {
+				((CompletableFuture<T>) future).whenComplete(this::finish);
+			}
+		}
+
+		private void finish(T value, Throwable error) {
+			if (!finished.compareAndSet(false, true)) {
+				return;
+			}
+			try {
+				if (error != null) {
+					completion.completeExceptionally(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+				} else {
+					completion.complete(result.apply(value));
+				}
+			} catch (RuntimeException e) {
+				completion.completeExceptionally(e);
+			} finally {
+				if (onDone != null) onDone.run();
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return future.cancel(mayInterruptIfRunning);
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return future.isCancelled();
+		}
+
+		@Override
+		public boolean isDone() {
+			return future.isDone();
+		}
+
+		@Override
+		public R get() throws InterruptedException, ExecutionException {
+			if (!completion.isDone()) {
+				try {
+					finish(future.get(), null);
+				} catch (ExecutionException e) {
+					finish(null, e.getCause());
+				} catch (CancellationException e) {
+					finish(null, e);
+				}
+			}
+			return completion.get();
+		}
+
+		@Override
+		public R get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			if (!completion.isDone()) {
+				try {
+					finish(future.get(timeout, unit), null);
+				} catch (ExecutionException e) {
+					finish(null, e.getCause());
+				} catch (CancellationException e) {
+					finish(null, e);
+				}
+			}
+			return completion.get();
+		}
+	}
+
+	/**
+	 * Copies the content to the cache file while it's being read.
+	 * Cache entry is created only when the stream is read to the end.
+	 */
+	private final class CachingInputStream extends InputStream {
+		final Download download;
+		final Path file;
+		private final InputStream stream;
+		private OutputStream output;
+		private long length;
+
+		CachingInputStream(Download download, InputStream stream, Path file, OutputStream output) {
+			this.download = download;
+			this.stream = stream;
+			this.file = file;
+			this.output = output;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = stream.read();
+			if (b == -1) {
+				finish();
+			} else if (output != null) {
+				try {
+					output.write(b);
+				} catch (IOException e) {
+					stopCaching();
+					return b;
+				}
+				grow(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = stream.read(b, off, len);
+			if (read == -1) {
+				finish();
+			} else if (output != null && read > 0) {
+				try {
+					output.write(b, off, read);
+				} catch (IOException e) {
+					stopCaching();
+					return read;
+				}
+				grow(read);
+			}
+			return read;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return stream.available();
+		}
+
+		private void grow(int count) {
+			length += count;
+			if (length > maxObjectSize || download.stale) {
+				stopCaching();
+			}
+		}
+
+		private void finish() {
+			if (output == null) {
+				return;
+			}
+			try {
+				output.close();
+			} catch (IOException e) {
+				output = null;
+				abandon(this);
+				return;
+			}
+			output = null;
+			complete(this, length);
+		}
+
+		private void stopCaching() {
+			if (output == null) {
+				return;
+			}
+			try {
+				output.close();
+			} catch (IOException ignore) {
+			}
+			output = null;
+			abandon(this);
+		}
+
+		@Override
+		public void close() throws IOException {
+			stopCaching();
+			stream.close();
+		}
+	}
+}
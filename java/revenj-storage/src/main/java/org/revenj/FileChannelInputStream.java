@@ -0,0 +1,91 @@
+package org.revenj;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Reads a file, or a part of it, through its channel.
+ * Content can be sent to a channel without copying it through the heap with transferTo.
+ * Used for objects served from the local cache and the file system repository.
+ */
+public final class FileChannelInputStream extends InputStream {
+	private final FileChannel channel;
+	private final long start;
+	private final long end;
+	private long position;
+
+	FileChannelInputStream(FileChannel channel, long length) {
+		this(channel, 0, length);
+	}
+
+	FileChannelInputStream(FileChannel channel, long start, long end) {
+		this.channel = channel;
+		this.start = start;
+		this.end = end;
+		this.position = start;
+	}
+
+	public long getLength() {
+		return end - start;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] single = new byte[1];
+		return read(single, 0, 1) == 1 ? single[0] & 0xff : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (position >= end) {
+			return -1;
+		}
+		int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+		if (read > 0) {
+			position += read;
+		}
+		return read;
+	}
+
+	@Override
+	public long skip(long n) {
+		long skipped = Math.max(0, Math.min(n, end - position));
+		position += skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return (int) Math.min(Integer.MAX_VALUE, end - position);
+	}
+
+	/**
+	 * Sends remaining content to the target channel.
+	 *
+	 * @param target where content will be written
+	 * @return number of transferred bytes
+	 * @throws IOException when transfer failed
+	 */
+	public long transferTo(WritableByteChannel target) throws IOException {
+		long start = position;
+		while (position < end) {
+			long sent = channel.transferTo(position, end - position, target);
+			if (sent <= 0) {
+				break;
+			}
+			position += sent;
+		}
+		return position - start;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,326 @@
+package org.revenj;
+
+import org.revenj.storage.S3Repository;
+import org.revenj.storage.S3Statistics;
+
+import java.io.*;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stores objects on local file system, in a directory per bucket.
+ * Object is written to a temporary file and renamed when complete,
+ * so readers never see partially written objects.
+ * Metadata is stored in the same file before the content,
+ * so metadata and content are always replaced together.
+ */
+public final class FileSystemS3Repository implements S3Repository, S3Statistics, Closeable {
+
+	private static final String CONTENT = ".obj";
+
+	private final Path root;
+	private final String bucketName;
+	private final ExecutorService executor;
+	private final boolean disposeExecutor;
+	private final int queueSize;
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final LongAdder uploadCount = new LongAdder();
+	private final LongAdder downloadCount = new LongAdder();
+	private final LongAdder deleteCount = new LongAdder();
+	private final LongAdder rejectedCount = new LongAdder();
+	private final LongAdder uploadedBytes = new LongAdder();
+	private final LongAdder downloadedBytes = new LongAdder();
+
+	/**
+	 * @param root       directory where buckets are stored
+	 * @param bucketName default bucket name, used when bucket is not specified
+	 * @param threads    number of I/O threads
+	 * @param queueSize  maximum number of operations waiting for execution
+	 * @throws IOException when root directory can't be created
+	 */
+	public FileSystemS3Repository(Path root, String bucketName, int threads, int queueSize) throws IOException {
+		this(root, bucketName, Optional.empty(), threads, queueSize);
+	}
+
+	/**
+	 * Creates repository from revenj.s3-directory, revenj.s3-bucket-name,
+	 * revenj.s3-threads and revenj.s3-queue-size settings.
+	 * When executor is not provided, revenj.s3-threads are started for I/O operations.
+	 * Provided executor is not shut down when repository is closed.
+	 *
+	 * @param properties      configuration
+	 * @param executorService shared executor
+	 * @throws IOException when root directory can't be created
+	 */
+	public FileSystemS3Repository(Properties properties, Optional<ExecutorService> executorService) throws IOException {
+		this(
+				Paths.get(properties.getProperty("revenj.s3-directory")),
+				properties.getProperty("revenj.s3-bucket-name"),
+				executorService,
+				parse(properties, "revenj.s3-threads", 16),
+				parse(properties, "revenj.s3-queue-size", 1000));
+	}
+
+	private FileSystemS3Repository(
+			Path root,
+			String bucketName,
+			Optional<ExecutorService> executorService,
+			int threads,
+			int queueSize) throws IOException {
+		if (threads < 1) throw new IllegalArgumentException("threads must be positive");
+		if (queueSize < 1) throw new IllegalArgumentException("queueSize must be positive");
+		this.root = Files.createDirectories(root);
+		this.bucketName = bucketName;
+		this.queueSize = queueSize;
+		this.disposeExecutor = !executorService.isPresent();
+		this.executor = executorService.orElseGet(() -> {
+			AtomicInteger counter = new AtomicInteger();
+			return Executors.newFixedThreadPool(threads, r -> {
+				Thread thread = new Thread(r, "revenj-s3-fs-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		});
+	}
+
+	private static int parse(Properties properties, String name, int defaultValue) {
+		String value = properties.getProperty(name);
+		if (value == null || value.isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("Invalid " + name + " settings found: " + value, e);
+		}
+	}
+
+	private <T> Future<T> submit(Callable<T> operation) {
+		if (queued.incrementAndGet() > queueSize) {
+			queued.decrementAndGet();
+			return rejected(new RejectedExecutionException("Too many pending S3 operations. Queue size: " + queueSize));
+		}
+		try {
+			return CompletableFuture.supplyAsync(() -> {
+				queued.decrementAndGet();
+				inFlight.incrementAndGet();
+				try {
+					return operation.call();
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new CompletionException(e);
+				} finally {
+					inFlight.decrementAndGet();
+				}
+			}, executor);
+		} catch (RejectedExecutionException e) {
+			queued.decrementAndGet();
+			return rejected(e);
+		}
+	}
+
+	private <T> Future<T> rejected(RejectedExecutionException e) {
+		rejectedCount.increment();
+		CompletableFuture<T> rejected = new CompletableFuture<>();
+		rejected.completeExceptionally(e);
+		return rejected;
+	}
+
+	private static String encode(String name) {
+		try {
+			String encoded = URLEncoder.encode(name, "UTF-8");
+			//don't allow . and .. or hidden names which are used for temporary files
+			return encoded.startsWith(".") ? "%2E" + encoded.substring(1) : encoded;
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private Path directory(String bucket, String key) throws IOException {
+		String bn = bucket == null || bucket.isEmpty() ? bucketName : bucket;
+		if (bn == null || bn.isEmpty()) {
+			throw new IOException("Bucket name not specified for this S3 instance or system wide.\n"
+					+ "Either specify revenj.s3-bucket-name in Properties as system wide name or provide a bucket name to this S3 instance");
+		}
+		if (key == null || key.isEmpty()) {
+			throw new IOException("Key not specified");
+		}
+		//spread objects across subdirectories so a single directory doesn't grow too large
+		String shard = String.format("%02x", key.hashCode() & 0xff);
+		return root.resolve(encode(bn)).resolve(shard);
+	}
+
+	@Override
+	public Future<InputStream> get(String bucket, String key) {
+		return submit(() -> {
+			Path file = directory(bucket, key).resolve(encode(key) + CONTENT);
+			FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+			try {
+				long start = Integer.BYTES + readHeaderLength(channel);
+				long size = channel.size();
+				downloadCount.increment();
+				downloadedBytes.add(size - start);
+				return new FileChannelInputStream(channel, start, size);
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				throw e;
+			}
+		});
+	}
+
+	private static int readHeaderLength(FileChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, buffer.position()) == -1) {
+				throw new EOFException("Invalid object file. Metadata length missing");
+			}
+		}
+		buffer.flip();
+		int length = buffer.getInt();
+		if (length < 0 || Integer.BYTES + (long) length > channel.size()) {
+			throw new IOException("Invalid object file. Metadata length: " + length);
+		}
+		return length;
+	}
+
+	/**
+	 * Reads metadata stored with the object during upload.
+	 *
+	 * @param bucket bucket name or null for default bucket
+	 * @param key    object key
+	 * @return stored metadata
+	 * @throws IOException when metadata can't be read
+	 */
+	public Map<String, String> getMetadata(String bucket, String key) throws IOException {
+		Path file = directory(bucket, key).resolve(encode(key) + CONTENT);
+		Map<String, String> result = new HashMap<>();
+		if (!Files.exists(file)) {
+			return result;
+		}
+		Properties properties = new Properties();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(readHeaderLength(channel));
+			while (header.hasRemaining()) {
+				if (channel.read(header, Integer.BYTES + header.position()) == -1) {
+					throw new EOFException("Invalid object file. Metadata is incomplete");
+				}
+			}
+			properties.load(new ByteArrayInputStream(header.array()));
+		}
+		for (String name : properties.stringPropertyNames()) {
+			result.put(name, properties.getProperty(name));
+		}
+		return result;
+	}
+
+	@Override
+	public Future<Void> upload(String bucket, String key, InputStream stream, long length, Map<String, String> metadata) {
+		return submit(() -> {
+			Path directory = Files.createDirectories(directory(bucket, key));
+			Path temp = directory.resolve("." + UUID.randomUUID() + CONTENT);
+			Properties properties = new Properties();
+			if (metadata != null) {
+				properties.putAll(metadata);
+			}
+			ByteArrayOutputStream header = new ByteArrayOutputStream();
+			properties.store(header, null);
+			try {
+				long written = 0;
+				try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+					DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+					os.writeInt(header.size());
+					header.writeTo(os);
+					byte[] buffer = new byte[8192];
+					int read;
+					while ((read = stream.read(buffer)) != -1) {
+						os.write(buffer, 0, read);
+						written += read;
+					}
+					if (length >= 0 && written != length) {
+						throw new IOException("Expecting " + length + " bytes for " + key + ". Found: " + written);
+					}
+					os.flush();
+					//content must reach the disk before the rename,
+					//otherwise after a crash the new name could point to an incomplete file
+					channel.force(true);
+				}
+				Files.move(temp, directory.resolve(encode(key) + CONTENT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				uploadCount.increment();
+				uploadedBytes.add(written);
+				return null;
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		});
+	}
+
+	@Override
+	public Future<Void> delete(String bucket, String key) {
+		return submit(() -> {
+			Files.deleteIfExists(directory(bucket, key).resolve(encode(key) + CONTENT));
+			deleteCount.increment();
+			return null;
+		});
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return queued.get();
+	}
+
+	@Override
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	@Override
+	public long getUploads() {
+		return uploadCount.sum();
+	}
+
+	@Override
+	public long getDownloads() {
+		return downloadCount.sum();
+	}
+
+	@Override
+	public long getDeletes() {
+		return deleteCount.sum();
+	}
+
+	@Override
+	public long getRejected() {
+		return rejectedCount.sum();
+	}
+
+	@Override
+	public long getUploadedBytes() {
+		return uploadedBytes.sum();
+	}
+
+	@Override
+	public long getDownloadedBytes() {
+		return downloadedBytes.sum();
+	}
+
+	@Override
+	public void close() {
+		if (disposeExecutor) {
+			executor.shutdown();
+		}
+	}
+}
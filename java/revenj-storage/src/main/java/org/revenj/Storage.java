@@ -2,7 +2,10 @@ package org.revenj;
 
 import org.revenj.extensibility.Container;
 import org.revenj.storage.S3Repository;
+import org.revenj.storage.S3Statistics;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.concurrent.ExecutorService;
@@ -10,6 +13,44 @@ import java.util.concurrent.ExecutorService;
 public abstract class Storage {
 	public void configure(Container container, Optional<ExecutorService> executorService) {
 		Properties properties = container.resolve(Properties.class);
-		container.registerInstance(S3Repository.class, new AmazonS3Repository(properties, executorService), true);
+		S3Repository repository = createRepository(properties, executorService);
+		if (repository instanceof S3Statistics) {
+			container.registerInstance(S3Statistics.class, (S3Statistics) repository, false);
+		}
+		String cacheDir = properties.getProperty("revenj.s3-cache-dir");
+		if (cacheDir == null || cacheDir.isEmpty()) {
+			container.registerInstance(S3Repository.class, repository, true);
+			return;
+		}
+		String cacheSize = properties.getProperty("revenj.s3-cache-size");
+		final long maxSize;
+		try {
+			maxSize = cacheSize != null ? Long.parseLong(cacheSize) : 1024L * 1024 * 1024;
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("Invalid revenj.s3-cache-size settings found: " + cacheSize, e);
+		}
+		try {
+			CachingS3Repository caching = new CachingS3Repository(
+					repository,
+					properties.getProperty("revenj.s3-bucket-name"),
+					Paths.get(cacheDir),
+					maxSize);
+			container.registerInstance(S3Repository.class, caching, true);
+			container.registerInstance(CachingS3Repository.class, caching, false);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to prepare S3 cache in " + cacheDir, e);
+		}
+	}
+
+	private static S3Repository createRepository(Properties properties, Optional<ExecutorService> executorService) {
+		String directory = properties.getProperty("revenj.s3-directory");
+		if (directory == null || directory.isEmpty()) {
+			return new AmazonS3Repository(properties, executorService);
+		}
+		try {
+			return new FileSystemS3Repository(properties, executorService);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to prepare S3 directory " + directory, e);
+		}
 	}
 }
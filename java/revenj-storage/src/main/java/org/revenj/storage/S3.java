@@ -4,8 +4,12 @@ import org.revenj.patterns.ServiceLocator;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -17,9 +21,31 @@ public class S3 {
 	public S3() {
 	}
 
+	/**
+	 * Uploads stream of unknown length.
+	 * Stream is uploaded in parts, so it's never fully loaded in memory.
+	 */
 	public static S3 from(InputStream stream, ServiceLocator locator) throws IOException {
 		S3 s3 = new S3();
-		s3.upload(streamToByteArray(stream), locator);
+		s3.upload(stream, -1, locator);
+		return s3;
+	}
+
+	/**
+	 * Uploads stream of unknown length and calculates its hash during the upload.
+	 * Hash is known only after the upload, so it's not sent to the storage with the object.
+	 * It's added to the metadata of this instance, under algorithm name as key, as a lowercase hex string,
+	 * and is persisted with the object which holds this S3 value.
+	 *
+	 * @param stream    content
+	 * @param algorithm hash algorithm, eg. MD5 or SHA-256
+	 * @param locator   service locator
+	 * @return uploaded S3 object
+	 * @throws IOException when upload failed
+	 */
+	public static S3 from(InputStream stream, String algorithm, ServiceLocator locator) throws IOException {
+		S3 s3 = new S3();
+		s3.upload(s3.bucket, stream, -1, algorithm, locator);
 		return s3;
 	}
 
@@ -129,7 +155,7 @@ public class S3 {
 	private byte[] cachedContent;
 
 	public byte[] getContent(ServiceLocator locator) throws IOException {
-		if (cachedContent != null) {
+		if (cachedContent == null) {
 			cachedContent = getBytes(locator);
 		}
 		return cachedContent;
@@ -150,11 +176,15 @@ public class S3 {
 		} catch (final InterruptedException | ExecutionException e) {
 			throw new IOException(e);
 		}
-		return streamToByteArray(stream);
+		try {
+			return streamToByteArray(stream);
+		} finally {
+			stream.close();
+		}
 	}
 
 	public String upload(ByteArrayInputStream stream, ServiceLocator locator) throws IOException {
-		return upload(streamToByteArray(stream), locator);
+		return upload(stream, stream.available(), locator);
 	}
 
 	public String upload(InputStream stream, long length, ServiceLocator locator) throws IOException {
@@ -162,19 +192,49 @@ public class S3 {
 	}
 
 	public String upload(String bucket, InputStream stream, long length, ServiceLocator locator) throws IOException {
+		return upload(bucket, stream, length, null, locator);
+	}
+
+	/**
+	 * Uploads stream to the provided bucket.
+	 * When length is not known in advance (-1), it's calculated during the upload.
+	 *
+	 * @param bucket    bucket name
+	 * @param stream    content
+	 * @param length    content length or -1 if unknown
+	 * @param algorithm optional hash algorithm. Hash is added to metadata of this instance (not the stored object) under algorithm name
+	 * @param locator   service locator
+	 * @return object key
+	 * @throws IOException when upload failed
+	 */
+	public String upload(String bucket, InputStream stream, long length, String algorithm, ServiceLocator locator) throws IOException {
 		if (stream == null) throw new IllegalArgumentException("Stream can't be null.");
+		final MessageDigest digest;
+		try {
+			digest = algorithm != null ? MessageDigest.getInstance(algorithm) : null;
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("Unknown hash algorithm: " + algorithm, e);
+		}
 		if (key == null || key.isEmpty()) {
 			this.bucket = bucket;
 			key = UUID.randomUUID().toString();
-		} else if (!this.bucket.equals(bucket)) {
+		} else if (!Objects.equals(this.bucket, bucket)) {
 			throw new IllegalArgumentException("Can't change bucket name");
 		}
+		final CountingInputStream counting = new CountingInputStream(digest != null ? new DigestInputStream(stream, digest) : stream);
 		try {
-			locator.resolve(S3Repository.class).upload(bucket, key, stream, length, metadata).get();
+			locator.resolve(S3Repository.class).upload(bucket, key, counting, length, metadata).get();
 		} catch (final InterruptedException | ExecutionException e) {
 			throw new IOException(e);
 		}
-		this.length = length;
+		this.length = length >= 0 ? length : counting.count;
+		if (digest != null) {
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest.digest()) {
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			metadata.put(algorithm, hex.toString());
+		}
 		cachedContent = null;
 		return key;
 	}
@@ -188,7 +248,7 @@ public class S3 {
 		if (key == null || key.isEmpty()) {
 			this.bucket = bucket;
 			key = UUID.randomUUID().toString();
-		} else if (!this.bucket.equals(bucket)) {
+		} else if (!Objects.equals(this.bucket, bucket)) {
 			throw new IllegalArgumentException("Can't change bucket name");
 		}
 		final ByteArrayInputStream stream = new ByteArrayInputStream(bytes);
@@ -215,6 +275,39 @@ public class S3 {
 		key = null;
 	}
 
+	private static final class CountingInputStream extends FilterInputStream {
+		long count;
+
+		CountingInputStream(InputStream stream) {
+			super(stream);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int result = super.read();
+			if (result != -1) {
+				count++;
+			}
+			return result;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int result = super.read(b, off, len);
+			if (result > 0) {
+				count += result;
+			}
+			return result;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long result = super.skip(n);
+			count += result;
+			return result;
+		}
+	}
+
 	private static byte[] streamToByteArray(final InputStream inputStream) throws IOException {
 		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		final byte[] buffer = new byte[4096];
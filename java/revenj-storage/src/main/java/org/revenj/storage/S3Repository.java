@@ -11,6 +11,10 @@ public interface S3Repository {
 		return get(s3.getBucket(), s3.getKey());
 	}
 
+	/**
+	 * Uploads stream content.
+	 * Length is -1 when not known in advance, in which case stream is read until the end.
+	 */
 	Future<Void> upload(
 			String bucket,
 			String key,
@@ -0,0 +1,32 @@
+package org.revenj.storage;
+
+/**
+ * Transfer statistics of a S3 repository.
+ * Counters are cumulative, so throughput is the difference between two samples.
+ */
+public interface S3Statistics {
+	/**
+	 * @return operations waiting for execution
+	 */
+	int getQueueDepth();
+
+	/**
+	 * @return operations currently executing
+	 */
+	int getInFlight();
+
+	long getUploads();
+
+	long getDownloads();
+
+	long getDeletes();
+
+	/**
+	 * @return operations rejected because the queue was full
+	 */
+	long getRejected();
+
+	long getUploadedBytes();
+
+	long getDownloadedBytes();
+}
@@ -0,0 +1,263 @@
+package org.revenj;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestAmazonS3Repository {
+
+	private static final int PART_SIZE = 5 * 1024 * 1024;
+
+	private static class MemoryS3Client extends AmazonS3Client {
+		final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+		final Map<String, Map<String, String>> metadata = new ConcurrentHashMap<>();
+		final Map<String, Map<Integer, byte[]>> multipart = new ConcurrentHashMap<>();
+		final AtomicInteger puts = new AtomicInteger();
+		final AtomicInteger parts = new AtomicInteger();
+		final AtomicInteger partsInFlight = new AtomicInteger();
+		final AtomicInteger maxPartsInFlight = new AtomicInteger();
+
+		MemoryS3Client() {
+			super(new BasicAWSCredentials("user", "secret"));
+		}
+
+		@Override
+		public S3Object getObject(GetObjectRequest request) {
+			byte[] content = objects.get(request.getBucketName() + ":" + request.getKey());
+			long[] range = request.getRange();
+			int start = range == null ? 0 : (int) range[0];
+			int end = range == null ? content.length - 1 : (int) Math.min(range[1], content.length - 1);
+			ObjectMetadata om = new ObjectMetadata();
+			om.setContentLength(end - start + 1);
+			if (range != null) {
+				om.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+			}
+			S3Object result = new S3Object();
+			result.setObjectMetadata(om);
+			result.setObjectContent(new ByteArrayInputStream(content, start, end - start + 1));
+			return result;
+		}
+
+		@Override
+		public PutObjectResult putObject(PutObjectRequest request) {
+			puts.incrementAndGet();
+			String name = request.getBucketName() + ":" + request.getKey();
+			objects.put(name, read(request.getInputStream()));
+			metadata.put(name, request.getMetadata().getUserMetadata());
+			return new PutObjectResult();
+		}
+
+		@Override
+		public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+			String id = UUID.randomUUID().toString();
+			multipart.put(id, new ConcurrentHashMap<>());
+			InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+			result.setUploadId(id);
+			return result;
+		}
+
+		@Override
+		public UploadPartResult uploadPart(UploadPartRequest request) {
+			int current = partsInFlight.incrementAndGet();
+			maxPartsInFlight.accumulateAndGet(current, Math::max);
+			try {
+				byte[] content = read(request.getInputStream());
+				Assert.assertEquals(request.getPartSize(), content.length);
+				Thread.sleep(20);
+				multipart.get(request.getUploadId()).put(request.getPartNumber(), content);
+				parts.incrementAndGet();
+				UploadPartResult result = new UploadPartResult();
+				result.setPartNumber(request.getPartNumber());
+				result.setETag("etag" + request.getPartNumber());
+				return result;
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} finally {
+				partsInFlight.decrementAndGet();
+			}
+		}
+
+		@Override
+		public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+			Map<Integer, byte[]> uploaded = multipart.remove(request.getUploadId());
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			for (PartETag tag : request.getPartETags()) {
+				byte[] part = uploaded.get(tag.getPartNumber());
+				os.write(part, 0, part.length);
+			}
+			objects.put(request.getBucketName() + ":" + request.getKey(), os.toByteArray());
+			return new CompleteMultipartUploadResult();
+		}
+
+		@Override
+		public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+			multipart.remove(request.getUploadId());
+		}
+
+		@Override
+		public void deleteObject(DeleteObjectRequest request) {
+			objects.remove(request.getBucketName() + ":" + request.getKey());
+		}
+	}
+
+	private static byte[] read(InputStream stream) {
+		try {
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int len;
+			while ((len = stream.read(buffer)) != -1) {
+				os.write(buffer, 0, len);
+			}
+			stream.close();
+			return os.toByteArray();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static byte[] content(int length) {
+		byte[] result = new byte[length];
+		new Random(length).nextBytes(result);
+		return result;
+	}
+
+	private static AmazonS3Repository repository(MemoryS3Client client, String buffers) {
+		return repository(client, buffers, buffers, "60");
+	}
+
+	private static AmazonS3Repository repository(MemoryS3Client client, String buffers, String prefetch, String timeout) {
+		Properties properties = new Properties();
+		properties.setProperty("revenj.s3-bucket-name", "bucket");
+		properties.setProperty("revenj.s3-part-size", Integer.toString(PART_SIZE));
+		properties.setProperty("revenj.s3-multipart-threshold", Integer.toString(PART_SIZE));
+		properties.setProperty("revenj.s3-part-buffers", buffers);
+		properties.setProperty("revenj.s3-prefetch-buffers", prefetch);
+		properties.setProperty("revenj.s3-part-buffer-timeout", timeout);
+		return new AmazonS3Repository(properties, Optional.empty(), client);
+	}
+
+	@Test
+	public void smallObjectsUseSingleRequest() throws Exception {
+		MemoryS3Client client = new MemoryS3Client();
+		try (AmazonS3Repository repository = repository(client, "2")) {
+			byte[] bytes = "some content".getBytes("UTF-8");
+			repository.upload(null, "a", new ByteArrayInputStream(bytes), bytes.length, Collections.singletonMap("name", "value")).get();
+			repository.upload("other", "b", new ByteArrayInputStream(bytes), -1, null).get();
+			Assert.assertEquals(2, client.puts.get());
+			Assert.assertEquals(0, client.parts.get());
+			Assert.assertEquals("value", client.metadata.get("bucket:a").get("name"));
+			Assert.assertArrayEquals(bytes, read(repository.get("bucket", "a").get()));
+			Assert.assertArrayEquals(bytes, read(repository.get("other", "b").get()));
+			repository.delete(null, "a").get();
+			Assert.assertFalse(client.objects.containsKey("bucket:a"));
+			Assert.assertEquals(2, repository.getUploads());
+			Assert.assertEquals(2, repository.getDownloads());
+			Assert.assertEquals(1, repository.getDeletes());
+		}
+	}
+
+	@Test
+	public void unknownLengthIsReadIntoGrowingBuffer() throws Exception {
+		MemoryS3Client client = new MemoryS3Client();
+		try (AmazonS3Repository repository = repository(client, "2")) {
+			byte[] medium = content(100 * 1024 + 7);
+			repository.upload(null, "medium", new ByteArrayInputStream(medium), -1, null).get();
+			Assert.assertEquals(1, client.puts.get());
+			Assert.assertArrayEquals(medium, client.objects.get("bucket:medium"));
+			byte[] exact = content(PART_SIZE);
+			repository.upload(null, "exact", new ByteArrayInputStream(exact), -1, null).get();
+			Assert.assertEquals(1, client.parts.get());
+			Assert.assertArrayEquals(exact, client.objects.get("bucket:exact"));
+		}
+	}
+
+	@Test
+	public void largeObjectsAreTransferredInParts() throws Exception {
+		MemoryS3Client client = new MemoryS3Client();
+		try (AmazonS3Repository repository = repository(client, "8")) {
+			byte[] bytes = content(2 * PART_SIZE + 1234);
+			repository.upload(null, "known", new ByteArrayInputStream(bytes), bytes.length, null).get();
+			Assert.assertEquals(3, client.parts.get());
+			repository.upload(null, "unknown", new ByteArrayInputStream(bytes), -1, null).get();
+			Assert.assertEquals(6, client.parts.get());
+			Assert.assertEquals(0, client.puts.get());
+			Assert.assertArrayEquals(bytes, client.objects.get("bucket:known"));
+			Assert.assertArrayEquals(bytes, client.objects.get("bucket:unknown"));
+			Assert.assertArrayEquals(bytes, read(repository.get(null, "known").get()));
+			Assert.assertEquals(2L * bytes.length, repository.getUploadedBytes());
+			Assert.assertEquals(bytes.length, repository.getDownloadedBytes());
+		}
+	}
+
+	@Test
+	public void partBuffersAreSharedAcrossTransfers() throws Exception {
+		MemoryS3Client client = new MemoryS3Client();
+		try (AmazonS3Repository repository = repository(client, "1")) {
+			byte[] bytes = content(3 * PART_SIZE);
+			List<Future<Void>> uploads = new ArrayList<>();
+			for (int i = 0; i < 3; i++) {
+				uploads.add(repository.upload(null, "k" + i, new ByteArrayInputStream(bytes), i == 0 ? -1 : bytes.length, null));
+			}
+			for (Future<Void> it : uploads) {
+				it.get();
+			}
+			Assert.assertEquals(9, client.parts.get());
+			Assert.assertEquals(1, client.maxPartsInFlight.get());
+			InputStream first = repository.get(null, "k0").get();
+			InputStream second = repository.get(null, "k1").get();
+			Assert.assertArrayEquals(bytes, read(second));
+			Assert.assertArrayEquals(bytes, read(first));
+		}
+	}
+
+	@Test
+	public void unreadDownloadsDontBlockUploads() throws Exception {
+		MemoryS3Client client = new MemoryS3Client();
+		try (AmazonS3Repository repository = repository(client, "1", "1", "60")) {
+			byte[] bytes = content(3 * PART_SIZE);
+			client.objects.put("bucket:large", bytes);
+			//prefetched range holds a buffer until the stream is read or closed
+			InputStream download = repository.get(null, "large").get();
+			repository.upload(null, "other", new ByteArrayInputStream(bytes), bytes.length, null).get(10, TimeUnit.SECONDS);
+			Assert.assertArrayEquals(bytes, client.objects.get("bucket:other"));
+			Assert.assertArrayEquals(bytes, read(download));
+		}
+	}
+
+	@Test
+	public void stalledUploadTimesOutWaitingUploads() throws Exception {
+		MemoryS3Client client = new MemoryS3Client();
+		try (AmazonS3Repository repository = repository(client, "1", "1", "1")) {
+			PipedOutputStream writer = new PipedOutputStream();
+			//unknown length upload holds the only part buffer while waiting for content
+			Future<Void> stalled = repository.upload(null, "stalled", new PipedInputStream(writer), -1, null);
+			Thread.sleep(100);
+			byte[] bytes = content(2 * PART_SIZE);
+			try {
+				repository.upload(null, "other", new ByteArrayInputStream(bytes), bytes.length, null).get(10, TimeUnit.SECONDS);
+				Assert.fail("Expecting timeout");
+			} catch (ExecutionException e) {
+				Assert.assertTrue(e.getCause() instanceof IOException);
+			}
+			writer.close();
+			stalled.get(10, TimeUnit.SECONDS);
+			repository.upload(null, "other", new ByteArrayInputStream(bytes), bytes.length, null).get(10, TimeUnit.SECONDS);
+			Assert.assertArrayEquals(bytes, client.objects.get("bucket:other"));
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package org.revenj;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.revenj.storage.S3Repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestCachingS3Repository {
+
+	private static class MemoryRepository implements S3Repository {
+		final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+		final AtomicInteger gets = new AtomicInteger();
+		CompletableFuture<Void> uploadDone = CompletableFuture.completedFuture(null);
+		CompletableFuture<Void> getDone = CompletableFuture.completedFuture(null);
+
+		private static String name(String bucket, String key) {
+			return (bucket == null ? "bucket" : bucket) + ":" + key;
+		}
+
+		@Override
+		public Future<InputStream> get(String bucket, String key) {
+			gets.incrementAndGet();
+			byte[] content = objects.get(name(bucket, key));
+			return getDone.thenApply(v -> new ByteArrayInputStream(content));
+		}
+
+		@Override
+		public Future<Void> upload(String bucket, String key, InputStream stream, long length, Map<String, String> metadata) {
+			byte[] content;
+			try {
+				content = read(stream);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			return uploadDone.thenRun(() -> objects.put(name(bucket, key), content));
+		}
+
+		@Override
+		public Future<Void> delete(String bucket, String key) {
+			objects.remove(name(bucket, key));
+			return CompletableFuture.completedFuture(null);
+		}
+	}
+
+	private static byte[] read(InputStream stream) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		byte[] buffer = new byte[7];
+		int len;
+		while ((len = stream.read(buffer)) != -1) {
+			os.write(buffer, 0, len);
+		}
+		stream.close();
+		return os.toByteArray();
+	}
+
+	private static void upload(S3Repository repository, String key, String content) throws Exception {
+		byte[] bytes = content.getBytes("UTF-8");
+		repository.upload("bucket", key, new ByteArrayInputStream(bytes), bytes.length, null).get();
+	}
+
+	private static String get(S3Repository repository, String key) throws Exception {
+		return new String(read(repository.get("bucket", key).get()), "UTF-8");
+	}
+
+	@Test
+	public void secondReadComesFromDisk() throws Exception {
+		Path dir = Files.createTempDirectory("s3cache");
+		MemoryRepository memory = new MemoryRepository();
+		CachingS3Repository repository = new CachingS3Repository(memory, "bucket", dir, 1024);
+		upload(repository, "a", "some content");
+		Assert.assertEquals("some content", get(repository, "a"));
+		Assert.assertEquals("some content", get(repository, "a"));
+		Assert.assertEquals(1, memory.gets.get());
+		Assert.assertEquals(1, repository.getHits());
+		Assert.assertEquals(12, repository.getBytesSaved());
+		Assert.assertEquals(0.5, repository.getHitRatio(), 0.001);
+	}
+
+	@Test
+	public void uploadAndDeleteInvalidate() throws Exception {
+		Path dir = Files.createTempDirectory("s3cache");
+		MemoryRepository memory = new MemoryRepository();
+		CachingS3Repository repository = new CachingS3Repository(memory, "bucket", dir, 1024);
+		upload(repository, "a", "old");
+		Assert.assertEquals("old", get(repository, "a"));
+		upload(repository, "a", "new");
+		Assert.assertEquals("new", get(repository, "a"));
+		Assert.assertEquals("new", get(repository, "a"));
+		Assert.assertEquals(2, memory.gets.get());
+		repository.delete("bucket", "a").get();
+		Assert.assertEquals(0, repository.getSize());
+	}
+
+	@Test
+	public void leastRecentlyUsedIsEvicted() throws Exception {
+		Path dir = Files.createTempDirectory("s3cache");
+		MemoryRepository memory = new MemoryRepository();
+		CachingS3Repository repository = new CachingS3Repository(memory, "bucket", dir, 40);
+		upload(repository, "a", "0123456789");
+		upload(repository, "b", "0123456789");
+		upload(repository, "c", "0123456789");
+		upload(repository, "d", "0123456789");
+		upload(repository, "e", "0123456789");
+		get(repository, "a");
+		get(repository, "b");
+		get(repository, "c");
+		get(repository, "d");
+		get(repository, "a");
+		get(repository, "e");
+		Assert.assertEquals(40, repository.getSize());
+		Assert.assertEquals(1, repository.getEvictions());
+		get(repository, "a");
+		Assert.assertEquals(5, memory.gets.get());
+		get(repository, "b");
+		Assert.assertEquals(6, memory.gets.get());
+	}
+
+	@Test
+	public void defaultBucketSharesCacheEntry() throws Exception {
+		Path dir = Files.createTempDirectory("s3cache");
+		MemoryRepository memory = new MemoryRepository();
+		CachingS3Repository repository = new CachingS3Repository(memory, "bucket", dir, 1024);
+		upload(repository, "a", "content");
+		Assert.assertEquals("content", new String(read(repository.get(null, "a").get()), "UTF-8"));
+		Assert.assertEquals("content", get(repository, "a"));
+		Assert.assertEquals("content", new String(read(repository.get("", "a").get()), "UTF-8"));
+		Assert.assertEquals(1, memory.gets.get());
+		repository.upload(null, "a", new ByteArrayInputStream(new byte[0]), 0, null).get();
+		Assert.assertEquals(0, repository.getSize());
+	}
+
+	@Test
+	public void uploadInvalidatesOnCompletion() throws Exception {
+		Path dir = Files.createTempDirectory("s3cache");
+		MemoryRepository memory = new MemoryRepository();
+		CachingS3Repository repository = new CachingS3Repository(memory, "bucket", dir, 1024);
+		upload(repository, "a", "old");
+		memory.uploadDone = new CompletableFuture<>();
+		Future<Void> pending = repository.upload("bucket", "a", new ByteArrayInputStream("new".getBytes("UTF-8")), 3, null);
+		Assert.assertEquals("old", get(repository, "a"));
+		Assert.assertEquals("old", get(repository, "a"));
+		Assert.assertEquals(1, repository.getHits());
+		memory.uploadDone.complete(null);
+		Assert.assertTrue(pending.isDone());
+		Assert.assertEquals(0, repository.getSize());
+		Assert.assertEquals("new", get(repository, "a"));
+		upload(repository, "b", "other");
+		Future<InputStream> future = repository.get("bucket", "b");
+		InputStream stream = future.get();
+		Assert.assertSame(stream, future.get());
+		Assert.assertEquals("other", new String(read(stream), "UTF-8"));
+		Assert.assertEquals("other", get(repository, "b"));
+		Assert.assertEquals(3, memory.gets.get());
+	}
+
+	@Test
+	public void uploadDuringDownloadIsNotCached() throws Exception {
+		Path dir = Files.createTempDirectory("s3cache");
+		MemoryRepository memory = new MemoryRepository();
+		CachingS3Repository repository = new CachingS3Repository(memory, "bucket", dir, 1024);
+		upload(repository, "a", "old");
+		memory.getDone = new CompletableFuture<>();
+		Future<InputStream> pending = repository.get("bucket", "a");
+		upload(repository, "a", "new");
+		memory.getDone.complete(null);
+		Assert.assertEquals("old", new String(read(pending.get()), "UTF-8"));
+		Assert.assertEquals(0, repository.getSize());
+		Assert.assertEquals("new", get(repository, "a"));
+		Assert.assertEquals("new", get(repository, "a"));
+		Assert.assertEquals(2, memory.gets.get());
+	}
+}
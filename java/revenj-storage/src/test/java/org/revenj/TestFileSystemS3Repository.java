@@ -0,0 +1,111 @@
+package org.revenj;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.revenj.patterns.ServiceLocator;
+import org.revenj.storage.S3;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+public class TestFileSystemS3Repository {
+
+	private static String read(InputStream stream) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		byte[] buffer = new byte[3];
+		int len;
+		while ((len = stream.read(buffer)) != -1) {
+			os.write(buffer, 0, len);
+		}
+		stream.close();
+		return new String(os.toByteArray(), "UTF-8");
+	}
+
+	@Test
+	public void uploadGetAndDelete() throws Exception {
+		Path dir = Files.createTempDirectory("s3fs");
+		try (FileSystemS3Repository repository = new FileSystemS3Repository(dir, "default", 2, 10)) {
+			byte[] bytes = "some content".getBytes("UTF-8");
+			repository.upload(null, "../a/b", new ByteArrayInputStream(bytes), bytes.length, Collections.singletonMap("x=y", "z:w")).get();
+			Assert.assertEquals("some content", read(repository.get(null, "../a/b").get()));
+			Assert.assertEquals("z:w", repository.getMetadata(null, "../a/b").get("x=y"));
+			Assert.assertEquals(1, repository.getUploads());
+			Assert.assertEquals(12, repository.getDownloadedBytes());
+			repository.delete(null, "../a/b").get();
+			try {
+				repository.get(null, "../a/b").get();
+				Assert.fail("Expecting missing object");
+			} catch (ExecutionException ignore) {
+			}
+		}
+	}
+
+	@Test
+	public void incompleteUploadIsNotVisible() throws Exception {
+		Path dir = Files.createTempDirectory("s3fs");
+		try (FileSystemS3Repository repository = new FileSystemS3Repository(dir, "default", 2, 10)) {
+			byte[] bytes = "old".getBytes("UTF-8");
+			repository.upload("bucket", "key", new ByteArrayInputStream(bytes), bytes.length, Collections.singletonMap("v", "old")).get();
+			try {
+				repository.upload("bucket", "key", new ByteArrayInputStream("new content".getBytes("UTF-8")), 100, Collections.singletonMap("v", "new")).get();
+				Assert.fail("Expecting length mismatch");
+			} catch (ExecutionException ignore) {
+			}
+			Assert.assertEquals("old", read(repository.get("bucket", "key").get()));
+			Assert.assertEquals("old", repository.getMetadata("bucket", "key").get("v"));
+			try (Stream<Path> files = Files.walk(dir)) {
+				Assert.assertEquals(1, files.filter(Files::isRegularFile).count());
+			}
+		}
+	}
+
+	@Test
+	public void unknownLengthIsCalculated() throws Exception {
+		Path dir = Files.createTempDirectory("s3fs");
+		try (FileSystemS3Repository repository = new FileSystemS3Repository(dir, "default", 2, 10)) {
+			ServiceLocator locator = type -> repository;
+			S3 s3 = S3.from(new ByteArrayInputStream("abc".getBytes("UTF-8")), "MD5", locator);
+			Assert.assertEquals(3, s3.getLength());
+			Assert.assertEquals("900150983cd24fb0d6963f7d28e17f72", s3.getMetadata().get("MD5"));
+			Assert.assertEquals("abc", new String(s3.getContent(locator), "UTF-8"));
+		}
+	}
+
+	@Test
+	public void providedExecutorIsUsed() throws Exception {
+		Path dir = Files.createTempDirectory("s3fs");
+		Properties properties = new Properties();
+		properties.setProperty("revenj.s3-directory", dir.toString());
+		properties.setProperty("revenj.s3-bucket-name", "default");
+		ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "shared"));
+		try {
+			try (FileSystemS3Repository repository = new FileSystemS3Repository(properties, Optional.of(executor))) {
+				String[] thread = new String[1];
+				InputStream content = new ByteArrayInputStream(new byte[0]) {
+					@Override
+					public synchronized int read(byte[] b, int off, int len) {
+						thread[0] = Thread.currentThread().getName();
+						return super.read(b, off, len);
+					}
+				};
+				repository.upload(null, "a", content, 0, null).get();
+				Assert.assertEquals("shared", thread[0]);
+				Assert.assertEquals("", read(repository.get(null, "a").get()));
+			}
+			Assert.assertFalse(executor.isShutdown());
+			Assert.assertEquals(0, (int) executor.submit(() -> 0).get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
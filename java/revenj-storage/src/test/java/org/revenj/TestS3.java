@@ -0,0 +1,79 @@
+package org.revenj;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.revenj.patterns.ServiceLocator;
+import org.revenj.storage.S3;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+
+public class TestS3 {
+
+	private static byte[] content(int length) {
+		byte[] result = new byte[length];
+		new Random(length).nextBytes(result);
+		return result;
+	}
+
+	private static String hex(String algorithm, byte[] bytes) throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : MessageDigest.getInstance(algorithm).digest(bytes)) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	private static FileSystemS3Repository repository() throws Exception {
+		Path dir = Files.createTempDirectory("s3");
+		return new FileSystemS3Repository(dir, "default", 2, 10);
+	}
+
+	@Test
+	public void unknownLengthIsCountedDuringUpload() throws Exception {
+		try (FileSystemS3Repository repository = repository()) {
+			ServiceLocator locator = type -> repository;
+			byte[] bytes = content(100 * 1024 + 3);
+			S3 s3 = S3.from(new ByteArrayInputStream(bytes), "SHA-256", locator);
+			Assert.assertEquals(bytes.length, s3.getLength());
+			Assert.assertEquals(hex("SHA-256", bytes), s3.getMetadata().get("SHA-256"));
+			Assert.assertArrayEquals(bytes, s3.getContent(locator));
+			S3 plain = S3.from(new ByteArrayInputStream(bytes), locator);
+			Assert.assertEquals(bytes.length, plain.getLength());
+			Assert.assertTrue(plain.getMetadata().isEmpty());
+		}
+	}
+
+	@Test
+	public void knownLengthIsHashed() throws Exception {
+		try (FileSystemS3Repository repository = repository()) {
+			ServiceLocator locator = type -> repository;
+			byte[] bytes = content(5000);
+			S3 s3 = new S3();
+			String key = s3.upload("bucket", new ByteArrayInputStream(bytes), bytes.length, "MD5", locator);
+			Assert.assertEquals(key, s3.getKey());
+			Assert.assertEquals(bytes.length, s3.getLength());
+			Assert.assertEquals(hex("MD5", bytes), s3.getMetadata().get("MD5"));
+			//hash is known only after the upload, so it's not part of the stored object
+			Assert.assertNull(repository.getMetadata("bucket", key).get("MD5"));
+			Assert.assertArrayEquals(bytes, s3.getContent(locator));
+		}
+	}
+
+	@Test
+	public void uploadResetsCachedContent() throws Exception {
+		try (FileSystemS3Repository repository = repository()) {
+			ServiceLocator locator = type -> repository;
+			S3 s3 = S3.from("first".getBytes("UTF-8"), locator);
+			Assert.assertEquals("first", new String(s3.getContent(locator), "UTF-8"));
+			s3.upload(s3.getBucket(), new ByteArrayInputStream("second value".getBytes("UTF-8")), -1, "MD5", locator);
+			Assert.assertEquals(12, s3.getLength());
+			Assert.assertEquals("second value", new String(s3.getContent(locator), "UTF-8"));
+			s3.upload("third".getBytes("UTF-8"), locator);
+			Assert.assertEquals("third", new String(s3.getContent(locator), "UTF-8"));
+		}
+	}
+}
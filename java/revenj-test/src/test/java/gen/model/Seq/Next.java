@@ -100,19 +100,7 @@ public class Next   implements java.lang.Cloneable, java.io.Serializable, org.re
 
 	
 	static {
-		gen.model.Seq.repositories.NextRepository.__setupSequenceID((items, connection) -> {
-			try (java.sql.PreparedStatement st = connection.prepareStatement("/*NO LOAD BALANCE*/SELECT nextval('\"Seq\".\"Next_ID_seq\"'::regclass)::int FROM generate_series(1, ?)")) {
-				st.setInt(1, items.size());
-				try (java.sql.ResultSet rs = st.executeQuery()) {
-					java.util.Iterator<Next> iterator = items.iterator();
-					while (rs.next()) {
-						iterator.next().setID(rs.getInt(1));
-					}
-				}
-			} catch (java.sql.SQLException e) {
-				throw new RuntimeException(e);
-			}
-		});
+		gen.model.Seq.repositories.NextRepository.__setupSequenceID("\"Seq\".\"Next_ID_seq\"", (it, id) -> it.setID(id));
 	}
 	
 
@@ -181,13 +181,11 @@ public class DocumentRepository   implements java.io.Closeable, org.revenj.patte
 	@Override
 	public java.util.List<gen.model.binaries.Document> find(String[] uris) {
 		java.sql.Connection connection = getConnection();
-		try (java.sql.Statement statement = connection.createStatement();
+		try (java.sql.PreparedStatement statement = connection.prepareStatement("SELECT r FROM \"binaries\".\"Document_entity\" r WHERE r.\"ID\" = ANY(?::uuid[])");
 			org.revenj.postgres.PostgresReader reader = org.revenj.postgres.PostgresReader.create(locator)) {
 			java.util.List<gen.model.binaries.Document> result = new java.util.ArrayList<>(uris.length);
-			StringBuilder sb = new StringBuilder("SELECT r FROM \"binaries\".\"Document_entity\" r WHERE r.\"ID\" IN (");
-			org.revenj.postgres.PostgresWriter.writeSimpleUriList(sb, uris);
-			sb.append(")");
-			try (java.sql.ResultSet rs = statement.executeQuery(sb.toString())) {
+			statement.setArray(1, connection.createArrayOf("text", uris));
+			try (java.sql.ResultSet rs = statement.executeQuery()) {
 				while (rs.next()) {
 					reader.process(rs.getString(1));
 					result.add(converter.from(reader));
@@ -220,6 +218,23 @@ public class DocumentRepository   implements java.io.Closeable, org.revenj.patte
 
 	private static final String[] EMPTY_URI = new String[0];
 
+	@Override
+	public String[] bulkInsert(java.lang.Iterable<gen.model.binaries.Document> items) throws java.io.IOException {
+		java.sql.Connection connection = getConnection();
+		try {
+			return org.revenj.postgres.PostgresBulkCopy.insert(
+					connection,
+					items,
+					converter,
+					"\"binaries\".\"persist_Document\"",
+					null,
+					insertLoop::accept,
+					trackChanges::apply);
+		} finally { 
+			releaseConnection(connection); 
+		}
+	}
+
 	@Override
 	public String[] persist(
 			java.util.Collection<gen.model.binaries.Document> insert,
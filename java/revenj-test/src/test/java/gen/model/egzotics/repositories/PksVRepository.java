@@ -181,13 +181,14 @@ public class PksVRepository   implements java.io.Closeable, org.revenj.patterns.
 	@Override
 	public java.util.List<gen.model.egzotics.PksV> find(String[] uris) {
 		java.sql.Connection connection = getConnection();
-		try (java.sql.Statement statement = connection.createStatement();
+		try (java.sql.PreparedStatement statement = connection.prepareStatement("SELECT r FROM \"egzotics\".\"PksV_entity\" r WHERE (r.\"vv\", r.\"e\", r.\"ee\") IN (SELECT u.c0::\"egzotics\".\"v\"[], u.c1::\"egzotics\".\"E\", u.c2::\"egzotics\".\"E\"[] FROM unnest(?::text[], ?::text[], ?::text[]) u(c0, c1, c2))");
 			org.revenj.postgres.PostgresReader reader = org.revenj.postgres.PostgresReader.create(locator)) {
 			java.util.List<gen.model.egzotics.PksV> result = new java.util.ArrayList<>(uris.length);
-			StringBuilder sb = new StringBuilder("SELECT r FROM \"egzotics\".\"PksV_entity\" r WHERE (r.\"vv\", r.\"e\", r.\"ee\") IN (");
-			org.revenj.postgres.PostgresWriter.writeCompositeUriList(sb, uris);
-			sb.append(")");
-			try (java.sql.ResultSet rs = statement.executeQuery(sb.toString())) {
+			String[][] keys = org.revenj.postgres.PostgresWriter.splitCompositeUriList(uris, 3);
+			for (int i = 0; i < keys.length; i++) {
+				statement.setArray(i + 1, connection.createArrayOf("text", keys[i]));
+			}
+			try (java.sql.ResultSet rs = statement.executeQuery()) {
 				while (rs.next()) {
 					reader.process(rs.getString(1));
 					result.add(converter.from(reader));
@@ -220,6 +221,23 @@ public class PksVRepository   implements java.io.Closeable, org.revenj.patterns.
 
 	private static final String[] EMPTY_URI = new String[0];
 
+	@Override
+	public String[] bulkInsert(java.lang.Iterable<gen.model.egzotics.PksV> items) throws java.io.IOException {
+		java.sql.Connection connection = getConnection();
+		try {
+			return org.revenj.postgres.PostgresBulkCopy.insert(
+					connection,
+					items,
+					converter,
+					"\"egzotics\".\"persist_PksV\"",
+					null,
+					(chunk, sw) -> insertLoop.accept(chunk, new java.util.AbstractMap.SimpleEntry<>(sw, converter)),
+					trackChanges::apply);
+		} finally { 
+			releaseConnection(connection); 
+		}
+	}
+
 	@Override
 	public String[] persist(
 			java.util.Collection<gen.model.egzotics.PksV> insert,
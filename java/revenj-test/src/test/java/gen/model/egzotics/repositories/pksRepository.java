@@ -181,13 +181,11 @@ public class pksRepository   implements java.io.Closeable, org.revenj.patterns.R
 	@Override
 	public java.util.List<gen.model.egzotics.pks> find(String[] uris) {
 		java.sql.Connection connection = getConnection();
-		try (java.sql.Statement statement = connection.createStatement();
+		try (java.sql.PreparedStatement statement = connection.prepareStatement("SELECT r FROM \"egzotics\".\"pks_entity\" r WHERE r.\"id\" IN (SELECT unnest(?::text[])::int[])");
 			org.revenj.postgres.PostgresReader reader = org.revenj.postgres.PostgresReader.create(locator)) {
 			java.util.List<gen.model.egzotics.pks> result = new java.util.ArrayList<>(uris.length);
-			StringBuilder sb = new StringBuilder("SELECT r FROM \"egzotics\".\"pks_entity\" r WHERE r.\"id\" IN (");
-			org.revenj.postgres.PostgresWriter.writeSimpleUriList(sb, uris);
-			sb.append(")");
-			try (java.sql.ResultSet rs = statement.executeQuery(sb.toString())) {
+			statement.setArray(1, connection.createArrayOf("text", uris));
+			try (java.sql.ResultSet rs = statement.executeQuery()) {
 				while (rs.next()) {
 					reader.process(rs.getString(1));
 					result.add(converter.from(reader));
@@ -220,6 +218,23 @@ public class pksRepository   implements java.io.Closeable, org.revenj.patterns.R
 
 	private static final String[] EMPTY_URI = new String[0];
 
+	@Override
+	public String[] bulkInsert(java.lang.Iterable<gen.model.egzotics.pks> items) throws java.io.IOException {
+		java.sql.Connection connection = getConnection();
+		try {
+			return org.revenj.postgres.PostgresBulkCopy.insert(
+					connection,
+					items,
+					converter,
+					"\"egzotics\".\"persist_pks\"",
+					null,
+					insertLoop::accept,
+					trackChanges::apply);
+		} finally { 
+			releaseConnection(connection); 
+		}
+	}
+
 	@Override
 	public String[] persist(
 			java.util.Collection<gen.model.egzotics.pks> insert,
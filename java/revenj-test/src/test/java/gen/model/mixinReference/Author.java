@@ -134,19 +134,7 @@ public class Author   implements java.lang.Cloneable, java.io.Serializable, org.
 
 	
 	static {
-		gen.model.mixinReference.repositories.AuthorRepository.__setupSequenceID((items, connection) -> {
-			try (java.sql.PreparedStatement st = connection.prepareStatement("/*NO LOAD BALANCE*/SELECT nextval('\"mixinReference\".\"Author_ID_seq\"'::regclass)::int FROM generate_series(1, ?)")) {
-				st.setInt(1, items.size());
-				try (java.sql.ResultSet rs = st.executeQuery()) {
-					java.util.Iterator<Author> iterator = items.iterator();
-					while (rs.next()) {
-						iterator.next().setID(rs.getInt(1));
-					}
-				}
-			} catch (java.sql.SQLException e) {
-				throw new RuntimeException(e);
-			}
-		});
+		gen.model.mixinReference.repositories.AuthorRepository.__setupSequenceID("\"mixinReference\".\"Author_ID_seq\"", (it, id) -> it.setID(id));
 	}
 	
 	private String name;
@@ -110,19 +110,7 @@ public class SpecificReport   implements java.lang.Cloneable, java.io.Serializab
 
 	
 	static {
-		gen.model.mixinReference.repositories.SpecificReportRepository.__setupSequenceID((items, connection) -> {
-			try (java.sql.PreparedStatement st = connection.prepareStatement("/*NO LOAD BALANCE*/SELECT nextval('\"mixinReference\".\"SpecificReport_ID_seq\"'::regclass)::int FROM generate_series(1, ?)")) {
-				st.setInt(1, items.size());
-				try (java.sql.ResultSet rs = st.executeQuery()) {
-					java.util.Iterator<SpecificReport> iterator = items.iterator();
-					while (rs.next()) {
-						iterator.next().setID(rs.getInt(1));
-					}
-				}
-			} catch (java.sql.SQLException e) {
-				throw new RuntimeException(e);
-			}
-		});
+		gen.model.mixinReference.repositories.SpecificReportRepository.__setupSequenceID("\"mixinReference\".\"SpecificReport_ID_seq\"", (it, id) -> it.setID(id));
 	}
 	
 	static {
@@ -106,19 +106,7 @@ public class UserFilter   implements java.lang.Cloneable, java.io.Serializable,
 
 	
 	static {
-		gen.model.mixinReference.repositories.UserFilterRepository.__setupSequenceID((items, connection) -> {
-			try (java.sql.PreparedStatement st = connection.prepareStatement("/*NO LOAD BALANCE*/SELECT nextval('\"mixinReference\".\"UserFilter_ID_seq\"'::regclass)::int FROM generate_series(1, ?)")) {
-				st.setInt(1, items.size());
-				try (java.sql.ResultSet rs = st.executeQuery()) {
-					java.util.Iterator<UserFilter> iterator = items.iterator();
-					while (rs.next()) {
-						iterator.next().setID(rs.getInt(1));
-					}
-				}
-			} catch (java.sql.SQLException e) {
-				throw new RuntimeException(e);
-			}
-		});
+		gen.model.mixinReference.repositories.UserFilterRepository.__setupSequenceID("\"mixinReference\".\"UserFilter_ID_seq\"", (it, id) -> it.setID(id));
 	}
 	
 	private String name;
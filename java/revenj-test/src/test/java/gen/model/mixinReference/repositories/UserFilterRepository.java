@@ -19,6 +19,7 @@ public class UserFilterRepository   implements java.io.Closeable, org.revenj.pat
 		this.transactionConnection = transactionContext.orElse(null);
 		this.converter = converter;
 		this.locator = locator;
+		this.sequences = org.revenj.postgres.SequenceAllocators.from(locator);
 	}
 
 	private final java.util.Optional<java.sql.Connection> transactionContext;
@@ -27,6 +28,7 @@ public class UserFilterRepository   implements java.io.Closeable, org.revenj.pat
 	private final java.sql.Connection transactionConnection;
 	private final org.revenj.postgres.ObjectConverter<gen.model.mixinReference.UserFilter> converter;
 	private final org.revenj.patterns.ServiceLocator locator;
+	private final org.revenj.postgres.SequenceAllocators sequences;
 	
 	private java.sql.Connection getConnection() {
 		if (transactionConnection != null) return transactionConnection;
@@ -189,13 +191,11 @@ public class UserFilterRepository   implements java.io.Closeable, org.revenj.pat
 	@Override
 	public java.util.List<gen.model.mixinReference.UserFilter> find(String[] uris) {
 		java.sql.Connection connection = getConnection();
-		try (java.sql.Statement statement = connection.createStatement();
+		try (java.sql.PreparedStatement statement = connection.prepareStatement("SELECT r FROM \"mixinReference\".\"UserFilter_entity\" r WHERE r.\"ID\" = ANY(?::int[])");
 			org.revenj.postgres.PostgresReader reader = org.revenj.postgres.PostgresReader.create(locator)) {
 			java.util.List<gen.model.mixinReference.UserFilter> result = new java.util.ArrayList<>(uris.length);
-			StringBuilder sb = new StringBuilder("SELECT r FROM \"mixinReference\".\"UserFilter_entity\" r WHERE r.\"ID\" IN (");
-			org.revenj.postgres.PostgresWriter.writeSimpleUriList(sb, uris);
-			sb.append(")");
-			try (java.sql.ResultSet rs = statement.executeQuery(sb.toString())) {
+			statement.setArray(1, connection.createArrayOf("text", uris));
+			try (java.sql.ResultSet rs = statement.executeQuery()) {
 				while (rs.next()) {
 					reader.process(rs.getString(1));
 					result.add(converter.from(reader));
@@ -232,6 +232,23 @@ public class UserFilterRepository   implements java.io.Closeable, org.revenj.pat
 
 	private static final String[] EMPTY_URI = new String[0];
 
+	@Override
+	public String[] bulkInsert(java.lang.Iterable<gen.model.mixinReference.UserFilter> items) throws java.io.IOException {
+		java.sql.Connection connection = getConnection();
+		try {
+			return org.revenj.postgres.PostgresBulkCopy.insert(
+					connection,
+					items,
+					converter,
+					"\"mixinReference\".\"persist_UserFilter\"",
+					(chunk, c) -> sequences.forSequence(sequenceNameID).assign(chunk, c, assignSequenceID),
+					insertLoop::accept,
+					trackChanges::apply);
+		} finally { 
+			releaseConnection(connection); 
+		}
+	}
+
 	@Override
 	public String[] persist(
 			java.util.Collection<gen.model.mixinReference.UserFilter> insert,
@@ -242,7 +259,7 @@ public class UserFilterRepository   implements java.io.Closeable, org.revenj.pat
 			org.revenj.postgres.PostgresWriter sw = org.revenj.postgres.PostgresWriter.create()) {
 			String[] result;
 			if (insert != null && !insert.isEmpty()) {
-				assignSequenceID.accept(insert, connection);
+				sequences.forSequence(sequenceNameID).assign(insert, connection, assignSequenceID);
 				insertLoop.accept(insert, sw);
 				sw.reset();
 				org.revenj.postgres.converters.PostgresTuple tuple = org.revenj.postgres.converters.ArrayTuple.create(insert, converter::to);
@@ -335,7 +352,7 @@ public class UserFilterRepository   implements java.io.Closeable, org.revenj.pat
 		try (java.sql.PreparedStatement statement = connection.prepareStatement("/*NO LOAD BALANCE*/SELECT \"mixinReference\".\"insert_UserFilter\"(ARRAY[?])");
 			org.revenj.postgres.PostgresWriter sw = org.revenj.postgres.PostgresWriter.create()) {
 			java.util.List<gen.model.mixinReference.UserFilter> insert = java.util.Collections.singletonList(item);
-				assignSequenceID.accept(insert, connection);
+				sequences.forSequence(sequenceNameID).assign(insert, connection, assignSequenceID);
 			if (insertLoop != null) insertLoop.accept(insert, sw);
 			sw.reset();
 			org.revenj.postgres.converters.PostgresTuple tuple = converter.to(item);
@@ -392,9 +409,11 @@ public class UserFilterRepository   implements java.io.Closeable, org.revenj.pat
 	}
 
 	
-	public static void __setupSequenceID(java.util.function.BiConsumer<java.util.Collection<gen.model.mixinReference.UserFilter>, java.sql.Connection> sequence) {
-		assignSequenceID = sequence;
+	public static void __setupSequenceID(String sequence, java.util.function.ObjIntConsumer<gen.model.mixinReference.UserFilter> setter) {
+		sequenceNameID = sequence;
+		assignSequenceID = setter;
 	}
 
-	private static java.util.function.BiConsumer<java.util.Collection<gen.model.mixinReference.UserFilter>, java.sql.Connection> assignSequenceID;
+	private static String sequenceNameID;
+	private static java.util.function.ObjIntConsumer<gen.model.mixinReference.UserFilter> assignSequenceID;
 }
@@ -112,19 +112,7 @@ public class Document   implements java.lang.Cloneable, java.io.Serializable, or
 
 	
 	static {
-		gen.model.security.repositories.DocumentRepository.__setupSequenceID((items, connection) -> {
-			try (java.sql.PreparedStatement st = connection.prepareStatement("/*NO LOAD BALANCE*/SELECT nextval('\"security\".\"Document_ID_seq\"'::regclass)::int FROM generate_series(1, ?)")) {
-				st.setInt(1, items.size());
-				try (java.sql.ResultSet rs = st.executeQuery()) {
-					java.util.Iterator<Document> iterator = items.iterator();
-					while (rs.next()) {
-						iterator.next().setID(rs.getInt(1));
-					}
-				}
-			} catch (java.sql.SQLException e) {
-				throw new RuntimeException(e);
-			}
-		});
+		gen.model.security.repositories.DocumentRepository.__setupSequenceID("\"security\".\"Document_ID_seq\"", (it, id) -> it.setID(id));
 	}
 	
 	private java.util.Map<String, String> data;
@@ -120,19 +120,7 @@ public class LazyLoad   implements java.lang.Cloneable, java.io.Serializable, or
 
 	
 	static {
-		gen.model.test.repositories.LazyLoadRepository.__setupSequenceID((items, connection) -> {
-			try (java.sql.PreparedStatement st = connection.prepareStatement("/*NO LOAD BALANCE*/SELECT nextval('\"test\".\"LazyLoad_ID_seq\"'::regclass)::int FROM generate_series(1, ?)")) {
-				st.setInt(1, items.size());
-				try (java.sql.ResultSet rs = st.executeQuery()) {
-					java.util.Iterator<LazyLoad> iterator = items.iterator();
-					while (rs.next()) {
-						iterator.next().setID(rs.getInt(1));
-					}
-				}
-			} catch (java.sql.SQLException e) {
-				throw new RuntimeException(e);
-			}
-		});
+		gen.model.test.repositories.LazyLoadRepository.__setupSequenceID("\"test\".\"LazyLoad_ID_seq\"", (it, id) -> it.setID(id));
 	}
 	
 	private gen.model.test.Composite comp;
@@ -13,15 +13,23 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.revenj.extensibility.Container;
+import org.revenj.extensibility.SystemAspect;
 import org.revenj.patterns.DataContext;
 import org.revenj.patterns.Query;
 import org.revenj.patterns.ServiceLocator;
 import org.revenj.patterns.Specification;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.OffsetDateTime;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class TestQuery {
 
@@ -101,6 +109,19 @@ public class TestQuery {
 		Assert.assertTrue(found);
 	}
 
+	@Test
+	public void allMatchWithFilter() throws IOException {
+		ServiceLocator locator = container;
+		NextRepository repository = locator.resolve(NextRepository.class);
+		int first = Integer.parseInt(repository.insert(new Next()));
+		int second = Integer.parseInt(repository.insert(new Next()));
+		Query<Next> query = repository.query().filter(next -> next.getID() >= first && next.getID() <= second);
+		Assert.assertTrue(query.allMatch(next -> next.getID() >= first));
+		Assert.assertFalse(query.allMatch(next -> next.getID() == second));
+		Query<Next> empty = repository.query().filter(next -> next.getID() < 0);
+		Assert.assertFalse(empty.allMatch(next -> next.getID() < 0));
+	}
+
 	@Test
 	public void collectionContainsQuery() throws IOException {
 		ServiceLocator locator = container;
@@ -256,4 +277,179 @@ public class TestQuery {
 		Assert.assertTrue(found3);
 		Assert.assertTrue(found4);
 	}
+
+	private final AtomicInteger openConnections = new AtomicInteger();
+	private final List<Boolean> autoCommitChanges = Collections.synchronizedList(new ArrayList<>());
+	private volatile boolean failPrepare;
+
+	private Container trackingContainer() throws IOException {
+		org.postgresql.ds.PGSimpleDataSource postgres = new org.postgresql.ds.PGSimpleDataSource();
+		postgres.setUrl("jdbc:postgresql://localhost/revenj");
+		javax.sql.DataSource dataSource = (javax.sql.DataSource) Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class<?>[]{javax.sql.DataSource.class},
+				(proxy, method, args) -> {
+					Object result = invoke(postgres, method, args);
+					if (!"getConnection".equals(method.getName())) {
+						return result;
+					}
+					openConnections.incrementAndGet();
+					return tracking((Connection) result);
+				});
+		Properties properties = new Properties();
+		properties.setProperty("revenj.notifications.status", "disabled");
+		return Revenj.setup(
+				dataSource,
+				properties,
+				Optional.<ClassLoader>empty(),
+				Collections.singletonList((SystemAspect) new Boot()).iterator());
+	}
+
+	private Connection tracking(Connection connection) {
+		return (Connection) Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class<?>[]{Connection.class},
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+						case "close":
+							if (!connection.isClosed()) {
+								openConnections.decrementAndGet();
+							}
+							break;
+						case "setAutoCommit":
+							autoCommitChanges.add((Boolean) args[0]);
+							break;
+						case "prepareStatement":
+							if (failPrepare) {
+								throw new SQLException("Unable to prepare statement");
+							}
+							break;
+					}
+					return invoke(connection, method, args);
+				});
+	}
+
+	private static Object invoke(Object target, java.lang.reflect.Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static int[] insertNext(NextRepository repository, int count) throws IOException {
+		List<Next> items = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			items.add(new Next());
+		}
+		repository.insert(items);
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		for (Next it : items) {
+			min = Math.min(min, it.getID());
+			max = Math.max(max, it.getID());
+		}
+		return new int[]{min, max};
+	}
+
+	@Test
+	public void streamMoreRowsThanFetchSize() throws Exception {
+		try (Container tracking = trackingContainer()) {
+			NextRepository repository = tracking.resolve(NextRepository.class);
+			int[] range = insertNext(repository, 2500);
+			int min = range[0];
+			int max = range[1];
+			autoCommitChanges.clear();
+			Set<Integer> ids;
+			try (Stream<Next> stream = repository.query().filter(it -> it.getID() >= min && it.getID() <= max).stream()) {
+				ids = stream.map(Next::getID).collect(Collectors.toSet());
+			}
+			Assert.assertEquals(2500, ids.size());
+			Assert.assertEquals(0, openConnections.get());
+			Assert.assertEquals(Arrays.asList(false, true), autoCommitChanges);
+		}
+	}
+
+	@Test
+	public void streamThroughProvidedAutoCommitConnection() throws Exception {
+		try (Container tracking = trackingContainer();
+			Connection connection = tracking.resolve(javax.sql.DataSource.class).getConnection();
+			Container scope = tracking.createScope()) {
+			scope.registerInstance(Connection.class, connection, false);
+			NextRepository repository = scope.resolve(NextRepository.class);
+			int[] range = insertNext(repository, 1500);
+			int min = range[0];
+			int max = range[1];
+			autoCommitChanges.clear();
+			Set<Integer> ids;
+			try (Stream<Next> stream = repository.query().filter(it -> it.getID() >= min && it.getID() <= max).stream()) {
+				ids = stream.map(Next::getID).collect(Collectors.toSet());
+			}
+			Assert.assertEquals(1500, ids.size());
+			//fetch size is ignored in autocommit mode, so it must be disabled even on provided connection
+			Assert.assertEquals(Arrays.asList(false, true), autoCommitChanges);
+			Assert.assertTrue(connection.getAutoCommit());
+			Assert.assertEquals(1, openConnections.get());
+		}
+		Assert.assertEquals(0, openConnections.get());
+	}
+
+	@Test
+	public void streamWithLimitAndOffset() throws Exception {
+		try (Container tracking = trackingContainer()) {
+			NextRepository repository = tracking.resolve(NextRepository.class);
+			int[] range = insertNext(repository, 20);
+			Next.BetweenIds between = new Next.BetweenIds().setMin(range[0]).setMax(range[1]);
+			List<Next> found;
+			try (Stream<Next> stream = repository.stream(between, 10, 5)) {
+				found = stream.collect(Collectors.toList());
+			}
+			Assert.assertEquals(10, found.size());
+			for (Next it : found) {
+				Assert.assertTrue(it.getID() >= range[0] && it.getID() <= range[1]);
+			}
+			try (Stream<Next> stream = repository.stream(between, null, 15)) {
+				Assert.assertEquals(5, stream.count());
+			}
+			Assert.assertEquals(0, openConnections.get());
+		}
+	}
+
+	@Test
+	public void partiallyConsumedStreamReleasesConnection() throws Exception {
+		try (Container tracking = trackingContainer()) {
+			NextRepository repository = tracking.resolve(NextRepository.class);
+			insertNext(repository, 1500);
+			autoCommitChanges.clear();
+			Stream<Next> stream = repository.stream();
+			Iterator<Next> iterator = stream.iterator();
+			for (int i = 0; i < 10; i++) {
+				Assert.assertNotNull(iterator.next());
+			}
+			Assert.assertEquals(1, openConnections.get());
+			stream.close();
+			Assert.assertEquals(0, openConnections.get());
+			Assert.assertEquals(Arrays.asList(false, true), autoCommitChanges);
+			Assert.assertEquals(10, repository.search(10).size());
+		}
+	}
+
+	@Test
+	public void streamWhichFailsToStartReleasesConnection() throws Exception {
+		try (Container tracking = trackingContainer()) {
+			NextRepository repository = tracking.resolve(NextRepository.class);
+			autoCommitChanges.clear();
+			failPrepare = true;
+			try {
+				repository.query().stream();
+				Assert.fail("Expecting stream to fail");
+			} catch (IOException e) {
+				Assert.assertTrue(e.getCause() instanceof SQLException);
+			} finally {
+				failPrepare = false;
+			}
+			Assert.assertEquals(0, openConnections.get());
+			Assert.assertEquals(Arrays.asList(false, true), autoCommitChanges);
+		}
+	}
 }
@@ -2,6 +2,7 @@ package org.revenj;
 
 import gen.model.Boot;
 import gen.model.Seq.Next;
+import gen.model.Seq.repositories.NextRepository;
 import gen.model.binaries.Document;
 import gen.model.egzotics.E;
 import gen.model.egzotics.PksV;
@@ -28,6 +29,8 @@ import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 public class TestRepository {
 
@@ -76,6 +79,111 @@ public class TestRepository {
 		Assert.assertFalse(found.isPresent());
 	}
 
+	@Test
+	public void bulkInsertWithEscaping() throws IOException {
+		ServiceLocator locator = container;
+		PersistableRepository<Composite> repository = locator.resolve(CompositeRepository.class);
+		List<Composite> items = new ArrayList<>();
+		for (int i = 0; i < 25; i++) {
+			Composite co = new Composite();
+			co.setId(UUID.randomUUID());
+			Simple so = new Simple();
+			so.setNumber(i);
+			so.setText("bulk \t tab\t and ' \\ \" \n line " + i);
+			co.setSimple(so);
+			items.add(co);
+		}
+		String[] uris = repository.bulkInsert(items.stream());
+		Assert.assertEquals(items.size(), uris.length);
+		List<Composite> found = repository.find(uris);
+		Assert.assertEquals(items.size(), found.size());
+		Map<String, Composite> byUri = new HashMap<>();
+		for (Composite co : found) {
+			byUri.put(co.getURI(), co);
+		}
+		for (Composite co : items) {
+			Composite db = byUri.get(co.getURI());
+			Assert.assertNotNull(db);
+			Assert.assertEquals(co.getSimple().getText(), db.getSimple().getText());
+		}
+		repository.delete(found);
+	}
+
+	@Test
+	public void bulkInsertAcrossChunks() throws IOException {
+		ServiceLocator locator = container;
+		PersistableRepository<Composite> repository = locator.resolve(CompositeRepository.class);
+		//more than a single bulk copy chunk of 10000 items
+		int count = 10000 * 2 + 17;
+		AtomicInteger closed = new AtomicInteger();
+		String[] uris = repository.bulkInsert(IntStream.range(0, count).mapToObj(i -> {
+			Composite co = new Composite();
+			co.setId(UUID.randomUUID());
+			co.setSimple(new Simple().setNumber(i).setText("chunk " + i));
+			return co;
+		}).onClose(closed::incrementAndGet));
+		Assert.assertEquals(1, closed.get());
+		Assert.assertEquals(count, uris.length);
+		Assert.assertEquals(count, new HashSet<>(Arrays.asList(uris)).size());
+		List<Composite> found = repository.find(uris);
+		Assert.assertEquals(count, found.size());
+		Set<Integer> numbers = new HashSet<>();
+		for (Composite co : found) {
+			Assert.assertEquals("chunk " + co.getSimple().getNumber(), co.getSimple().getText());
+			numbers.add(co.getSimple().getNumber());
+		}
+		Assert.assertEquals(count, numbers.size());
+		repository.delete(found);
+	}
+
+	@Test
+	public void bulkInsertAfterFailedOneInSameTransaction() throws Exception {
+		try (java.sql.Connection connection = container.resolve(javax.sql.DataSource.class).getConnection();
+			Container scope = container.createScope()) {
+			connection.setAutoCommit(false);
+			scope.registerInstance(java.sql.Connection.class, connection, false);
+			PersistableRepository<Next> repository = scope.resolve(NextRepository.class);
+			try {
+				repository.bulkInsert(IntStream.range(0, 10).mapToObj(i -> {
+					if (i == 5) throw new IllegalStateException("failed source");
+					return new Next();
+				}));
+				Assert.fail("Expecting failure");
+			} catch (IllegalStateException ignore) {
+			}
+			List<Next> items = Arrays.asList(new Next(), new Next(), new Next());
+			String[] uris = repository.bulkInsert(items);
+			Assert.assertEquals(3, uris.length);
+			Assert.assertEquals(3, repository.find(uris).size());
+			connection.rollback();
+		}
+	}
+
+	@Test
+	public void bulkInsertAssignsSequenceAcrossChunks() throws IOException {
+		ServiceLocator locator = container;
+		PersistableRepository<Next> repository = locator.resolve(NextRepository.class);
+		//sequence identities must be assigned in every bulk copy chunk of 10000 items
+		int count = 10000 * 2 + 17;
+		List<Next> items = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			items.add(new Next());
+		}
+		String[] uris = repository.bulkInsert(items);
+		Assert.assertEquals(count, uris.length);
+		Set<Integer> ids = new HashSet<>();
+		for (int i = 0; i < count; i++) {
+			int id = items.get(i).getID();
+			Assert.assertNotEquals(0, id);
+			Assert.assertEquals(Integer.toString(id), uris[i]);
+			ids.add(id);
+		}
+		Assert.assertEquals(count, ids.size());
+		List<Next> found = repository.find(uris);
+		Assert.assertEquals(count, found.size());
+		repository.delete(found);
+	}
+
 	@Test
 	public void eventTest() throws IOException {
 		ServiceLocator locator = container;
@@ -0,0 +1,381 @@
+package org.revenj.server;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.revenj.Revenj;
+import org.revenj.extensibility.Container;
+import org.revenj.extensibility.SystemAspect;
+import org.revenj.patterns.Bytes;
+import org.revenj.patterns.ServiceLocator;
+import org.revenj.security.PermissionManager;
+import org.revenj.serialization.Serialization;
+import org.revenj.serialization.WireSerialization;
+
+import javax.sql.DataSource;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.security.Principal;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestEngineTransactions {
+
+	private final List<String> log = Collections.synchronizedList(new ArrayList<>());
+	private final AtomicInteger connections = new AtomicInteger();
+	private Container container;
+
+	@Before
+	public void initContainer() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("revenj.notifications.status", "disabled");
+		container =
+				Revenj.setup(
+						dataSource(),
+						properties,
+						Optional.<ClassLoader>empty(),
+						Collections.<SystemAspect>emptyIterator());
+	}
+
+	@After
+	public void closeContainer() throws Exception {
+		container.close();
+	}
+
+	private DataSource dataSource() {
+		return (DataSource) Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class<?>[]{DataSource.class},
+				(proxy, method, args) -> {
+					if (!"getConnection".equals(method.getName())) {
+						throw new UnsupportedOperationException(method.getName());
+					}
+					connections.incrementAndGet();
+					return connection();
+				});
+	}
+
+	private Connection connection() {
+		return (Connection) Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class<?>[]{Connection.class},
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "equals":
+							return proxy == args[0];
+						case "toString":
+							return "connection";
+						case "getAutoCommit":
+							return true;
+						case "isReadOnly":
+							return false;
+						case "createStatement":
+							return statement();
+					}
+					log.add(args != null && args.length == 1 ? method.getName() + "(" + args[0] + ")" : method.getName());
+					return null;
+				});
+	}
+
+	private Statement statement() {
+		return (Statement) Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class<?>[]{Statement.class},
+				(proxy, method, args) -> {
+					if ("execute".equals(method.getName())) {
+						log.add((String) args[0]);
+						return false;
+					}
+					return null;
+				});
+	}
+
+	private static final Serialization<Object> PASS_THROUGH = new Serialization<Object>() {
+		@Override
+		public Object serialize(Object value) {
+			return value;
+		}
+
+		@Override
+		public Object deserialize(Type type, Object data) {
+			return data;
+		}
+	};
+
+	private static final WireSerialization SERIALIZATION = new WireSerialization() {
+		@Override
+		public Bytes serialize(Object value, String contentType) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void serialize(Object value, OutputStream stream, String contentType) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Object deserialize(Type type, Bytes data, String accept) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Object deserialize(Type type, InputStream stream, String accept) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public <TFormat> Optional<Serialization<TFormat>> find(Class<TFormat> format) {
+			return Object.class.equals(format) ? Optional.of((Serialization<TFormat>) PASS_THROUGH) : Optional.empty();
+		}
+	};
+
+	private final class Change implements ServerCommand {
+		@Override
+		public <TInput, TOutput> CommandResult<TOutput> execute(
+				ServiceLocator locator,
+				Serialization<TInput> input,
+				Serialization<TOutput> output,
+				TInput data,
+				Principal principal) {
+			locator.resolve(Connection.class);
+			log.add("change");
+			return CommandResult.success("changed", output.serialize(data));
+		}
+	}
+
+	private final class Read implements ServerCommand {
+		@Override
+		public boolean isReadOnly() {
+			return true;
+		}
+
+		@Override
+		public <TInput, TOutput> CommandResult<TOutput> execute(
+				ServiceLocator locator,
+				Serialization<TInput> input,
+				Serialization<TOutput> output,
+				TInput data,
+				Principal principal) {
+			//repositories use the scoped connection when there is one or take a pooled one otherwise
+			log.add(locator.tryResolve(Connection.class).isPresent() ? "read in transaction" : "read");
+			return CommandResult.success("read", output.serialize(data));
+		}
+	}
+
+	private final class StreamingRead implements ServerCommand {
+		@Override
+		public boolean isReadOnly() {
+			return true;
+		}
+
+		@Override
+		public boolean isStreaming() {
+			return true;
+		}
+
+		@Override
+		public <TInput, TOutput> CommandResult<TOutput> execute(
+				ServiceLocator locator,
+				Serialization<TInput> input,
+				Serialization<TOutput> output,
+				TInput data,
+				Principal principal) {
+			log.add(locator.tryResolve(Connection.class).isPresent() ? "stream in transaction" : "stream");
+			return CommandResult.success("streamed", output.serialize(data));
+		}
+	}
+
+	private final AtomicInteger running = new AtomicInteger();
+	private final AtomicInteger maxRunning = new AtomicInteger();
+
+	private final class Slow implements ServerCommand {
+		@Override
+		public boolean isReadOnly() {
+			return true;
+		}
+
+		@Override
+		public <TInput, TOutput> CommandResult<TOutput> execute(
+				ServiceLocator locator,
+				Serialization<TInput> input,
+				Serialization<TOutput> output,
+				TInput data,
+				Principal principal) {
+			maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+			try {
+				Thread.sleep((Integer) data);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} finally {
+				running.decrementAndGet();
+			}
+			return CommandResult.success("slow", output.serialize(data));
+		}
+	}
+
+	private ProcessingEngine engine(Executor readExecutor, int readConcurrency) {
+		return new ProcessingEngine(
+				container,
+				container.resolve(DataSource.class),
+				SERIALIZATION,
+				container.resolve(PermissionManager.class),
+				new ServerCommand[]{new Change(), new Read(), new StreamingRead(), new Slow()},
+				readExecutor,
+				readConcurrency);
+	}
+
+	private static ServerCommandDescription<Object>[] commands(Class<?> command, Object... arguments) {
+		ServerCommandDescription<Object>[] result = new ServerCommandDescription[arguments.length];
+		for (int i = 0; i < arguments.length; i++) {
+			result[i] = new ServerCommandDescription<>(Integer.toString(i), command, arguments[i]);
+		}
+		return result;
+	}
+
+	@Test
+	public void changesAreCommittedBeforeResultIsWritten() throws Exception {
+		ProcessingEngine engine = engine(null, 1);
+		ProcessingResult<Object> result = engine.execute(
+				Object.class,
+				Object.class,
+				commands(Change.class, 1, 2),
+				null,
+				it -> log.add("write"));
+		Assert.assertEquals(200, result.status);
+		Assert.assertEquals(1, connections.get());
+		Assert.assertEquals(
+				Arrays.asList("setAutoCommit(false)", "change", "change", "commit", "write", "setAutoCommit(true)", "close"),
+				log);
+	}
+
+	@Test
+	public void singleReadDoesNotAcquireConnection() throws Exception {
+		ProcessingEngine engine = engine(null, 1);
+		ProcessingResult<Object> result = engine.execute(Object.class, Object.class, commands(Read.class, 1), null);
+		Assert.assertEquals(200, result.status);
+		Assert.assertEquals(0, connections.get());
+		Assert.assertEquals(Collections.singletonList("read"), log);
+	}
+
+	@Test
+	public void readBatchRunsInSingleReadOnlyTransaction() throws Exception {
+		ProcessingEngine engine = engine(null, 1);
+		ProcessingResult<Object> result = engine.execute(Object.class, Object.class, commands(Read.class, 1, 2, 3), null);
+		Assert.assertEquals(200, result.status);
+		Assert.assertEquals(3, result.executedCommandResults.length);
+		Assert.assertEquals(1, connections.get());
+		Assert.assertEquals(
+				Arrays.asList(
+						"setAutoCommit(false)",
+						"SET TRANSACTION READ ONLY",
+						"read in transaction",
+						"read in transaction",
+						"read in transaction",
+						"rollback",
+						"setAutoCommit(true)",
+						"close"),
+				log);
+	}
+
+	@Test
+	public void writtenSingleReadDoesNotAcquireConnection() throws Exception {
+		ProcessingEngine engine = engine(null, 1);
+		ProcessingResult<Object> result = engine.execute(
+				Object.class,
+				Object.class,
+				commands(Read.class, 1),
+				null,
+				it -> log.add("write"));
+		Assert.assertEquals(200, result.status);
+		Assert.assertEquals(0, connections.get());
+		Assert.assertEquals(Arrays.asList("read", "write"), log);
+	}
+
+	@Test
+	public void streamedReadIsWrittenInReadOnlyTransaction() throws Exception {
+		ProcessingEngine engine = engine(null, 1);
+		ProcessingResult<Object> result = engine.execute(
+				Object.class,
+				Object.class,
+				commands(StreamingRead.class, 1),
+				null,
+				it -> log.add("write"));
+		Assert.assertEquals(200, result.status);
+		Assert.assertEquals(1, connections.get());
+		Assert.assertEquals(
+				Arrays.asList(
+						"setAutoCommit(false)",
+						"SET TRANSACTION READ ONLY",
+						"stream in transaction",
+						"write",
+						"rollback",
+						"setAutoCommit(true)",
+						"close"),
+				log);
+	}
+
+	@Test
+	public void singleBatchIsLimitedByReadConcurrency() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			ProcessingEngine engine = engine(executor, 2);
+			ProcessingResult<Object> result = engine.execute(Object.class, Object.class, commands(Slow.class, 20, 20, 20, 20, 20, 20), null);
+			Assert.assertEquals(200, result.status);
+			Assert.assertEquals(6, result.executedCommandResults.length);
+			Assert.assertEquals(2, maxRunning.get());
+			Assert.assertEquals(0, connections.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void concurrentBatchesKeepRequestOrder() throws Exception {
+		ExecutorService executor = new ThreadPoolExecutor(
+				4,
+				4,
+				0L,
+				TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(4),
+				(r, pool) -> r.run());
+		ExecutorService requests = Executors.newFixedThreadPool(8);
+		try {
+			ProcessingEngine engine = engine(executor, 3);
+			List<Future<Boolean>> batches = new ArrayList<>();
+			for (int b = 0; b < 32; b++) {
+				Random random = new Random(b);
+				Object[] delays = new Object[2 + random.nextInt(6)];
+				for (int i = 0; i < delays.length; i++) {
+					delays[i] = random.nextInt(10);
+				}
+				batches.add(requests.submit(() -> {
+					ProcessingResult<Object> result = engine.execute(Object.class, Object.class, commands(Slow.class, delays), null);
+					if (result.status != 200 || result.executedCommandResults.length != delays.length) {
+						return false;
+					}
+					for (int i = 0; i < delays.length; i++) {
+						CommandResultDescription<Object> description = result.executedCommandResults[i];
+						if (!Integer.toString(i).equals(description.requestID) || !delays[i].equals(description.result.data)) {
+							return false;
+						}
+					}
+					return true;
+				}));
+			}
+			for (Future<Boolean> batch : batches) {
+				Assert.assertTrue(batch.get(30, TimeUnit.SECONDS));
+			}
+		} finally {
+			requests.shutdown();
+			executor.shutdown();
+		}
+	}
+}